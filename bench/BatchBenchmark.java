@@ -0,0 +1,114 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Batches of updates against a full tree: Operations.addAll / removeAll next to
+ * the same batch applied with add / remove one element at a time, and java.util.TreeSet doing the same work.
+ * The tree holds the n even keys 0 .. 2n - 2, a batch draws random keys from 0 .. 2n - 1,
+ * so about half of them are in the tree already. Times are reported per element of the batch.
+ * <p>
+ * Batches smaller than half of the tree are taken down the tree in one descent, larger ones are merged with
+ * the elements and the tree is rebuilt. The defaults include batches of 10_000 - 100_000 keys into 10^7.
+ * <p>
+ * Arguments: n and the batch sizes, by default 1_000_000 with 1_000, 10_000, 100_000
+ * and 10_000_000 with 10_000, 100_000, which run in -Xmx3g; 3 * 10^7 and more need -Xmx8g or more.
+ */
+public class BatchBenchmark {
+
+    private final Integer[] sorted;
+    private final TreeSet<Integer> sortedSet;   // Copied in linear time for every TreeSet run
+    private final List<Integer> batch;
+
+    private Operations<Integer> tree;
+    private TreeSet<Integer> set;
+
+    private BatchBenchmark(int n, int batchSize) {
+        this.sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = 2 * i;
+        }
+
+        Random random = new Random(batchSize);
+        Integer[] keys = new Integer[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            keys[i] = random.nextInt(2 * n);
+        }
+        this.batch = Arrays.asList(keys);
+        this.sortedSet = new TreeSet<>(Arrays.asList(sorted));
+    }
+
+    public static void main(String[] args) {
+        warmUp();
+        if (args.length == 0) {
+            run(1_000_000, 1_000, 10_000, 100_000);
+            run(10_000_000, 10_000, 100_000);
+            return;
+        }
+
+        int[] batchSizes = args.length > 1 ? new int[args.length - 1] : new int[]{1_000, 10_000, 100_000};
+        for (int i = 1; i < args.length; i++) {
+            batchSizes[i - 1] = Integer.parseInt(args[i]);
+        }
+        run(Integer.parseInt(args[0]), batchSizes);
+    }
+
+    /**
+     * The sort of a batch takes many more calls than the harness warms up with before the JIT is done with it,
+     * so batches into a small tree are applied first, unmeasured
+     */
+    private static void warmUp() {
+        BatchBenchmark warmUp = new BatchBenchmark(100_000, 10_000);
+        long sizes = 0;
+        for (int i = 0; i < 50; i++) {
+            Operations<Integer> tree = new Operations<>(warmUp.sorted);
+            tree.addAll(warmUp.batch);
+            tree.removeAll(warmUp.batch);
+            sizes += tree.size();
+        }
+        Harness.sink = sizes;
+    }
+
+    private static void run(int n, int... batchSizes) {
+        for (int batchSize : batchSizes) {
+            System.out.println("n = " + n + ", batch = " + batchSize);
+            new BatchBenchmark(n, batchSize).run();
+            System.out.println();
+        }
+    }
+
+    private void run() {
+        int k = batch.size();
+
+        Harness.measure("  add      one by one", k, () -> tree = new Operations<>(sorted), () -> {
+            for (Integer key : batch) tree.add(key);
+            return tree.size();
+        });
+        Harness.measure("  add      addAll", k, () -> tree = new Operations<>(sorted), () -> {
+            tree.addAll(batch);
+            return tree.size();
+        });
+        Harness.measure("  add      TreeSet", k, this::fillSet, () -> {
+            set.addAll(batch);
+            return set.size();
+        });
+
+        Harness.measure("  remove   one by one", k, () -> tree = new Operations<>(sorted), () -> {
+            for (Integer key : batch) tree.remove(key);
+            return tree.size();
+        });
+        Harness.measure("  remove   removeAll", k, () -> tree = new Operations<>(sorted), () -> {
+            tree.removeAll(batch);
+            return tree.size();
+        });
+        Harness.measure("  remove   TreeSet", k, this::fillSet, () -> {
+            set.removeAll(batch);
+            return set.size();
+        });
+    }
+
+    private void fillSet() {
+        set = new TreeSet<>(sortedSet);
+    }
+}
@@ -0,0 +1,96 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compares Operations of URL strings with ByteStringTwoThreeTree of their UTF-8 bytes, prefix-compressed in the nodes:
+ * heap taken by the trees, lookups of keys in the tree and a prefix scan over one path.
+ * The URLs share long prefixes, like https://shop.example.com/catalog/category-17/product-123456?variant=3.
+ * <p>
+ * Sizes can be given as arguments, by default 10^5 and 10^6 are measured. The heap is measured
+ * after System.gc(), with the keys held only by the trees; run with a fixed heap (-Xms = -Xmx) for steady numbers.
+ */
+public class ByteStringBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{100_000, 1_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int n : sizes) {
+            Random random = new Random(n);
+            String[] urls = new String[n];
+            for (int i = 0; i < n; i++) {
+                urls[i] = "https://shop.example.com/catalog/category-" + random.nextInt(50)
+                        + "/product-" + random.nextInt(1_000_000) + "?variant=" + random.nextInt(10);
+            }
+
+            System.out.println("n = " + n);
+            long before = usedHeap();
+            Operations<String> strings = new Operations<>();
+            for (String url : urls) {
+                strings.add(new String(url.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8)); // A copy of its own
+            }
+            long stringBytes = usedHeap() - before;
+
+            before = usedHeap();
+            ByteStringTwoThreeTree bytes = new ByteStringTwoThreeTree();
+            for (String url : urls) {
+                bytes.add(url);
+            }
+            long byteBytes = usedHeap() - before;
+
+            System.out.printf("  heap, strings        %8.1f bytes per key%n", (double) stringBytes / strings.size());
+            System.out.printf("  heap, byte strings   %8.1f bytes per key%n", (double) byteBytes / bytes.size());
+
+            String[] stringProbes = new String[PROBES];
+            byte[][] byteProbes = new byte[PROBES][];
+            for (int i = 0; i < PROBES; i++) {
+                stringProbes[i] = urls[random.nextInt(n)];
+                byteProbes[i] = stringProbes[i].getBytes(StandardCharsets.UTF_8);
+            }
+
+            Harness.measure("  search, strings", PROBES, () -> {
+                long found = 0;
+                for (String probe : stringProbes) {
+                    if (strings.search(probe)) found++;
+                }
+                return found;
+            });
+
+            Harness.measure("  search, byte strings", PROBES, () -> {
+                long found = 0;
+                for (byte[] probe : byteProbes) {
+                    if (bytes.search(probe)) found++;
+                }
+                return found;
+            });
+
+            // One category holds about 1 / 50 of the keys
+            String prefix = "https://shop.example.com/catalog/category-7/";
+            int scanned = strings.subSet(prefix, prefix + Character.MAX_VALUE).size();
+            Harness.measure("  prefix scan, strings", scanned, () -> {
+                long[] length = new long[1];
+                strings.forEachInRange(prefix, true, prefix + Character.MAX_VALUE, false, url -> length[0] += url.length());
+                return length[0];
+            });
+
+            byte[] bytePrefix = prefix.getBytes(StandardCharsets.UTF_8);
+            Harness.measure("  prefix scan, byte strings", scanned, () -> {
+                long[] length = new long[1];
+                bytes.forEachWithPrefix(bytePrefix, url -> length[0] += url.length);
+                return length[0];
+            });
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Randomized differential check of an Operations tree in reverse order against java.util.TreeSet
+ * with the same comparator, run as a program.
+ * <p>
+ * Every round builds the tree in one of the ways that take a comparator (add, sorted array, iterator, stream,
+ * snapshot, whose deltas must stay short in the descending order) and compares the range views
+ * subSet / headSet / tailSet with random bounds: the elements in order, size, isEmpty and contains, as well as forEachInRange and rangeCount.
+ * <p>
+ * Arguments: rounds, by default 2_000. The exit status is 1 if any check failed.
+ */
+public class ComparatorCheck {
+
+    private static final Comparator<Integer> REVERSE = Comparator.reverseOrder();
+    private static final int RANGES = 32;           // Random ranges checked in every round
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+
+        for (int round = 0; round < rounds && failures < 10; round++) {
+            Random random = new Random(round);
+            int range = 1 + random.nextInt(round % 2 == 0 ? 32 : 5_000);
+
+            TreeSet<Integer> expected = new TreeSet<>(REVERSE);
+            for (int i = random.nextInt(range); i > 0; i--) {
+                expected.add(random.nextInt(range));
+            }
+
+            Operations<Integer> tree = build(round, expected, random);
+            check(round, "size " + tree.size() + " instead of " + expected.size(), tree.size() == expected.size());
+            check(round, "elements", same(tree, expected));
+            try {
+                tree.validate();
+            } catch (IllegalStateException e) {
+                check(round, e.getMessage(), false);
+            }
+
+            for (int i = 0; i < RANGES; i++) {
+                // Bounds one beyond the keys on both sides, in the order of the comparator
+                Integer from = random.nextInt(range + 2) - 1;
+                Integer to = random.nextInt(range + 2) - 1;
+                if (REVERSE.compare(from, to) > 0) {
+                    Integer swap = from;
+                    from = to;
+                    to = swap;
+                }
+                boolean fromInclusive = random.nextBoolean();
+                boolean toInclusive = random.nextBoolean();
+                String bounds = (fromInclusive ? "[" : "(") + from + ", " + to + (toInclusive ? "]" : ")");
+
+                compare(round, "subSet " + bounds, tree.subSet(from, fromInclusive, to, toInclusive),
+                        expected.subSet(from, fromInclusive, to, toInclusive));
+                compare(round, "headSet " + bounds, tree.headSet(to, toInclusive), expected.headSet(to, toInclusive));
+                compare(round, "tailSet " + bounds, tree.tailSet(from, fromInclusive), expected.tailSet(from, fromInclusive));
+
+                NavigableSet<Integer> view = expected.subSet(from, fromInclusive, to, toInclusive);
+                List<Integer> visited = new ArrayList<>();
+                tree.forEachInRange(from, fromInclusive, to, toInclusive, visited::add);
+                check(round, "forEachInRange " + bounds, visited.equals(new ArrayList<>(view)));
+                check(round, "rangeCount " + bounds, tree.rangeCount(from, fromInclusive, to, toInclusive) == view.size());
+            }
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    /**
+     * @return tree in reverse order with the elements of the set, built in the way of the round
+     */
+    private static Operations<Integer> build(int round, TreeSet<Integer> expected, Random random) throws IOException {
+        Integer[] sorted = expected.toArray(new Integer[0]);
+        switch (round % 5) {
+            case 0: {
+                Operations<Integer> tree = new Operations<Integer>(REVERSE);
+                List<Integer> shuffled = new ArrayList<>(expected);
+                Collections.shuffle(shuffled, random);
+                for (Integer key : shuffled) tree.add(key);
+                return tree;
+            }
+            case 1:
+                return new Operations<>(sorted, random.nextDouble(), REVERSE);
+            case 2:
+                return new Operations<>(expected.iterator(), random.nextDouble(), REVERSE);
+            case 3:
+                return new Operations<>(expected.stream(), random.nextDouble(), REVERSE);
+            default: {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                TreeSnapshot.write(new Operations<>(sorted, 0.5, REVERSE), KeyCodec.INTEGER_DELTAS, out);
+
+                // The keys are less than 2^13 apart, so every delta takes at most two bytes, downwards as well
+                ByteArrayOutputStream empty = new ByteArrayOutputStream();
+                TreeSnapshot.write(new Operations<Integer>(REVERSE), KeyCodec.INTEGER_DELTAS, empty);
+                int bytes = out.size() - empty.size();
+                check(round, sorted.length + " keys in " + bytes + " bytes", bytes <= 2 * sorted.length);
+
+                return TreeSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.INTEGER_DELTAS, REVERSE);
+            }
+        }
+    }
+
+    private static void compare(int round, String what, Set<Integer> view, NavigableSet<Integer> expected) {
+        check(round, what + ": elements", same(view, expected));
+        check(round, what + ": size " + view.size() + " instead of " + expected.size(), view.size() == expected.size());
+        check(round, what + ": isEmpty", view.isEmpty() == expected.isEmpty());
+        for (int key = -1; key <= 1 && !expected.isEmpty(); key++) {
+            Integer probe = expected.first() + key;
+            check(round, what + ": contains " + probe, view.contains(probe) == expected.contains(probe));
+        }
+    }
+
+    private static boolean same(Iterable<Integer> found, NavigableSet<Integer> expected) {
+        List<Integer> elements = new ArrayList<>();
+        for (Integer key : found) elements.add(key);
+        return elements.equals(new ArrayList<>(expected));
+    }
+
+    private static void check(int round, String what, boolean passed) {
+        if (!passed && failures++ < 20) {
+            System.out.println("FAILED round " + round + ": " + what);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Regression check of Operations with compareTo and comparators that return any magnitude, not only -1, 0 and 1,
+ * run as a program. The tree used to test the result of compareTo against 1 and misplaced such elements.
+ * <p>
+ * Three kinds of elements are checked against java.util.TreeSet: strings, whose compareTo returns the difference
+ * of the first distinct characters or of the lengths, keys whose compareTo scales the difference up,
+ * and strings ordered by String.CASE_INSENSITIVE_ORDER. Every round runs a random mix of add / remove / search
+ * and then compares the elements in order, floor / ceiling and rank, and validates the tree.
+ * <p>
+ * Arguments: rounds, by default 500. The exit status is 1 if any check failed.
+ */
+public class CompareSignCheck {
+
+    /**
+     * Key with a compareTo that returns the difference times a large factor
+     */
+    static final class ScaledKey implements Comparable<ScaledKey> {
+        final int value;
+
+        ScaledKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ScaledKey other) {
+            long order = (long) (value - other.value) * 1_000_003;
+            return (int) Math.max(-Integer.MAX_VALUE, Math.min(Integer.MAX_VALUE, order));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ScaledKey && ((ScaledKey) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
+    /**
+     * Makes the element of a round from a random number
+     */
+    private interface Keys<T> {
+        T key(Random random, int range);
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        for (int round = 0; round < rounds && failures < 10; round++) {
+            run("strings", round, null, CompareSignCheck::string);
+            run("scaled keys", round, null, (random, range) -> new ScaledKey(random.nextInt(range) - range / 2));
+            run("case insensitive", round, String.CASE_INSENSITIVE_ORDER, CompareSignCheck::string);
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    private static String string(Random random, int range) {
+        // Short strings of few letters in both cases, so prefixes, equal keys and case ties are frequent
+        char[] letters = new char[random.nextInt(4)];
+        int value = random.nextInt(range);
+        for (int i = 0; i < letters.length; i++, value /= 5) {
+            letters[i] = (char) ((value & 1) == 0 ? 'a' + value % 5 : 'A' + value % 5);
+        }
+        return new String(letters);
+    }
+
+    private static <T extends Comparable<T>> void run(String name, int round, Comparator<? super T> comparator, Keys<T> keys) {
+        Random random = new Random(round);
+        int range = 1 + random.nextInt(round % 2 == 0 ? 64 : 5_000);
+        String what = name + ", round " + round + ": ";
+
+        Operations<T> tree = new Operations<T>(comparator);
+        TreeSet<T> expected = new TreeSet<>(comparator);
+        for (int i = 0; i < 4 * range; i++) {
+            T key = keys.key(random, range);
+            int dice = random.nextInt(100);
+            if (dice < 55) {
+                tree.add(key);
+                expected.add(key);
+            } else if (dice < 85) {
+                check(what + "remove " + key, tree.remove(key) == expected.remove(key));
+            } else {
+                check(what + "search " + key, tree.search(key) == expected.contains(key));
+            }
+        }
+
+        check(what + "size " + tree.size() + " instead of " + expected.size(), tree.size() == expected.size());
+        List<T> elements = new ArrayList<>();
+        for (T key : tree) elements.add(key);
+        check(what + "elements", elements.equals(new ArrayList<>(expected)));
+        try {
+            tree.validate();
+        } catch (IllegalStateException e) {
+            check(what + e.getMessage(), false);
+        }
+
+        for (int i = 0; i < 32; i++) {
+            T key = keys.key(random, range);
+            check(what + "floor " + key, same(tree.floor(key), expected.floor(key), comparator));
+            check(what + "ceiling " + key, same(tree.ceiling(key), expected.ceiling(key), comparator));
+            check(what + "rank " + key, tree.countLessThan(key) == expected.headSet(key).size());
+        }
+    }
+
+    private static <T extends Comparable<T>> boolean same(T found, T expected, Comparator<? super T> comparator) {
+        if (found == null || expected == null) return found == expected;
+        return (comparator == null ? found.compareTo(expected) : comparator.compare(found, expected)) == 0;
+    }
+
+    private static void check(String what, boolean passed) {
+        if (!passed && failures++ < 20) {
+            System.out.println("FAILED " + what);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.util.Collections;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Throughput of ConcurrentOperations and ShardedOperations next to java.util.concurrent.ConcurrentSkipListSet
+ * and a TreeSet behind one lock, for 1, 2, 4, ... threads up to the number of processors
+ * and several shares of lookups. Every thread runs a random mix of contains / add / remove
+ * over the keys 0 .. 2n, every structure starts with the n even keys, so it keeps about n elements.
+ * <p>
+ * Arguments: n and milliseconds per measurement, by default 1_000_000 and 1000.
+ * Each structure has its own worker loop, so the calls inside the loops stay monomorphic.
+ */
+public class ConcurrentBenchmark {
+
+    private static final int[] READ_PERCENTS = {100, 90, 50};
+    private static final int CHECK_EVERY = 256;         // Operations between two looks at the phase
+
+    private final Integer[] keys;
+    private final int millis;
+
+    private volatile int phase;     // 0 warmup, 1 measured, 2 stop
+
+    private ConcurrentBenchmark(int n, int millis) {
+        this.keys = new Integer[2 * n];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+        this.millis = millis;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int millis = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        ConcurrentBenchmark benchmark = new ConcurrentBenchmark(n, millis);
+        for (int readPercent : READ_PERCENTS) {
+            System.out.println(readPercent + "% contains, n = " + n + ", " + processors + " processors");
+            for (int threads = 1; threads <= processors; threads = threads < processors ? Math.min(2 * threads, processors) : threads + 1) {
+                benchmark.run("  ConcurrentOperations", threads, readPercent, new TreeWorker(benchmark));
+                benchmark.run("  ShardedOperations", threads, readPercent, new ShardedWorker(benchmark));
+                benchmark.run("  ConcurrentSkipListSet", threads, readPercent, new SkipListWorker(benchmark));
+                benchmark.run("  synchronized TreeSet", threads, readPercent, new LockedWorker(benchmark));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Runs the worker on the given number of threads, half of the time as warmup
+     */
+    private void run(String name, int threads, int readPercent, Worker worker) throws InterruptedException {
+        long[] counted = new long[threads];
+        Thread[] running = new Thread[threads];
+
+        phase = 0;
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            running[t] = new Thread(() -> counted[index] = worker.run(new Random(index), readPercent));
+            running[t].start();
+        }
+
+        Thread.sleep(millis / 2);
+        phase = 1;
+        Thread.sleep(millis);
+        phase = 2;
+
+        long operations = 0;
+        for (int t = 0; t < threads; t++) {
+            running[t].join();
+            operations += counted[t];
+        }
+
+        System.out.printf("%-32s %3d threads %10.2f Mops/s%n", name, threads, operations * 1e-3 / millis);
+    }
+
+    private abstract static class Worker {
+        final ConcurrentBenchmark benchmark;
+        final Integer[] keys;
+
+        Worker(ConcurrentBenchmark benchmark) {
+            this.benchmark = benchmark;
+            this.keys = benchmark.keys;
+        }
+
+        /**
+         * @return number of operations done during the measured phase
+         */
+        abstract long run(Random random, int readPercent);
+    }
+
+    private static final class TreeWorker extends Worker {
+        final ConcurrentOperations<Integer> tree = new ConcurrentOperations<>();
+
+        TreeWorker(ConcurrentBenchmark benchmark) {
+            super(benchmark);
+            for (int i = 0; i < keys.length; i += 2) tree.add(keys[i]);
+        }
+
+        @Override
+        long run(Random random, int readPercent) {
+            long operations = 0;
+            long start = -1;
+            long hits = 0;
+
+            while (true) {
+                for (int i = 0; i < CHECK_EVERY; i++) {
+                    Integer key = keys[random.nextInt(keys.length)];
+                    int dice = random.nextInt(100);
+                    if (dice < readPercent) {
+                        if (tree.contains(key)) hits++;
+                    } else if ((dice & 1) == 0) {
+                        if (tree.add(key)) hits++;
+                    } else {
+                        if (tree.remove(key)) hits++;
+                    }
+                }
+                operations += CHECK_EVERY;
+
+                int phase = benchmark.phase;
+                if (phase == 1 && start < 0) start = operations;
+                if (phase == 2) break;
+            }
+
+            Harness.sink = hits;
+            return start < 0 ? 0 : operations - start;
+        }
+    }
+
+    private static final class SkipListWorker extends Worker {
+        final ConcurrentSkipListSet<Integer> set = new ConcurrentSkipListSet<>();
+
+        SkipListWorker(ConcurrentBenchmark benchmark) {
+            super(benchmark);
+            for (int i = 0; i < keys.length; i += 2) set.add(keys[i]);
+        }
+
+        @Override
+        long run(Random random, int readPercent) {
+            long operations = 0;
+            long start = -1;
+            long hits = 0;
+
+            while (true) {
+                for (int i = 0; i < CHECK_EVERY; i++) {
+                    Integer key = keys[random.nextInt(keys.length)];
+                    int dice = random.nextInt(100);
+                    if (dice < readPercent) {
+                        if (set.contains(key)) hits++;
+                    } else if ((dice & 1) == 0) {
+                        if (set.add(key)) hits++;
+                    } else {
+                        if (set.remove(key)) hits++;
+                    }
+                }
+                operations += CHECK_EVERY;
+
+                int phase = benchmark.phase;
+                if (phase == 1 && start < 0) start = operations;
+                if (phase == 2) break;
+            }
+
+            Harness.sink = hits;
+            return start < 0 ? 0 : operations - start;
+        }
+    }
+
+    private static final class ShardedWorker extends Worker {
+        final ShardedOperations<Integer> tree = new ShardedOperations<>();
+
+        ShardedWorker(ConcurrentBenchmark benchmark) {
+            super(benchmark);
+            for (int i = 0; i < keys.length; i += 2) tree.add(keys[i]);
+        }
+
+        @Override
+        long run(Random random, int readPercent) {
+            long operations = 0;
+            long start = -1;
+            long hits = 0;
+
+            while (true) {
+                for (int i = 0; i < CHECK_EVERY; i++) {
+                    Integer key = keys[random.nextInt(keys.length)];
+                    int dice = random.nextInt(100);
+                    if (dice < readPercent) {
+                        if (tree.contains(key)) hits++;
+                    } else if ((dice & 1) == 0) {
+                        if (tree.add(key)) hits++;
+                    } else {
+                        if (tree.remove(key)) hits++;
+                    }
+                }
+                operations += CHECK_EVERY;
+
+                int phase = benchmark.phase;
+                if (phase == 1 && start < 0) start = operations;
+                if (phase == 2) break;
+            }
+
+            Harness.sink = hits;
+            return start < 0 ? 0 : operations - start;
+        }
+    }
+
+    private static final class LockedWorker extends Worker {
+        final SortedSet<Integer> set = Collections.synchronizedSortedSet(new TreeSet<>());
+
+        LockedWorker(ConcurrentBenchmark benchmark) {
+            super(benchmark);
+            for (int i = 0; i < keys.length; i += 2) set.add(keys[i]);
+        }
+
+        @Override
+        long run(Random random, int readPercent) {
+            long operations = 0;
+            long start = -1;
+            long hits = 0;
+
+            while (true) {
+                for (int i = 0; i < CHECK_EVERY; i++) {
+                    Integer key = keys[random.nextInt(keys.length)];
+                    int dice = random.nextInt(100);
+                    if (dice < readPercent) {
+                        if (set.contains(key)) hits++;
+                    } else if ((dice & 1) == 0) {
+                        if (set.add(key)) hits++;
+                    } else {
+                        if (set.remove(key)) hits++;
+                    }
+                }
+                operations += CHECK_EVERY;
+
+                int phase = benchmark.phase;
+                if (phase == 1 && start < 0) start = operations;
+                if (phase == 2) break;
+            }
+
+            Harness.sink = hits;
+            return start < 0 ? 0 : operations - start;
+        }
+    }
+}
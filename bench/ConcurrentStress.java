@@ -0,0 +1,208 @@
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Stress check of ConcurrentOperations, run as a program.
+ * <p>
+ * Writers own disjoint sets of keys (key % writers), so every writer knows the exact state of its keys:
+ * each add / remove must report what the writer expects and a following contains must agree,
+ * whatever the other writers do in the same nodes. Readers meanwhile look up keys that are never removed
+ * (multiples of PERMANENT) and the minimum, which must always be found. At the end the tree has to hold
+ * exactly the permanent keys and the keys every writer left behind, and pass ConcurrentOperations.validate.
+ * <p>
+ * The check runs three times: with Integer keys, with keys whose compareTo now and then yields or sleeps,
+ * so threads are switched in the middle of a descent, while they hold some locks and wait for others,
+ * and with keys whose compareTo now and then throws. A call that threw must leave the tree as it was
+ * and release its locks: the later calls and the final check find the keys of the writer unchanged,
+ * and a lock left behind would stop the other threads.
+ * <p>
+ * Arguments: writers, readers and operations per writer, by default 16, 4 and 1_000_000
+ * (a tenth of them with the slow and the faulty keys). The exit status is 1 if any check failed.
+ */
+public class ConcurrentStress {
+
+    private static final int RANGE = 1 << 18;       // Keys 0 .. RANGE - 1
+    private static final int PERMANENT = 16;        // Multiples of it stay in the tree
+
+    /**
+     * Key with a compareTo that gives up the processor once in a while
+     */
+    static final class SlowKey implements Comparable<SlowKey> {
+        final int value;
+
+        SlowKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(SlowKey other) {
+            int dice = ThreadLocalRandom.current().nextInt(256);
+            if (dice == 0) {
+                LockSupport.parkNanos(50_000);
+            } else if (dice < 16) {
+                Thread.yield();
+            }
+            return Integer.compare(value, other.value);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
+    /**
+     * Key with a compareTo that throws once in a while, only in the threads started by the check:
+     * the set up and the final check in the main thread compare without faults
+     */
+    static final class FaultyKey implements Comparable<FaultyKey> {
+        private static final Thread MAIN = Thread.currentThread();
+
+        final int value;
+
+        FaultyKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(FaultyKey other) {
+            if (Thread.currentThread() != MAIN && ThreadLocalRandom.current().nextInt(1024) == 0) {
+                throw new Fault();
+            }
+            return Integer.compare(value, other.value);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
+    @SuppressWarnings("serial") // Never serialized
+    static final class Fault extends RuntimeException {
+        Fault() {
+            super("Injected fault", null, false, false);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        long failures = run("Integer keys", Integer::valueOf, writers, readers, operations)
+                + run("slow keys", SlowKey::new, writers, readers, Math.max(1, operations / 10))
+                + run("faulty keys", FaultyKey::new, writers, readers, Math.max(1, operations / 10));
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return number of failed checks
+     */
+    private static <K extends Comparable<K>> long run(String name, IntFunction<K> keys, int writers, int readers,
+                                                      int operations) throws InterruptedException {
+        ConcurrentOperations<K> tree = new ConcurrentOperations<>();
+        for (int key = 0; key < RANGE; key += PERMANENT) {
+            tree.add(keys.apply(key));
+        }
+        K min = keys.apply(0);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong lookups = new AtomicLong();
+        AtomicLong faults = new AtomicLong();
+        Thread[] writing = new Thread[writers];
+        Thread[] reading = new Thread[readers];
+        Set<Integer>[] owned = new Set[writers];
+
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            Set<Integer> mine = owned[w] = new HashSet<>();
+            writing[w] = new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < operations; i++) {
+                    int key = random.nextInt(RANGE / writers) * writers + id;
+                    if (key % PERMANENT == 0) continue;
+
+                    // The own set changes only after the tree did not throw
+                    K element = keys.apply(key);
+                    try {
+                        boolean agrees = random.nextBoolean() ? tree.add(element) == mine.add(key) : tree.remove(element) == mine.remove(key);
+                        if (!agrees || tree.contains(element) != mine.contains(key)) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (Fault e) {
+                        faults.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        for (int r = 0; r < readers; r++) {
+            int id = r;
+            reading[r] = new Thread(() -> {
+                Random random = new Random(-1 - id);
+                long count = 0;
+                while (!stop.get()) {
+                    try {
+                        if (!tree.contains(keys.apply(random.nextInt(RANGE / PERMANENT) * PERMANENT))) failures.incrementAndGet();
+                        if (min.compareTo(tree.findMin()) != 0) failures.incrementAndGet();
+                    } catch (Fault e) {
+                        faults.incrementAndGet();
+                    }
+                    count++;
+                }
+                lookups.addAndGet(count);
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : writing) thread.start();
+        for (Thread thread : reading) thread.start();
+        for (Thread thread : writing) thread.join();
+        stop.set(true);
+        for (Thread thread : reading) thread.join();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // Null is rejected before any lock is taken
+        for (int i = 0; i < 3; i++) {
+            try {
+                if (i == 0) tree.add(null); else if (i == 1) tree.remove(null); else tree.contains(null);
+                failures.incrementAndGet();
+            } catch (NullPointerException expected) {
+                // As it should be
+            }
+        }
+
+        // Final state: the invariants, the permanent keys and what each writer left
+        try {
+            tree.validate();
+        } catch (IllegalStateException e) {
+            System.out.println("Invalid tree: " + e.getMessage());
+            failures.incrementAndGet();
+        }
+
+        int expected = 0;
+        for (int key = 0; key < RANGE; key++) {
+            boolean present = key % PERMANENT == 0 || owned[key % writers].contains(key);
+            if (present) expected++;
+            if (tree.contains(keys.apply(key)) != present) failures.incrementAndGet();
+        }
+        if (tree.size() != expected) {
+            System.out.println("Size " + tree.size() + " instead of " + expected);
+            failures.incrementAndGet();
+        }
+
+        System.out.printf("%s: %d writers x %d operations, %d readers with %d lookups, %d ms: %d faults, %d failures%n",
+                name, writers, operations, readers, lookups.get(), millis, faults.get(), failures.get());
+        return failures.get();
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Crash check of DurableOperations, run as a program.
+ * <p>
+ * A random mix of add / remove runs against the durable tree and a TreeSet, the end of the log is noted
+ * after every change. Then the crashes are simulated on copies of the directory and every reopened tree
+ * is compared with the TreeSet replayed up to the last change that was completely in the log:
+ * <ul>
+ * <li>the process dies, nothing is closed;</li>
+ * <li>the log is cut at random places;</li>
+ * <li>the last record is torn, its bytes are partly overwritten;</li>
+ * <li>the machine dies during a checkpoint, after the new snapshot is in place but before the log is emptied;</li>
+ * <li>the process dies after a clear and a few more changes;</li>
+ * <li>several threads change the tree at the same time and share the forces of the log;</li>
+ * <li>the same with frequent checkpoints, the changes made while a snapshot is written stay in the log.</li>
+ * </ul>
+ * Arguments: number of changes and number of cuts, by default 20_000 and 200.
+ * The exit status is 1 if any check failed.
+ */
+public class CrashRecoveryCheck {
+
+    private static final int RANGE = 1 << 12;       // Keys 0 .. RANGE - 1, so removes find their keys
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int changes = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int cuts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Path root = Files.createTempDirectory("crash-check");
+
+        try {
+            Random random = new Random(42);
+            Path directory = root.resolve("tree");
+
+            // Changes that reached the log, with the end of the log after each of them
+            List<int[]> logged = new ArrayList<>();
+            List<Long> ends = new ArrayList<>();
+            TreeSet<Integer> expected = new TreeSet<>();
+
+            DurableOperations<Integer> tree = DurableOperations.open(directory, KeyCodec.INTEGER_DELTAS);
+            long start = Files.size(directory.resolve(DurableOperations.LOG));
+            for (int i = 0; i < changes; i++) {
+                int key = random.nextInt(RANGE);
+                boolean add = random.nextBoolean();
+                boolean changed = add ? tree.add(key) : tree.remove(key);
+                if (changed != (add ? expected.add(key) : expected.remove(key))) {
+                    fail("change " + i + " of key " + key + " reported " + changed);
+                }
+                if (changed) {
+                    logged.add(new int[]{add ? 1 : 0, key});
+                    ends.add(Files.size(directory.resolve(DurableOperations.LOG)));
+                }
+            }
+
+            // The process dies: the tree is never closed
+            compare("no close", reopen(directory, root.resolve("killed")), expected);
+
+            // The log is cut anywhere
+            byte[] log = Files.readAllBytes(directory.resolve(DurableOperations.LOG));
+            for (int i = 0; i < cuts; i++) {
+                int length = (int) (start + random.nextInt((int) (log.length - start + 1)));
+                Path copy = root.resolve("cut-" + i);
+                Files.createDirectories(copy);
+                Files.write(copy.resolve(DurableOperations.LOG), Arrays.copyOf(log, length));
+                compare("cut at " + length, open(copy), replay(logged, ends, length));
+            }
+
+            // The last record is torn: its length is there, its payload is partly old bytes
+            Path torn = root.resolve("torn");
+            Files.createDirectories(torn);
+            byte[] damaged = log.clone();
+            damaged[damaged.length - 1] ^= 0x5A;
+            Files.write(torn.resolve(DurableOperations.LOG), damaged);
+            compare("torn last record", open(torn), replay(logged, ends, ends.get(ends.size() - 1) - 1));
+
+            // A record is appended after the recovery of a cut log, the dropped bytes must not come back
+            DurableOperations<Integer> recovered = open(torn);
+            TreeSet<Integer> after = replay(logged, ends, ends.get(ends.size() - 1) - 1);
+            int extra = RANGE + 1;
+            recovered.add(extra);
+            after.add(extra);
+            compare("append after recovery", open(torn), after);
+
+            // The machine dies during a checkpoint: the new snapshot is in place, the log still holds its changes
+            checkpointCrash(root.resolve("checkpoint"), random, changes);
+
+            groupCommit("group commit", root.resolve("group"), Long.MAX_VALUE);
+            groupCommit("checkpoints during changes", root.resolve("concurrent-checkpoints"), 4096);
+
+            tree.close();
+        } finally {
+            delete(root);
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    private static void checkpointCrash(Path directory, Random random, int changes) throws IOException {
+        TreeSet<Integer> expected = new TreeSet<>();
+        DurableOperations<Integer> tree = DurableOperations.open(directory, KeyCodec.INTEGER_DELTAS, 4096);
+
+        // Automatic checkpoints on the way
+        for (int i = 0; i < changes; i++) {
+            int key = random.nextInt(RANGE);
+            if (random.nextBoolean()) {
+                tree.add(key);
+                expected.add(key);
+            } else {
+                tree.remove(key);
+                expected.remove(key);
+            }
+        }
+        compare("automatic checkpoints", reopen(directory, directory.resolveSibling("checkpoint-copy")), expected);
+
+        // The keys before a clear must not come back, those after it must
+        tree.clear();
+        expected.clear();
+        for (int i = 0; i < 100; i++) {
+            int key = random.nextInt(RANGE);
+            tree.add(key);
+            expected.add(key);
+        }
+        compare("clear", reopen(directory, directory.resolveSibling("clear-copy")), expected);
+
+        Path log = directory.resolve(DurableOperations.LOG);
+        byte[] before = Files.readAllBytes(log);
+        tree.checkpoint();
+        Files.write(log, before);
+        compare("crash during checkpoint", reopen(directory, directory.resolveSibling("checkpoint-crash")), expected);
+    }
+
+    private static void groupCommit(String name, Path directory, long checkpointBytes) throws IOException, InterruptedException {
+        DurableOperations<Integer> tree = DurableOperations.open(directory, KeyCodec.INTEGER_DELTAS, checkpointBytes);
+        int threads = 8;
+        Set<Integer>[] owned = new Set[threads];
+        Thread[] running = new Thread[threads];
+
+        // Every thread owns the keys key % threads, so it knows their state
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Set<Integer> mine = owned[t] = new HashSet<>();
+            running[t] = new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 2_000; i++) {
+                    int key = random.nextInt(RANGE / threads) * threads + id;
+                    boolean agrees = random.nextBoolean() ? tree.add(key) == mine.add(key) : tree.remove(key) == mine.remove(key);
+                    if (!agrees) fail(name + ": thread " + id + " key " + key);
+                }
+            });
+            running[t].start();
+        }
+        for (Thread thread : running) thread.join();
+
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (Set<Integer> mine : owned) expected.addAll(mine);
+        compare(name, reopen(directory, directory.resolveSibling(directory.getFileName() + "-copy")), expected);
+        tree.close();
+    }
+
+    /**
+     * @return the changes whose records end within the given length of the log
+     */
+    private static TreeSet<Integer> replay(List<int[]> logged, List<Long> ends, long length) {
+        TreeSet<Integer> state = new TreeSet<>();
+        for (int i = 0; i < logged.size() && ends.get(i) <= length; i++) {
+            int[] change = logged.get(i);
+            if (change[0] == 1) {
+                state.add(change[1]);
+            } else {
+                state.remove(change[1]);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Opens a copy of the files as they are now, as a new process would after a crash
+     */
+    private static DurableOperations<Integer> reopen(Path directory, Path copy) throws IOException {
+        Files.createDirectories(copy);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.write(copy.resolve(file.getFileName()), Files.readAllBytes(file));
+            }
+        }
+        return open(copy);
+    }
+
+    private static DurableOperations<Integer> open(Path directory) throws IOException {
+        return DurableOperations.open(directory, KeyCodec.INTEGER_DELTAS);
+    }
+
+    private static void compare(String name, DurableOperations<Integer> tree, TreeSet<Integer> expected) throws IOException {
+        List<Integer> found = new ArrayList<>();
+        for (Integer element : tree.copy()) found.add(element);
+        tree.close();
+
+        if (!found.equals(new ArrayList<>(expected))) {
+            fail(name + ": " + found.size() + " elements recovered, " + expected.size() + " expected");
+        }
+    }
+
+    private static synchronized void fail(String message) {
+        System.out.println("FAILED " + message);
+        failures++;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                for (Path file : (Iterable<Path>) files::iterator) delete(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
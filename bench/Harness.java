@@ -0,0 +1,109 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Small measurement loop shared by the benchmarks.
+ * Every benchmark is warmed up first, so the JIT compiles the measured code,
+ * then timed over several iterations; the best iteration is reported
+ * together with the allocation rate and the number of garbage collections.
+ * <p>
+ * The project has no build system, so the benchmarks are compiled together with the sources:
+ * <pre>
+ * javac -d out src/*.java bench/*.java
+ * java -Xmx8g -cp out OperationsBenchmark
+ * </pre>
+ */
+final class Harness {
+
+    /**
+     * A batch of measured operations. Each benchmark writes its own loop inside the batch,
+     * so every call site stays monomorphic and can be inlined. The returned value is consumed,
+     * so the JIT cannot drop the work.
+     */
+    interface Batch {
+        long run();
+    }
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static volatile long sink; // Results of the measured batches end up here
+
+    private Harness() {
+    }
+
+    /**
+     * @param name       - name of the benchmark in the report
+     * @param operations - number of operations done by one batch
+     * @param batch      - measured code
+     * @return best time of one operation in nanoseconds
+     */
+    static double measure(String name, int operations, Batch batch) {
+        return measure(name, operations, null, batch);
+    }
+
+    /**
+     * @param name       - name of the benchmark in the report
+     * @param operations - number of operations done by one batch
+     * @param setup      - prepares the state for the next batch, not measured, may be null
+     * @param batch      - measured code
+     * @return best time of one operation in nanoseconds, or NaN if the batch failed
+     */
+    static double measure(String name, int operations, Runnable setup, Batch batch) {
+        long consumed = 0;
+
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                if (setup != null) setup.run();
+                consumed += batch.run();
+            }
+
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            long allocated = 0;
+            long collections = 0;
+            long thread = Thread.currentThread().getId();
+
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                if (setup != null) setup.run();
+
+                long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+                long collectionsBefore = collections();
+                long start = System.nanoTime();
+
+                consumed += batch.run();
+
+                long time = System.nanoTime() - start;
+                allocated += THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+                collections += collections() - collectionsBefore;
+                best = Math.min(best, time);
+                total += time;
+            }
+
+            sink = consumed;
+
+            double nanosPerOperation = (double) best / operations;
+            double bytesPerOperation = (double) allocated / ((long) operations * MEASURED_ITERATIONS);
+            double megabytesPerSecond = total == 0 ? 0 : allocated * 1e3 / total;
+
+            System.out.printf("%-52s %12.1f ns/op %10.1f B/op %10.1f MB/s %4d gc%n",
+                    name, nanosPerOperation, bytesPerOperation, megabytesPerSecond, collections);
+            return nanosPerOperation;
+
+        } catch (RuntimeException e) {
+            System.out.printf("%-52s FAILED: %s%n", name, e);
+            return Double.NaN;
+        }
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
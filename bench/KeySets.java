@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Key sequences used by the benchmarks. Keys are boxed in advance,
+ * so the measured loops do not pay for boxing.
+ */
+enum KeySets {
+
+    RANDOM {
+        @Override
+        Integer[] keys(int n, Random random) {
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = random.nextInt();
+            }
+            return keys;
+        }
+    },
+
+    SEQUENTIAL {
+        @Override
+        Integer[] keys(int n, Random random) {
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i;
+            }
+            return keys;
+        }
+    },
+
+    REVERSE {
+        @Override
+        Integer[] keys(int n, Random random) {
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = n - 1 - i;
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * Ranks drawn from a Zipf distribution (exponent 0.99) over n keys. The ranks are scrambled,
+     * so the hot keys are spread over the whole key range instead of sitting next to each other.
+     */
+    ZIPFIAN {
+        @Override
+        Integer[] keys(int n, Random random) {
+            double[] cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, 0.99);
+                cumulative[i] = sum;
+            }
+
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                if (rank < 0) rank = -rank - 1;
+                keys[i] = scramble(Math.min(rank, n - 1));
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * @param n      - number of keys in the sequence
+     * @param random - source of randomness, seeded by the caller for repeatable runs
+     * @return key sequence, may contain repeated keys
+     */
+    abstract Integer[] keys(int n, Random random);
+
+    /**
+     * @return distinct keys of the sequence in ascending order, ready for bulk loading
+     */
+    static Integer[] sortedDistinct(Integer[] keys) {
+        Integer[] sorted = keys.clone();
+        Arrays.sort(sorted);
+
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || !sorted[i].equals(sorted[n - 1])) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private static int scramble(int rank) {
+        int h = rank * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Compares lookups in Operations, which compares the elements themselves, with KeyedOperations,
+ * which compares cached long sort keys first and the elements only on ties.
+ * <p>
+ * Two kinds of elements are measured: random strings of 16 letters with their first four characters as the sort key,
+ * and composite trade keys ordered by a chained comparator (time, symbol, id) with the time as the sort key.
+ * Every probe is in the tree.
+ * <p>
+ * Sizes can be given as arguments, by default 10^4 .. 10^6 are measured.
+ */
+public class KeyedBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    /**
+     * Composite key with an expensive comparator
+     */
+    static final class Trade implements Comparable<Trade> {
+        static final Comparator<Trade> ORDER = Comparator.comparingLong((Trade trade) -> trade.time)
+                .thenComparing(trade -> trade.symbol)
+                .thenComparingInt(trade -> trade.id);
+
+        final long time;
+        final String symbol;
+        final int id;
+
+        Trade(long time, String symbol, int id) {
+            this.time = time;
+            this.symbol = symbol;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Trade other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{10_000, 100_000, 1_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int n : sizes) {
+            Random random = new Random(n);
+            String[] strings = new String[n];
+            Trade[] trades = new Trade[n];
+            for (int i = 0; i < n; i++) {
+                strings[i] = randomString(random);
+                trades[i] = new Trade(random.nextInt(n / 4), "SYM" + random.nextInt(100), i);
+            }
+
+            Operations<String> stringTree = new Operations<>();
+            KeyedOperations<String> keyedStrings = new KeyedOperations<>(KeyedOperations::stringPrefix);
+            Operations<Trade> tradeTree = new Operations<Trade>(Trade.ORDER);
+            KeyedOperations<Trade> keyedTrades = new KeyedOperations<>(trade -> trade.time, Trade.ORDER);
+            for (int i = 0; i < n; i++) {
+                stringTree.add(strings[i]);
+                keyedStrings.add(strings[i]);
+                tradeTree.add(trades[i]);
+                keyedTrades.add(trades[i]);
+            }
+
+            String[] stringProbes = new String[PROBES];
+            Trade[] tradeProbes = new Trade[PROBES];
+            for (int i = 0; i < PROBES; i++) {
+                int index = random.nextInt(n);
+                stringProbes[i] = strings[index];
+                tradeProbes[i] = trades[index];
+            }
+
+            System.out.println("n = " + n);
+            Harness.measure("  strings, compareTo", PROBES, () -> {
+                long found = 0;
+                for (String probe : stringProbes) {
+                    if (stringTree.search(probe)) found++;
+                }
+                return found;
+            });
+
+            Harness.measure("  strings, sort key", PROBES, () -> {
+                long found = 0;
+                for (String probe : stringProbes) {
+                    if (keyedStrings.search(probe)) found++;
+                }
+                return found;
+            });
+
+            Harness.measure("  trades, comparator", PROBES, () -> {
+                long found = 0;
+                for (Trade probe : tradeProbes) {
+                    if (tradeTree.search(probe)) found++;
+                }
+                return found;
+            });
+
+            Harness.measure("  trades, sort key", PROBES, () -> {
+                long found = 0;
+                for (Trade probe : tradeProbes) {
+                    if (keyedTrades.search(probe)) found++;
+                }
+                return found;
+            });
+        }
+    }
+
+    private static String randomString(Random random) {
+        char[] letters = new char[16];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(letters);
+    }
+}
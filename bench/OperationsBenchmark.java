@@ -0,0 +1,185 @@
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Measures add, remove, search, findMin / findMax and the in-order walk of Operations
+ * for every key sequence of {@link KeySets} and several tree sizes,
+ * next to PooledOperations, java.util.TreeSet and java.util.TreeMap doing the same work.
+ * <p>
+ * Sizes can be given as arguments, by default 10^3, 10^5 and 10^6 are measured.
+ */
+public class OperationsBenchmark {
+
+    private static final int END_OPERATIONS = 1 << 16; // Calls of findMin / findMax per batch
+
+    private final Integer[] keys;
+    private final Integer[] sorted;
+
+    private Operations<Integer> tree;
+    private PooledOperations<Integer> pooled;
+    private TreeSet<Integer> set;
+    private TreeMap<Integer, Integer> map;
+
+    private OperationsBenchmark(Integer[] keys) {
+        this.keys = keys;
+        this.sorted = KeySets.sortedDistinct(keys);
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{1_000, 100_000, 1_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (KeySets keySet : KeySets.values()) {
+            for (int n : sizes) {
+                System.out.println(keySet + ", n = " + n);
+                new OperationsBenchmark(keySet.keys(n, new Random(n))).run();
+                System.out.println();
+            }
+        }
+    }
+
+    private void run() {
+        int n = keys.length;
+
+        /* Insertion into an empty structure */
+        Harness.measure("  add      Operations", n, () -> tree = new Operations<>(), () -> {
+            for (Integer key : keys) tree.add(key);
+            return tree.size();
+        });
+        Harness.measure("  add      PooledOperations", n, () -> pooled = new PooledOperations<>(), () -> {
+            for (Integer key : keys) pooled.add(key);
+            return pooled.size();
+        });
+        Harness.measure("  add      TreeSet", n, () -> set = new TreeSet<>(), () -> {
+            for (Integer key : keys) set.add(key);
+            return set.size();
+        });
+        Harness.measure("  add      TreeMap", n, () -> map = new TreeMap<>(), () -> {
+            for (Integer key : keys) map.put(key, key);
+            return map.size();
+        });
+
+        /* Removal of every key from a full structure */
+        Harness.measure("  remove   Operations", n, () -> tree = new Operations<>(sorted), () -> {
+            long removed = 0;
+            for (Integer key : keys) {
+                if (tree.remove(key)) removed++;
+            }
+            return removed;
+        });
+        Harness.measure("  remove   PooledOperations", n, this::fillPooled, () -> {
+            long removed = 0;
+            for (Integer key : keys) {
+                if (pooled.remove(key)) removed++;
+            }
+            return removed;
+        });
+        Harness.measure("  remove   TreeSet", n, this::fillSet, () -> {
+            long removed = 0;
+            for (Integer key : keys) {
+                if (set.remove(key)) removed++;
+            }
+            return removed;
+        });
+        Harness.measure("  remove   TreeMap", n, this::fillMap, () -> {
+            long removed = 0;
+            for (Integer key : keys) {
+                if (map.remove(key) != null) removed++;
+            }
+            return removed;
+        });
+
+        tree = new Operations<>(sorted);
+        fillPooled();
+        fillSet();
+        fillMap();
+
+        /* Lookups of the same key sequence */
+        Harness.measure("  search   Operations", n, () -> {
+            long found = 0;
+            for (Integer key : keys) {
+                if (tree.search(key)) found++;
+            }
+            return found;
+        });
+        Harness.measure("  search   PooledOperations", n, () -> {
+            long found = 0;
+            for (Integer key : keys) {
+                if (pooled.search(key)) found++;
+            }
+            return found;
+        });
+        Harness.measure("  search   TreeSet", n, () -> {
+            long found = 0;
+            for (Integer key : keys) {
+                if (set.contains(key)) found++;
+            }
+            return found;
+        });
+        Harness.measure("  search   TreeMap", n, () -> {
+            long found = 0;
+            for (Integer key : keys) {
+                if (map.containsKey(key)) found++;
+            }
+            return found;
+        });
+
+        /* Both ends of the key range */
+        Harness.measure("  min/max  Operations", END_OPERATIONS, () -> {
+            long sum = 0;
+            for (int i = 0; i < END_OPERATIONS; i += 2) {
+                sum += tree.findMin() + tree.findMax();
+            }
+            return sum;
+        });
+        Harness.measure("  min/max  TreeSet", END_OPERATIONS, () -> {
+            long sum = 0;
+            for (int i = 0; i < END_OPERATIONS; i += 2) {
+                sum += set.first() + set.last();
+            }
+            return sum;
+        });
+        Harness.measure("  min/max  TreeMap", END_OPERATIONS, () -> {
+            long sum = 0;
+            for (int i = 0; i < END_OPERATIONS; i += 2) {
+                sum += map.firstKey() + map.lastKey();
+            }
+            return sum;
+        });
+
+        /* In-order walk over all elements, reported per element */
+        Harness.measure("  in-order Operations", sorted.length, () -> {
+            long sum = 0;
+            for (Integer key : tree) sum += key;
+            return sum;
+        });
+        Harness.measure("  in-order TreeSet", sorted.length, () -> {
+            long sum = 0;
+            for (Integer key : set) sum += key;
+            return sum;
+        });
+        Harness.measure("  in-order TreeMap", sorted.length, () -> {
+            long sum = 0;
+            for (Integer key : map.keySet()) sum += key;
+            return sum;
+        });
+    }
+
+    private void fillPooled() {
+        pooled = new PooledOperations<>(sorted.length);
+        for (Integer key : sorted) pooled.add(key);
+    }
+
+    private void fillSet() {
+        set = new TreeSet<>();
+        for (Integer key : sorted) set.add(key);
+    }
+
+    private void fillMap() {
+        map = new TreeMap<>();
+        for (Integer key : sorted) map.put(key, key);
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.Random;
+
+/**
+ * Compares Operations of Integer with IntTwoThreeTree and LongTwoThreeTree, which keep the elements unboxed
+ * in their nodes: heap taken by the trees with their elements, and lookups of random keys, half of them in the tree.
+ * <p>
+ * The keys are random, so the Integer objects are not the cached small values and each one is a separate object,
+ * as in a tree filled by an application.
+ * <p>
+ * Sizes can be given as arguments, by default 10^5 .. 10^7 are measured. The heap is measured after System.gc(),
+ * with the elements held only by the trees; run with a fixed heap (-Xms = -Xmx) for steady numbers.
+ */
+public class PrimitiveBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{100_000, 1_000_000, 10_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int n : sizes) {
+            // Even keys are added, odd probes miss
+            Random random = new Random(n);
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = random.nextInt(Integer.MAX_VALUE) & ~1;
+            }
+
+            System.out.println("n = " + n);
+            long before = usedHeap();
+            Operations<Integer> boxed = new Operations<>();
+            for (int key : keys) {
+                boxed.add(key);
+            }
+            long boxedBytes = usedHeap() - before;
+
+            before = usedHeap();
+            IntTwoThreeTree ints = new IntTwoThreeTree();
+            for (int key : keys) {
+                ints.add(key);
+            }
+            long intBytes = usedHeap() - before;
+
+            before = usedHeap();
+            LongTwoThreeTree longs = new LongTwoThreeTree();
+            for (int key : keys) {
+                longs.add(key);
+            }
+            long longBytes = usedHeap() - before;
+
+            System.out.printf("  heap, Operations<Integer>  %8.1f bytes per element%n", (double) boxedBytes / boxed.size());
+            System.out.printf("  heap, IntTwoThreeTree      %8.1f bytes per element (%.1fx less)%n",
+                    (double) intBytes / ints.size(), (double) boxedBytes / intBytes);
+            System.out.printf("  heap, LongTwoThreeTree     %8.1f bytes per element (%.1fx less)%n",
+                    (double) longBytes / longs.size(), (double) boxedBytes / longBytes);
+
+            int[] probes = new int[PROBES];
+            Integer[] boxedProbes = new Integer[PROBES];
+            for (int i = 0; i < PROBES; i++) {
+                probes[i] = random.nextBoolean() ? keys[random.nextInt(n)] : random.nextInt(Integer.MAX_VALUE) | 1;
+                boxedProbes[i] = probes[i]; // Boxed in advance, so the loop measures only the lookups
+            }
+
+            double boxedNanos = Harness.measure("  search, Operations<Integer>", PROBES, () -> {
+                long found = 0;
+                for (Integer probe : boxedProbes) {
+                    if (boxed.search(probe)) found++;
+                }
+                return found;
+            });
+
+            double intNanos = Harness.measure("  search, IntTwoThreeTree", PROBES, () -> {
+                long found = 0;
+                for (int probe : probes) {
+                    if (ints.contains(probe)) found++;
+                }
+                return found;
+            });
+
+            double longNanos = Harness.measure("  search, LongTwoThreeTree", PROBES, () -> {
+                long found = 0;
+                for (int probe : probes) {
+                    if (longs.contains(probe)) found++;
+                }
+                return found;
+            });
+
+            System.out.printf("  search speedup: int %.1fx, long %.1fx%n", boxedNanos / intNanos, boxedNanos / longNanos);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Randomized differential check of IntTwoThreeTree and LongTwoThreeTree against java.util.TreeSet, run as a program.
+ * <p>
+ * LongTwoThreeTree is a copy of IntTwoThreeTree with long elements, so both trees run the same rounds:
+ * a random mix of add / remove / contains with phases that mostly remove, so the trees shrink to a few levels
+ * and grow again. The long tree gets every key multiplied by a factor that takes it beyond the int range.
+ * Now and then size, minimum and maximum are compared, and an empty tree must refuse findMin and findMax.
+ * <p>
+ * Arguments: rounds and operations per round, by default 1_000 and 5_000.
+ * The exit status is 1 if any check failed.
+ */
+public class PrimitiveTreeCheck {
+
+    private static final int CHECK_EVERY = 97;              // Operations between two comparisons of the whole tree
+    private static final long LONG_FACTOR = 3_000_000_000L; // Spreads the keys of the long tree beyond the int range
+
+    /**
+     * The operations of both trees on int keys, the long tree scales them by LONG_FACTOR
+     */
+    private interface Tree {
+        void add(int key);
+
+        boolean remove(int key);
+
+        boolean contains(int key);
+
+        int size();
+
+        boolean isEmpty();
+
+        long findMin();
+
+        long findMax();
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        for (int round = 0; round < rounds && failures < 10; round++) {
+            run("int", round, operations, ints(), 1);
+            run("long", round, operations, longs(), LONG_FACTOR);
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    private static void run(String name, int round, int operations, Tree tree, long factor) {
+        Random random = new Random(round);
+        int range = 1 + random.nextInt(round % 2 == 0 ? 64 : 10_000);
+        String what = name + ", round " + round + ": ";
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int i = 0; i < operations; i++) {
+            // Keys on both sides of zero, now and then the extremes of int
+            int key = random.nextInt(100) == 0 ? (random.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE)
+                    : random.nextInt(range) - range / 2;
+            int dice = random.nextInt(100);
+            boolean shrinking = i / 1_000 % 2 == 1;
+
+            if (dice < (shrinking ? 20 : 55)) {
+                check(what + "add " + key, tree.contains(key) == expected.contains(key));
+                tree.add(key);
+                expected.add(key);
+            } else if (dice < 85) {
+                check(what + "remove " + key, tree.remove(key) == expected.remove(key));
+            } else {
+                check(what + "contains " + key, tree.contains(key) == expected.contains(key));
+            }
+
+            if (i % CHECK_EVERY == 0) {
+                compare(what + "after " + i + " operations: ", tree, expected, factor);
+            }
+        }
+
+        while (!expected.isEmpty()) {
+            int key = expected.pollFirst();
+            check(what + "emptying, remove " + key, tree.remove(key));
+        }
+        compare(what + "emptied: ", tree, expected, factor);
+    }
+
+    private static void compare(String what, Tree tree, TreeSet<Integer> expected, long factor) {
+        check(what + "size " + tree.size() + " instead of " + expected.size(), tree.size() == expected.size());
+        check(what + "isEmpty", tree.isEmpty() == expected.isEmpty());
+
+        if (expected.isEmpty()) {
+            check(what + "findMin of an empty tree", throwsNoSuchElement(tree::findMin));
+            check(what + "findMax of an empty tree", throwsNoSuchElement(tree::findMax));
+        } else {
+            check(what + "findMin", tree.findMin() == expected.first() * factor);
+            check(what + "findMax", tree.findMax() == expected.last() * factor);
+        }
+    }
+
+    private static boolean throwsNoSuchElement(Runnable call) {
+        try {
+            call.run();
+            return false;
+        } catch (NoSuchElementException e) {
+            return true;
+        }
+    }
+
+    private static Tree ints() {
+        IntTwoThreeTree tree = new IntTwoThreeTree();
+        return new Tree() {
+            @Override public void add(int key) { tree.add(key); }
+            @Override public boolean remove(int key) { return tree.remove(key); }
+            @Override public boolean contains(int key) { return tree.contains(key); }
+            @Override public int size() { return tree.size(); }
+            @Override public boolean isEmpty() { return tree.isEmpty(); }
+            @Override public long findMin() { return tree.findMin(); }
+            @Override public long findMax() { return tree.findMax(); }
+        };
+    }
+
+    private static Tree longs() {
+        LongTwoThreeTree tree = new LongTwoThreeTree();
+        return new Tree() {
+            @Override public void add(int key) { tree.add(key * LONG_FACTOR); }
+            @Override public boolean remove(int key) { return tree.remove(key * LONG_FACTOR); }
+            @Override public boolean contains(int key) { return tree.contains(key * LONG_FACTOR); }
+            @Override public int size() { return tree.size(); }
+            @Override public boolean isEmpty() { return tree.isEmpty(); }
+            @Override public long findMin() { return tree.findMin(); }
+            @Override public long findMax() { return tree.findMax(); }
+        };
+    }
+
+    private static void check(String what, boolean passed) {
+        if (!passed && failures++ < 20) {
+            System.out.println("FAILED " + what);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Randomized differential check of Operations.add / remove against java.util.TreeSet, run as a program.
+ * <p>
+ * Every round starts with a tree of random size, built either by add or bottom-up from a sorted array,
+ * then runs a random mix of add / remove / search, with phases that mostly remove, so the tree shrinks
+ * to a few levels and grows again. Batches for addAll / removeAll of up to an eighth of the key range
+ * come in between, most of them taken down the tree in one descent. Each call must report what the TreeSet reports.
+ * Now and then the whole tree is compared: size, the elements in order, the invariants through Operations.validate, minimum and maximum,
+ * and select / rank at random positions, which check the subtree counts kept along the repaired paths.
+ * <p>
+ * Arguments: rounds and operations per round, by default 2_000 and 5_000.
+ * The exit status is 1 if any check failed.
+ */
+public class RemoveCheck {
+
+    private static final int CHECK_EVERY = 97;      // Operations between two comparisons of the whole tree
+    private static final int BATCH_EVERY = 250;     // Operations between two batches
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        for (int round = 0; round < rounds && failures < 10; round++) {
+            Random random = new Random(round);
+            int range = 1 + random.nextInt(round % 2 == 0 ? 64 : 10_000);
+
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = random.nextInt(range); i > 0; i--) {
+                expected.add(random.nextInt(range));
+            }
+
+            Operations<Integer> tree;
+            if (random.nextBoolean()) {
+                tree = new Operations<>(expected.toArray(new Integer[0]), random.nextDouble());
+            } else {
+                tree = new Operations<>();
+                for (Integer key : expected) tree.add(key);
+            }
+
+            for (int i = 0; i < operations; i++) {
+                // Phases of mostly removes and mostly adds
+                int removeShare = (i / 500) % 2 == 0 ? 80 : 30;
+                Integer key = random.nextInt(range);
+                int dice = random.nextInt(100);
+
+                if (dice < removeShare) {
+                    check(round, "remove " + key, tree.remove(key) == expected.remove(key));
+                } else if (dice < 95) {
+                    tree.add(key);
+                    expected.add(key);
+                    check(round, "add " + key, tree.size() == expected.size() && tree.search(key));
+                } else {
+                    check(round, "search " + key, tree.search(key) == expected.contains(key));
+                }
+
+                if (i % BATCH_EVERY == 0) {
+                    List<Integer> batch = new ArrayList<>();
+                    for (int j = random.nextInt(1 + range / 8); j > 0; j--) batch.add(random.nextInt(range));
+                    boolean add = random.nextBoolean();
+                    check(round, (add ? "addAll " : "removeAll ") + batch.size(),
+                            add ? tree.addAll(batch) == expected.addAll(batch) : tree.removeAll(batch) == expected.removeAll(batch));
+                }
+
+                if (i % CHECK_EVERY == 0) compare(round, tree, expected, random);
+            }
+            compare(round, tree, expected, random);
+
+            // Everything goes, in random order
+            Integer[] keys = expected.toArray(new Integer[0]);
+            for (int i = keys.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                Integer swap = keys[i];
+                keys[i] = keys[j];
+                keys[j] = swap;
+            }
+            for (Integer key : keys) {
+                check(round, "drain " + key, tree.remove(key) && expected.remove(key));
+            }
+            check(round, "empty", tree.isEmpty() && tree.size() == 0 && !tree.remove(0));
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    private static void compare(int round, Operations<Integer> tree, TreeSet<Integer> expected, Random random) {
+        check(round, "size " + tree.size() + " instead of " + expected.size(), tree.size() == expected.size());
+
+        Iterator<Integer> found = tree.iterator();
+        for (Integer key : expected) {
+            if (!found.hasNext() || !key.equals(found.next())) {
+                check(round, "elements differ at " + key, false);
+                return;
+            }
+        }
+        check(round, "extra elements", !found.hasNext());
+
+        try {
+            tree.validate();
+        } catch (IllegalStateException e) {
+            check(round, e.getMessage(), false);
+        }
+
+        if (expected.isEmpty()) return;
+        check(round, "min / max", expected.first().equals(tree.findMin()) && expected.last().equals(tree.findMax()));
+
+        Integer[] sorted = expected.toArray(new Integer[0]);
+        for (int i = 0; i < 8; i++) {
+            int index = random.nextInt(sorted.length);
+            check(round, "select / rank " + index, sorted[index].equals(tree.select(index)) && tree.rank(sorted[index]) == index);
+        }
+    }
+
+    private static void check(int round, String what, boolean passed) {
+        if (!passed && failures++ < 20) {
+            System.out.println("FAILED round " + round + ": " + what);
+        }
+    }
+}
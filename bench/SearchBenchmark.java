@@ -0,0 +1,84 @@
+import java.util.Random;
+
+/**
+ * Compares the iterative Operations.search() against the recursive lookup it replaced.
+ * Trees hold the even numbers 0, 2, ..., 2 * (n - 1), the probes are random numbers from the same range,
+ * so about half of the lookups hit.
+ * <p>
+ * Sizes can be given as arguments, by default 10^3 .. 10^7 are measured; 10^8 needs about 12 GB of heap.
+ */
+public class SearchBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int n : sizes) {
+            Integer[] elements = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                elements[i] = 2 * i;
+            }
+
+            Operations<Integer> tree = new Operations<>(elements);
+            Node root = tree.getRoot();
+
+            // Probes are boxed in advance, so the loops measure only the lookups
+            Random random = new Random(n);
+            Integer[] probes = new Integer[PROBES];
+            for (int i = 0; i < PROBES; i++) {
+                probes[i] = random.nextInt(2 * n);
+            }
+
+            System.out.println("n = " + n);
+            Harness.measure("  search, iterative", PROBES, () -> {
+                long found = 0;
+                for (Integer probe : probes) {
+                    if (tree.search(probe)) found++;
+                }
+                return found;
+            });
+
+            Harness.measure("  search, recursive", PROBES, () -> {
+                long found = 0;
+                for (Integer probe : probes) {
+                    if (recursiveSearch(root, probe)) found++;
+                }
+                return found;
+            });
+        }
+    }
+
+    /**
+     * The recursive lookup used by Operations before: equals() and up to four compareTo() calls per node
+     */
+    private static boolean recursiveSearch(Node current, Integer element) {
+        boolean ifFound = false;
+
+        if (current != null) {
+            if (current.leftElement != null && current.leftElement.equals(element)) {
+                ifFound = true;
+            } else {
+                if (current.rightElement != null && current.rightElement.equals(element)) {
+                    ifFound = true;
+                } else {
+                    if (current.leftElement.compareTo(element) == 1) {
+                        ifFound = recursiveSearch(current.leftChild, element);
+
+                    } else if (current.rightChild == null || current.rightElement.compareTo(element) == 1) {
+                        ifFound = recursiveSearch(current.middleChild, element);
+
+                    } else if (current.rightElement.compareTo(element) == -1) {
+                        ifFound = recursiveSearch(current.rightChild, element);
+
+                    } else return false;
+                }
+            }
+        }
+
+        return ifFound;
+    }
+}
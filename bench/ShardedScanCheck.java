@@ -0,0 +1,89 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Check of the ShardedOperations iterator while the shards rebalance, run as a program.
+ * <p>
+ * The tree keeps permanent keys (multiples of PERMANENT) for the whole run. Writers add and remove the other keys
+ * in a window that wanders over the key range, so shards swell and drain and the bounds keep moving.
+ * Scanners meanwhile walk the whole tree again and again: every walk has to be strictly ascending
+ * and return every permanent key exactly once.
+ * <p>
+ * Arguments: writers, scanners and seconds, by default 4, 2 and 10. The exit status is 1 if any check failed.
+ */
+public class ShardedScanCheck {
+
+    private static final int RANGE = 1 << 18;       // Keys 0 .. RANGE - 1
+    private static final int PERMANENT = 16;        // Multiples of it stay in the tree
+    private static final int WINDOW = RANGE / 8;    // Keys a writer works on at one time
+
+    public static void main(String[] args) throws InterruptedException {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int scanners = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ShardedOperations<Integer> tree = new ShardedOperations<>(8);
+        for (int key = 0; key < RANGE; key += PERMANENT) {
+            tree.add(key);
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong scans = new AtomicLong();
+        AtomicLong failedScans = new AtomicLong();
+        AtomicLong missed = new AtomicLong();
+        Thread[] threads = new Thread[writers + scanners];
+
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            threads[w] = new Thread(() -> {
+                Random random = new Random(id);
+                for (long i = 0; !stop.get(); i++) {
+                    // Additions go to a window that moves on every 50_000 operations and fills the shards it passes,
+                    // and removals anywhere drain the rest
+                    int start = (int) ((i / 50_000 * WINDOW / 2 + id * WINDOW) % (RANGE - WINDOW));
+                    boolean add = random.nextInt(3) != 0;
+                    int key = add ? start + random.nextInt(WINDOW) : random.nextInt(RANGE);
+                    if (key % PERMANENT == 0) continue;
+
+                    if (add) {
+                        tree.add(key);
+                    } else {
+                        tree.remove(key);
+                    }
+                }
+            });
+        }
+
+        for (int s = 0; s < scanners; s++) {
+            threads[writers + s] = new Thread(() -> {
+                while (!stop.get()) {
+                    int seen = 0;
+                    int previous = -1;
+                    boolean ordered = true;
+                    for (int key : tree) {
+                        if (key <= previous) ordered = false;
+                        if (key % PERMANENT == 0) seen++;
+                        previous = key;
+                    }
+
+                    // Ascending without repeats and with all permanent keys means each one exactly once
+                    if (!ordered || seen != RANGE / PERMANENT) {
+                        failedScans.incrementAndGet();
+                        missed.addAndGet(RANGE / PERMANENT - seen);
+                    }
+                    scans.incrementAndGet();
+                }
+            });
+        }
+
+        for (Thread thread : threads) thread.start();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) thread.join();
+
+        System.out.printf("%d writers, %d scanners, %d s: %d scans, %d failed, %d permanent keys missed%n",
+                writers, scanners, seconds, scans.get(), failedScans.get(), missed.get());
+        if (failedScans.get() != 0) System.exit(1);
+    }
+}
@@ -0,0 +1,728 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * 2-3-tree of byte strings, ordered byte by byte as unsigned values, with the keys stored prefix-compressed in the nodes.
+ * <p>
+ * Every node has a fence: the key just before its subtree, which is a key of an ancestor (none on the left edge).
+ * The left key of a node is stored as the number of bytes it shares with the fence and the bytes after them,
+ * the right key likewise relative to the left key. Keys with long shared prefixes, like URLs or file paths,
+ * keep little more than the bytes in which they differ from their neighbour.
+ * <p>
+ * A lookup carries down the tree the number of bytes the searched key shares with the fence of the node.
+ * Comparing that number with the stored one either decides the comparison at once or shows that the comparison
+ * starts behind the shared prefix, so a byte is never compared twice on the way down and nothing is allocated.
+ * Additions and removals decode the keys on their path, and encode again the nodes they change.
+ * <p>
+ * Strings are stored as their UTF-8 bytes, then the order is the order of their code points.
+ * The nodes are built like the ones of {@link LongTwoThreeTree}.
+ */
+public class ByteStringTwoThreeTree implements Iterable<byte[]> {
+
+    private static final byte[] NO_FENCE = new byte[0];     // Fence of the nodes on the left edge
+
+    /**
+     * Node with one (2 node) or two (3 node) keys.
+     * During removal a node may be left without keys for a moment, then its only descendant is the left one.
+     */
+    private static final class ByteNode {
+        int leftShared;         // Bytes the left key shares with the fence of the node
+        byte[] leftSuffix;      // Bytes of the left key after the shared ones
+        int rightShared;        // Bytes the right key shares with the left key
+        byte[] rightSuffix;     // Bytes of the right key after the shared ones
+        int elements;
+        ByteNode leftChild;
+        ByteNode middleChild;
+        ByteNode rightChild;
+
+        boolean isLeaf() {
+            return leftChild == null;
+        }
+    }
+
+    private ByteNode root;       // Tree root
+    private int size;            // The number of tree elements
+    private int modCount;        // Number of changes, lets the iterators fail fast
+    private boolean added;       // Tracks if the last key was added or was already in the tree
+    private byte[] splitKey;     // Key going up after the last split
+    private ByteNode splitNode;  // Right half of the last split node
+
+    public ByteStringTwoThreeTree() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @return number of keys in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method for removing all keys from a tree
+     */
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+        modCount++;
+    }
+
+    /**
+     * Compares a key with a stored key, both larger than the same fence
+     *
+     * @param key    - key to compare
+     * @param match  - bytes the key shares with the fence
+     * @param shared - bytes the stored key shares with the fence
+     * @param suffix - bytes of the stored key after the shared ones
+     * @return 0 if the keys are equal, otherwise the number of bytes the keys share plus one,
+     * negative if the key is smaller than the stored key, positive if it is larger
+     */
+    private static int compare(byte[] key, int match, int shared, byte[] suffix) {
+        // The stored key leaves the fence earlier, upwards, where the key still follows the fence
+        if (shared < match) return -(shared + 1);
+
+        // The key leaves the fence earlier, upwards, where the stored key still follows the fence
+        if (shared > match) return match + 1;
+
+        int length = Math.min(key.length - match, suffix.length);
+        int mismatch = Arrays.mismatch(key, match, match + length, suffix, 0, length);
+        if (mismatch < 0) {
+            if (key.length - match == suffix.length) return 0;
+            return key.length - match < suffix.length ? -(match + length + 1) : match + length + 1;
+        }
+        return (key[match + mismatch] & 0xff) < (suffix[mismatch] & 0xff) ? -(match + mismatch + 1) : match + mismatch + 1;
+    }
+
+    /**
+     * Method for finding a key in a tree, nothing is allocated
+     *
+     * @param key - key to find
+     * @return true, if the key was found, otherwise false
+     */
+    public boolean search(byte[] key) {
+        ByteNode current = root;
+        int match = 0;      // Bytes the key shares with the fence of the current node
+
+        while (current != null) {
+            int order = compare(key, match, current.leftShared, current.leftSuffix);
+            if (order == 0) return true;
+            if (order < 0) {
+                current = current.leftChild;
+                continue;
+            }
+
+            match = order - 1;
+            if (current.elements == 1) {
+                current = current.middleChild;
+                continue;
+            }
+
+            order = compare(key, match, current.rightShared, current.rightSuffix);
+            if (order == 0) return true;
+            if (order < 0) {
+                current = current.middleChild;
+            } else {
+                match = order - 1;
+                current = current.rightChild;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param key - key to find, as its UTF-8 bytes
+     * @return true, if the key was found, otherwise false
+     */
+    public boolean search(String key) {
+        return search(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Check if the given key is in the tree
+     *
+     * @param key the key to check
+     * @return true, if the key is found, otherwise false
+     */
+    public boolean contains(byte[] key) {
+        return search(key);
+    }
+
+    /**
+     * Adds a new key to the tree, keeping it balanced; the tree keeps its own copy of the bytes
+     *
+     * @param key - key to add
+     */
+    public void add(byte[] key) {
+        if (root == null) {
+            root = new ByteNode();
+            encode(root, NO_FENCE, key, null);
+            size = 1;
+            modCount++;
+            return;
+        }
+
+        added = false;
+
+        // The root was split, the tree grows by one level
+        if (add(root, NO_FENCE, key)) {
+            ByteNode newRoot = new ByteNode();
+            newRoot.leftChild = root;
+            newRoot.middleChild = splitNode;
+            encode(newRoot, NO_FENCE, splitKey, null);
+            root = newRoot;
+        }
+        splitKey = null;
+        splitNode = null;
+
+        if (added) {
+            size++;
+            modCount++;
+        }
+    }
+
+    /**
+     * @param key - key to add, as its UTF-8 bytes
+     */
+    public void add(String key) {
+        add(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return true, if the node was split, then splitKey and splitNode have to be put into the parent
+     */
+    private boolean add(ByteNode current, byte[] fence, byte[] key) {
+        byte[] left = left(current, fence);
+        byte[] right = current.elements == 2 ? right(current, left) : null;
+
+        int index;
+        int order = Arrays.compareUnsigned(key, left);
+        if (order == 0) return false;
+        if (order < 0) {
+            index = 0;
+        } else if (right == null) {
+            index = 1;
+        } else {
+            order = Arrays.compareUnsigned(key, right);
+            if (order == 0) return false;
+            index = order < 0 ? 1 : 2;
+        }
+
+        if (current.isLeaf()) {
+            added = true;
+            return put(current, fence, left, right, index, key, null);
+        }
+
+        if (!add(child(current, index), index == 0 ? fence : index == 1 ? left : right, key)) {
+            return false;
+        }
+
+        return put(current, fence, left, right, index, splitKey, splitNode);
+    }
+
+    /**
+     * Puts a key into the node at the given position, next is the subtree following the key (null in the leaves).
+     * A node with two keys is split: it keeps the smallest key, the middle one goes up.
+     * The subtrees keep their fences, only the changed nodes are encoded again.
+     *
+     * @param index - 0 before the left key, 1 between the keys, 2 after the right key
+     * @return true, if the node was split
+     */
+    private boolean put(ByteNode current, byte[] fence, byte[] left, byte[] right, int index, byte[] key, ByteNode next) {
+        if (right == null) {
+            if (index == 0) {
+                encode(current, fence, key, left);
+                current.rightChild = current.middleChild;
+                current.middleChild = next;
+            } else {
+                encode(current, fence, left, key);
+                current.rightChild = next;
+            }
+            return false;
+        }
+
+        ByteNode sibling = new ByteNode();
+
+        if (index == 0) {
+            splitKey = left;
+            sibling.leftChild = current.middleChild;
+            sibling.middleChild = current.rightChild;
+            encode(sibling, left, right, null);
+            encode(current, fence, key, null);
+            current.middleChild = next;
+
+        } else if (index == 1) {
+            splitKey = key;
+            sibling.leftChild = next;
+            sibling.middleChild = current.rightChild;
+            encode(sibling, key, right, null);
+            encode(current, fence, left, null);
+
+        } else {
+            splitKey = right;
+            sibling.leftChild = current.rightChild;
+            sibling.middleChild = next;
+            encode(sibling, right, key, null);
+            encode(current, fence, left, null);
+        }
+
+        current.rightChild = null;
+        splitNode = sibling;
+        return true;
+    }
+
+    /**
+     * Method for removing a key from the tree
+     *
+     * @param key - key to remove
+     * @return true, if the key was removed, otherwise false
+     */
+    public boolean remove(byte[] key) {
+        if (root == null || !remove(root, NO_FENCE, key)) {
+            return false;
+        }
+
+        // The root lost its last key, the tree shrinks by one level
+        if (root.elements == 0) {
+            root = root.leftChild;
+        }
+
+        size--;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * @param key - key to remove, as its UTF-8 bytes
+     * @return true, if the key was removed, otherwise false
+     */
+    public boolean remove(String key) {
+        return remove(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Removes the key from the subtree. A node left without keys is repaired by its parent.
+     *
+     * @return true, if the key was removed, otherwise false
+     */
+    private boolean remove(ByteNode current, byte[] fence, byte[] key) {
+        byte[] left = left(current, fence);
+        byte[] right = current.elements == 2 ? right(current, left) : null;
+
+        int index;
+        boolean found = false;
+        int order = Arrays.compareUnsigned(key, left);
+        if (order <= 0) {
+            index = 0;
+            found = order == 0;
+        } else if (right == null) {
+            index = 1;
+        } else {
+            order = Arrays.compareUnsigned(key, right);
+            index = order <= 0 ? 1 : 2;
+            found = order == 0;
+        }
+
+        if (current.isLeaf()) {
+            if (!found) return false;
+            encode(current, fence, index == 0 ? right : left, null);
+            return true;
+        }
+
+        // A key of an inner node is replaced by its predecessor, which is then removed from the leaf
+        if (found) {
+            byte[] max = max(child(current, index), index == 0 ? fence : left);
+            if (index == 0) {
+                left = max;
+            } else {
+                right = max;
+            }
+            encode(current, fence, left, right);
+
+            // The nodes on the left edge of the next subtree had the removed key as their fence
+            for (ByteNode next = child(current, index + 1); next != null; next = next.leftChild) {
+                setLeft(next, max, decode(key, next.leftShared, next.leftSuffix));
+            }
+            key = max;
+        }
+
+        ByteNode child = child(current, index);
+        if (!remove(child, index == 0 ? fence : index == 1 ? left : right, key)) {
+            return false;
+        }
+
+        if (child.elements == 0) {
+            fix(current, fence, left, right, index);
+        }
+        return true;
+    }
+
+    /**
+     * Repairs the descendant that was left without keys, either by borrowing a key
+     * of a neighbour with two keys or by merging with a neighbour with one key.
+     * A merge takes a key from the current node, which may in turn be left empty.
+     * The moved subtrees keep their fences, they are the same keys as before.
+     *
+     * @param left  - left key of the current node
+     * @param right - right key of the current node, null for a 2 node
+     */
+    private void fix(ByteNode current, byte[] fence, byte[] left, byte[] right, int index) {
+        ByteNode hole = child(current, index);
+
+        if (index > 0 && child(current, index - 1).elements == 2) {
+            ByteNode sibling = child(current, index - 1);
+            byte[] siblingFence = index == 1 ? fence : left;
+            byte[] siblingLeft = left(sibling, siblingFence);
+            byte[] siblingRight = right(sibling, siblingLeft);
+
+            hole.middleChild = hole.leftChild;
+            hole.leftChild = sibling.rightChild;
+            sibling.rightChild = null;
+            encode(sibling, siblingFence, siblingLeft, null);
+
+            if (index == 1) {
+                encode(hole, siblingRight, left, null);
+                encode(current, fence, siblingRight, right);
+            } else {
+                encode(hole, siblingRight, right, null);
+                encode(current, fence, left, siblingRight);
+            }
+
+        } else if (index < current.elements && child(current, index + 1).elements == 2) {
+            ByteNode sibling = child(current, index + 1);
+            byte[] separator = index == 0 ? left : right;
+            byte[] siblingLeft = left(sibling, separator);
+            byte[] siblingRight = right(sibling, siblingLeft);
+
+            hole.middleChild = sibling.leftChild;
+            encode(hole, index == 0 ? fence : left, separator, null);
+            sibling.leftChild = sibling.middleChild;
+            sibling.middleChild = sibling.rightChild;
+            sibling.rightChild = null;
+            encode(sibling, siblingLeft, siblingRight, null);
+
+            if (index == 0) {
+                encode(current, fence, siblingLeft, right);
+            } else {
+                encode(current, fence, left, siblingLeft);
+            }
+
+        } else if (index > 0) {
+            ByteNode sibling = child(current, index - 1);
+            byte[] siblingFence = index == 1 ? fence : left;
+            sibling.rightChild = hole.leftChild;
+            encode(sibling, siblingFence, left(sibling, siblingFence), index == 1 ? left : right);
+            removeChild(current, fence, left, right, index);
+
+        } else {
+            ByteNode sibling = current.middleChild;
+            hole.middleChild = sibling.leftChild;
+            hole.rightChild = sibling.middleChild;
+            encode(hole, fence, left, left(sibling, left));
+            removeChild(current, fence, left, right, 1);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the key before it
+     */
+    private static void removeChild(ByteNode current, byte[] fence, byte[] left, byte[] right, int index) {
+        if (current.elements == 2) {
+            if (index == 1) {
+                current.middleChild = current.rightChild;
+            }
+            current.rightChild = null;
+            encode(current, fence, index == 1 ? right : left, null);
+        } else {
+            current.middleChild = null;
+            encode(current, fence, null, null);
+        }
+    }
+
+    private static ByteNode child(ByteNode current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    /**
+     * @return bytes the two keys share at their start
+     */
+    private static int shared(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return mismatch < 0 ? a.length : mismatch;
+    }
+
+    private static byte[] decode(byte[] base, int shared, byte[] suffix) {
+        byte[] key = Arrays.copyOf(base, shared + suffix.length);
+        System.arraycopy(suffix, 0, key, shared, suffix.length);
+        return key;
+    }
+
+    private static byte[] left(ByteNode current, byte[] fence) {
+        return decode(fence, current.leftShared, current.leftSuffix);
+    }
+
+    private static byte[] right(ByteNode current, byte[] left) {
+        return decode(left, current.rightShared, current.rightSuffix);
+    }
+
+    private static void setLeft(ByteNode current, byte[] fence, byte[] left) {
+        current.leftShared = shared(fence, left);
+        current.leftSuffix = Arrays.copyOfRange(left, current.leftShared, left.length);
+    }
+
+    /**
+     * Stores the keys of a node, the left one relative to the fence, the right one relative to the left one
+     *
+     * @param left  - left key, null for a node left without keys
+     * @param right - right key, null for a 2 node
+     */
+    private static void encode(ByteNode current, byte[] fence, byte[] left, byte[] right) {
+        current.elements = left == null ? 0 : right == null ? 1 : 2;
+        if (left == null) {
+            current.leftSuffix = null;
+        } else {
+            setLeft(current, fence, left);
+        }
+
+        if (right == null) {
+            current.rightSuffix = null;
+        } else {
+            current.rightShared = shared(left, right);
+            current.rightSuffix = Arrays.copyOfRange(right, current.rightShared, right.length);
+        }
+    }
+
+    /**
+     * @return largest key of the subtree
+     */
+    private static byte[] max(ByteNode current, byte[] fence) {
+        while (true) {
+            byte[] max = left(current, fence);
+            if (current.elements == 2) max = right(current, max);
+            if (current.isLeaf()) return max;
+
+            fence = max;
+            current = current.elements == 2 ? current.rightChild : current.middleChild;
+        }
+    }
+
+    /**
+     * Method for finding the minimum key
+     *
+     * @return minimum key, null if the tree is empty
+     */
+    public byte[] findMin() {
+        if (root == null) return null;
+
+        ByteNode current = root;
+        while (!current.isLeaf()) {
+            current = current.leftChild;
+        }
+        return left(current, NO_FENCE);
+    }
+
+    /**
+     * Method for finding the maximum key
+     *
+     * @return maximum key, null if the tree is empty
+     */
+    public byte[] findMax() {
+        if (root == null) return null;
+        return max(root, NO_FENCE);
+    }
+
+    /**
+     * Hands every key that starts with the prefix to the action, in ascending order.
+     * Only the subtrees that can hold such keys are visited, O(log n + k) for k keys found.
+     *
+     * @param prefix - start of the keys, empty for all keys
+     * @param action - receives the keys, every one in an array of its own
+     */
+    public void forEachWithPrefix(byte[] prefix, Consumer<? super byte[]> action) {
+        if (root != null) scan(root, NO_FENCE, prefix, action);
+    }
+
+    /**
+     * @param prefix - start of the keys, as its UTF-8 bytes
+     * @param action - receives the keys as strings
+     */
+    public void forEachWithPrefix(String prefix, Consumer<? super String> action) {
+        forEachWithPrefix(prefix.getBytes(StandardCharsets.UTF_8), key -> action.accept(new String(key, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return false, if a key after the keys with the prefix was reached, then the scan is over
+     */
+    private static boolean scan(ByteNode current, byte[] fence, byte[] prefix, Consumer<? super byte[]> action) {
+        byte[] left = left(current, fence);
+        byte[] right = current.elements == 2 ? right(current, left) : null;
+
+        for (int index = 0; index <= current.elements; index++) {
+            byte[] key = index == current.elements ? null : index == 0 ? left : right;
+            int position = key == null ? 1 : position(key, prefix);
+
+            // The subtree before the key holds keys with the prefix only if the key is not below them
+            if (!current.isLeaf() && position >= 0) {
+                if (!scan(child(current, index), index == 0 ? fence : index == 1 ? left : right, prefix, action)) {
+                    return false;
+                }
+            }
+
+            if (key == null) break;
+            if (position > 0) return false;
+            if (position == 0) action.accept(key.clone());     // The key is still the fence of the next subtree
+        }
+        return true;
+    }
+
+    /**
+     * @return -1 if the key comes before all keys with the prefix, 0 if it starts with it, 1 if it comes after them
+     */
+    private static int position(byte[] key, byte[] prefix) {
+        int mismatch = Arrays.mismatch(key, prefix);
+        if (mismatch < 0 || mismatch == prefix.length) return 0;
+        if (mismatch == key.length) return -1;
+        return (key[mismatch] & 0xff) < (prefix[mismatch] & 0xff) ? -1 : 1;
+    }
+
+    /**
+     * Checks every invariant of the tree in one walk over all nodes, O(n): each node has one or two keys
+     * in ascending order and two or three descendants or none, the keys of every subtree lie between the keys
+     * around it, all leaves are at the same depth, every stored prefix length is exactly the prefix shared
+     * with the fence or the left key, and the tree holds size keys
+     *
+     * @throws IllegalStateException naming the first broken invariant found
+     */
+    public void validate() {
+        int leafDepth = 0;
+        for (ByteNode current = root; current != null; current = current.leftChild) {
+            leafDepth++;
+        }
+
+        int keys = root == null ? 0 : validate(root, NO_FENCE, null, null, 1, leafDepth);
+        if (keys != size) {
+            throw new IllegalStateException("Size is " + size + ", but the tree holds " + keys + " keys");
+        }
+    }
+
+    /**
+     * @param low  - all keys of the subtree must be bigger, null if there is no bound
+     * @param high - all keys of the subtree must be smaller, null if there is no bound
+     * @return number of keys in the subtree
+     */
+    private int validate(ByteNode current, byte[] fence, byte[] low, byte[] high, int depth, int leafDepth) {
+        if (current.elements != 1 && current.elements != 2) {
+            throw new IllegalStateException("Node with " + current.elements + " keys at level " + depth);
+        }
+        if (current.leftShared > fence.length || current.elements == 2 && current.rightShared > current.leftShared
+                + current.leftSuffix.length) {
+            throw new IllegalStateException("Node at level " + depth + " shares more bytes than the fence has");
+        }
+
+        byte[] left = left(current, fence);
+        byte[] right = current.elements == 2 ? right(current, left) : null;
+        if (current.leftShared != shared(fence, left) || right != null && current.rightShared != shared(left, right)) {
+            throw new IllegalStateException("Node " + text(left) + " stores a wrong prefix length");
+        }
+        if (right != null && Arrays.compareUnsigned(left, right) >= 0
+                || low != null && Arrays.compareUnsigned(low, left) >= 0
+                || high != null && Arrays.compareUnsigned(right != null ? right : left, high) >= 0) {
+            throw new IllegalStateException("Node " + text(left) + (right != null ? ", " + text(right) : "")
+                    + " is out of order");
+        }
+
+        int keys = current.elements;
+        if (current.isLeaf()) {
+            if (depth != leafDepth) {
+                throw new IllegalStateException("Leaf " + text(left) + " at level " + depth + ", the leftmost leaf is at level " + leafDepth);
+            }
+        } else {
+            if (current.middleChild == null || (right != null) != (current.rightChild != null)) {
+                throw new IllegalStateException("Node " + text(left) + " has " + current.elements + " keys, but other descendants");
+            }
+            keys += validate(current.leftChild, fence, low, left, depth + 1, leafDepth);
+            keys += validate(current.middleChild, left, left, right != null ? right : high, depth + 1, leafDepth);
+            if (right != null) keys += validate(current.rightChild, right, right, high, depth + 1, leafDepth);
+        }
+        return keys;
+    }
+
+    private static String text(byte[] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return iterator over the keys in ascending order, every key in an array of its own;
+     * it fails fast if the tree changes meanwhile
+     */
+    @Override
+    public Iterator<byte[]> iterator() {
+        return new TreeIterator();
+    }
+
+    /**
+     * In-order walk with an explicit stack: the nodes on the path, their decoded keys and the next key to return
+     */
+    private final class TreeIterator implements Iterator<byte[]> {
+        private final ByteNode[] nodes = new ByteNode[32];
+        private final byte[][] lefts = new byte[32][];
+        private final byte[][] rights = new byte[32][];
+        private final int[] indexes = new int[32];
+        private int depth;
+        private final int expectedModCount = modCount;
+
+        TreeIterator() {
+            descend(root, NO_FENCE);
+        }
+
+        private void descend(ByteNode current, byte[] fence) {
+            for (; current != null; current = current.leftChild) {
+                byte[] left = left(current, fence);
+                nodes[depth] = current;
+                lefts[depth] = left;
+                rights[depth] = current.elements == 2 ? right(current, left) : null;
+                indexes[depth] = 0;
+                depth++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public byte[] next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (depth == 0) throw new NoSuchElementException();
+
+            int top = depth - 1;
+            ByteNode current = nodes[top];
+            int index = indexes[top];
+            byte[] key = index == 0 ? lefts[top] : rights[top];
+
+            // The key is done, then comes the subtree after it, the key is its fence
+            if (index + 1 < current.elements) {
+                indexes[top] = index + 1;
+            } else {
+                lefts[top] = null;
+                rights[top] = null;
+                depth--;
+            }
+            descend(child(current, index + 1), key);
+            return key;
+        }
+    }
+}
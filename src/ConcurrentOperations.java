@@ -0,0 +1,748 @@
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe 2-3-tree, any number of threads may search, add and remove at the same time.
+ * <p>
+ * Every node carries its own StampedLock.
+ * Readers never write to the nodes: they descend with optimistic stamps, validating every node
+ * after its fields and the stamp of the next node were read, and start over if a writer got in between.
+ * After a few failed attempts a reader falls back to read locks, taken hand over hand.
+ * The root reference is volatile and read again after the root was stamped: it changes only
+ * together with the old root node, so a stamp taken while the node was the root stays valid only as long as it is.
+ * <p>
+ * Writers take write locks hand over hand from the root down. As soon as a node is safe,
+ * i.e. a split (add) or a merge (remove) below cannot reach its parent, the locks above it are released,
+ * so writers in different subtrees do not wait for each other.
+ * A node with one element is safe for add, a node with two elements is safe for remove.
+ * <p>
+ * Elements are compared only on the way down, before any node is changed, and the locks are released
+ * whatever happens: a compareTo that throws fails only its own call and leaves the tree as it was.
+ */
+public class ConcurrentOperations<T extends Comparable<T>> {
+
+    private static final int OPTIMISTIC_ATTEMPTS = 8;   // Optimistic descents before taking read locks
+    private static final int MAX_DEPTH = 64;            // More than enough levels for 2^31 elements
+
+    private static final int RETRY = -1;
+    private static final int MISSING = 0;
+    private static final int FOUND = 1;
+
+    /**
+     * Node with one (2 node) or two (3 node) elements, the node itself is the lock guarding its fields.
+     * A node without elements exists only while its writer holds the lock, its only descendant is the left one.
+     */
+    @SuppressWarnings("serial") // Never serialized
+    private static final class LockedNode extends StampedLock {
+        Object leftElement;
+        Object rightElement;
+        int elements;
+        LockedNode leftChild;
+        LockedNode middleChild;
+        LockedNode rightChild;
+
+        LockedNode() {
+        }
+
+        LockedNode(Object element, LockedNode leftChild, LockedNode middleChild) {
+            this.leftElement = element;
+            this.elements = 1;
+            this.leftChild = leftChild;
+            this.middleChild = middleChild;
+        }
+
+        boolean isLeaf() {
+            return leftChild == null;
+        }
+    }
+
+    /**
+     * Write locks held by one add or remove, from the root down to the current node.
+     * Every thread reuses its own path.
+     */
+    private final class Path {
+        final LockedNode[] nodes = new LockedNode[MAX_DEPTH];
+        final long[] stamps = new long[MAX_DEPTH];
+        final int[] indexes = new int[MAX_DEPTH];     // Descendant taken from every node
+        int count;                                    // Nodes on the path
+        int bottom;                                   // First node still locked
+        long rootStamp;                               // Stamp of rootLock, 0 once released
+
+        Object splitElement;                          // Element going up after the last split
+        LockedNode splitNode;                         // Right half of the last split node
+
+        /**
+         * Starts a new path by locking the root reference
+         */
+        Path begin() {
+            count = 0;
+            bottom = 0;
+            rootStamp = rootLock.writeLock();
+            return this;
+        }
+
+        /**
+         * Locks the next node of the path, a safe node releases the locks above the limit.
+         * Whether the node is safe is decided only once it is locked: until then a writer
+         * that already left the parent may still fill or empty it.
+         *
+         * @param safeElements - number of elements that makes the node safe, 1 for add, 2 for remove
+         */
+        void push(LockedNode node, int safeElements, int limit) {
+            stamps[count] = node.writeLock();
+            nodes[count++] = node;
+            if (node.elements == safeElements) {
+                release(Math.min(limit, count - 1));
+            }
+        }
+
+        /**
+         * Releases the root lock and the nodes above the given position of the path
+         */
+        void release(int limit) {
+            if (rootStamp != 0) {
+                rootLock.unlockWrite(rootStamp);
+                rootStamp = 0;
+            }
+            for (; bottom < limit; bottom++) {
+                nodes[bottom].unlockWrite(stamps[bottom]);
+            }
+        }
+
+        void releaseAll() {
+            release(count);
+        }
+    }
+
+    private final StampedLock rootLock;  // Taken by writers before the root reference, readers never take it
+    private volatile LockedNode root;    // Tree root
+    private final LongAdder size;        // The number of tree elements
+    private final ThreadLocal<Path> paths;
+
+    public ConcurrentOperations() {
+        this.rootLock = new StampedLock();
+        this.root = null;
+        this.size = new LongAdder();
+        this.paths = ThreadLocal.withInitial(Path::new);
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @return number of elements in the tree, updates running at the same time may be counted or not
+     */
+    public int size() {
+        return size.intValue();
+    }
+
+    /**
+     * Method for removing all elements from a tree.
+     * The size is exact only if no update runs at the same time.
+     */
+    public void clear() {
+        long stamp = rootLock.writeLock();
+        root = null;
+        size.reset();
+        rootLock.unlockWrite(stamp);
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(T element) {
+        return search(element);
+    }
+
+    /**
+     * Method for finding an element in a tree, never blocks writers unless they keep invalidating it
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public boolean search(T element) {
+        Objects.requireNonNull(element);
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            int result = optimisticSearch(element);
+            if (result != RETRY) {
+                return result == FOUND;
+            }
+        }
+        return lockedSearch(element);
+    }
+
+    /**
+     * @return FOUND or MISSING, RETRY if a writer changed a node on the way
+     */
+    private int optimisticSearch(T element) {
+        LockedNode current = root;
+        if (current == null) {
+            return MISSING;
+        }
+        long stamp = current.tryOptimisticRead();
+        if (root != current) {
+            return RETRY;
+        }
+
+        while (true) {
+            Object leftElement = current.leftElement;
+            Object rightElement = current.rightElement;
+            int elements = current.elements;
+            LockedNode leftChild = current.leftChild;
+            LockedNode middleChild = current.middleChild;
+            LockedNode rightChild = current.rightChild;
+
+            // The fields are consistent only if no writer locked the node since the stamp was taken
+            if (!current.validate(stamp)) {
+                return RETRY;
+            }
+
+            LockedNode next;
+            int order = element.compareTo((T) leftElement);
+
+            if (order < 0) {
+                next = leftChild;
+            } else if (order == 0) {
+                return FOUND;
+            } else if (elements == 1) {
+                next = middleChild;
+            } else {
+                order = element.compareTo((T) rightElement);
+                if (order == 0) {
+                    return FOUND;
+                }
+                next = order < 0 ? middleChild : rightChild;
+            }
+
+            if (next == null) {
+                return MISSING;
+            }
+
+            // The descendant is still linked to the node when its stamp was taken
+            long nextStamp = next.tryOptimisticRead();
+            if (!current.validate(stamp)) {
+                return RETRY;
+            }
+            current = next;
+            stamp = nextStamp;
+        }
+    }
+
+    private boolean lockedSearch(T element) {
+        LockedNode current;
+        long stamp;
+
+        // The root cannot be replaced while it is read locked
+        while (true) {
+            current = root;
+            if (current == null) {
+                return false;
+            }
+            stamp = current.readLock();
+            if (root == current) {
+                break;
+            }
+            current.unlockRead(stamp);
+        }
+
+        try {
+            while (true) {
+                LockedNode next;
+                int order = element.compareTo((T) current.leftElement);
+
+                if (order < 0) {
+                    next = current.leftChild;
+                } else if (order == 0) {
+                    return true;
+                } else if (current.elements == 1) {
+                    next = current.middleChild;
+                } else {
+                    order = element.compareTo((T) current.rightElement);
+                    if (order == 0) {
+                        return true;
+                    }
+                    next = order < 0 ? current.middleChild : current.rightChild;
+                }
+
+                if (next == null) {
+                    return false;
+                }
+
+                long nextStamp = next.readLock();
+                current.unlockRead(stamp);
+                current = next;
+                stamp = nextStamp;
+            }
+        } finally {
+            current.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds a new element to the tree, keeping it balanced
+     *
+     * @param element - element to add
+     * @return true, if the element was added, false if it was already in the tree
+     */
+    public boolean add(T element) {
+        Objects.requireNonNull(element);
+        Path path = paths.get().begin();
+
+        try {
+            if (root == null) {
+                root = new LockedNode(element, null, null);
+                size.increment();
+                return true;
+            }
+
+            LockedNode current = root;
+            path.push(current, 1, MAX_DEPTH);
+            int index;
+
+            while (true) {
+                int order = element.compareTo((T) current.leftElement);
+
+                if (order < 0) {
+                    index = 0;
+                } else if (order == 0) {
+                    return false;
+                } else if (current.elements == 1) {
+                    index = 1;
+                } else {
+                    order = element.compareTo((T) current.rightElement);
+                    if (order == 0) {
+                        return false;
+                    }
+                    index = order < 0 ? 1 : 2;
+                }
+
+                if (current.isLeaf()) {
+                    break;
+                }
+
+                path.indexes[path.count - 1] = index;
+                current = child(current, index);
+                path.push(current, 1, MAX_DEPTH);
+            }
+
+            // Splits go up to the first safe node, which is still locked, or to the root.
+            // Every element goes to the position found on the way down, nothing is compared any more
+            boolean split = put(path, current, index, element, null);
+            for (int i = path.count - 2; split && i >= 0; i--) {
+                split = put(path, path.nodes[i], path.indexes[i], path.splitElement, path.splitNode);
+            }
+
+            // The root was split, the tree grows by one level
+            if (split) {
+                root = new LockedNode(path.splitElement, path.nodes[0], path.splitNode);
+            }
+
+            size.increment();
+            return true;
+        } finally {
+            path.releaseAll();
+        }
+    }
+
+    /**
+     * Puts an element into the locked node, right is the subtree following the element (null in the leaves).
+     * A node with two elements is split: it keeps the smallest element, the middle one goes up.
+     *
+     * @param index - position of the element: 0 before the left element, 1 after it, 2 after the right element
+     * @return true, if the node was split, then splitElement and splitNode of the path have to be put into the parent
+     */
+    private boolean put(Path path, LockedNode current, int index, Object element, LockedNode right) {
+        if (current.elements == 1) {
+            if (index == 0) {
+                current.rightElement = current.leftElement;
+                current.leftElement = element;
+                current.rightChild = current.middleChild;
+                current.middleChild = right;
+            } else {
+                current.rightElement = element;
+                current.rightChild = right;
+            }
+            current.elements = 2;
+            return false;
+        }
+
+        // The new node is filled before the parent links it, readers find it complete
+        LockedNode sibling = new LockedNode();
+
+        if (index == 0) {
+            path.splitElement = current.leftElement;
+            sibling.leftElement = current.rightElement;
+            sibling.leftChild = current.middleChild;
+            sibling.middleChild = current.rightChild;
+            current.leftElement = element;
+            current.middleChild = right;
+
+        } else if (index == 1) {
+            path.splitElement = element;
+            sibling.leftElement = current.rightElement;
+            sibling.leftChild = right;
+            sibling.middleChild = current.rightChild;
+
+        } else {
+            path.splitElement = current.rightElement;
+            sibling.leftElement = element;
+            sibling.leftChild = current.rightChild;
+            sibling.middleChild = right;
+        }
+
+        sibling.elements = 1;
+        current.elements = 1;
+        current.rightElement = null;
+        current.rightChild = null;
+        path.splitNode = sibling;
+        return true;
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public boolean remove(T element) {
+        Objects.requireNonNull(element);
+        Path path = paths.get().begin();
+
+        try {
+            if (root == null) {
+                return false;
+            }
+
+            LockedNode current = root;
+            path.push(current, 2, MAX_DEPTH);
+
+            int found = -1;     // Position on the path of the inner node holding the element, it stays locked
+            int slot = 0;       // Which of its elements
+
+            while (!current.isLeaf()) {
+                int index;
+
+                if (found >= 0) {
+                    // Looking for the predecessor: the rightmost element of the subtree
+                    index = current.elements;
+                } else {
+                    int order = element.compareTo((T) current.leftElement);
+
+                    if (order < 0) {
+                        index = 0;
+                    } else if (order == 0) {
+                        found = path.count - 1;
+                        slot = 0;
+                        index = 0;
+                    } else if (current.elements == 1) {
+                        index = 1;
+                    } else {
+                        order = element.compareTo((T) current.rightElement);
+                        if (order == 0) {
+                            found = path.count - 1;
+                            slot = 1;
+                        }
+                        index = order <= 0 ? 1 : 2;
+                    }
+                }
+
+                path.indexes[path.count - 1] = index;
+                current = child(current, index);
+                path.push(current, 2, found >= 0 ? found : MAX_DEPTH);
+            }
+
+            if (found >= 0) {
+                // The element of the inner node is replaced by its predecessor, which leaves the leaf
+                Object predecessor = current.elements == 2 ? current.rightElement : current.leftElement;
+                setElement(path.nodes[found], slot, predecessor);
+                removeElement(current, current.elements - 1);
+
+            } else if (element.compareTo((T) current.leftElement) == 0) {
+                removeElement(current, 0);
+            } else if (current.elements == 2 && element.compareTo((T) current.rightElement) == 0) {
+                removeElement(current, 1);
+            } else {
+                return false;
+            }
+
+            // Holes are repaired bottom up, a merge may leave the parent empty in turn
+            int i = path.count - 1;
+            while (i > 0 && path.nodes[i].elements == 0) {
+                fix(path.nodes[i - 1], path.indexes[i - 1]);
+                i--;
+            }
+
+            // The root lost its last element, the tree shrinks by one level
+            if (i == 0 && path.nodes[0].elements == 0) {
+                root = path.nodes[0].leftChild;
+            }
+
+            size.decrement();
+            return true;
+        } finally {
+            path.releaseAll();
+        }
+    }
+
+    private static void removeElement(LockedNode leaf, int slot) {
+        if (slot == 0) {
+            leaf.leftElement = leaf.rightElement;
+        }
+        leaf.rightElement = null;
+        leaf.elements--;
+    }
+
+    /**
+     * Repairs the descendant that was left without elements, either by borrowing an element
+     * of a neighbour with two elements or by merging with a neighbour with one element.
+     * A merge takes an element from the current node, which may in turn be left empty.
+     * The current node and the hole are locked by the path, the neighbours are locked here.
+     */
+    private void fix(LockedNode current, int index) {
+        LockedNode hole = child(current, index);
+
+        if (index > 0) {
+            LockedNode left = child(current, index - 1);
+            long stamp = left.writeLock();
+
+            if (left.elements == 2) {
+                hole.middleChild = hole.leftChild;
+                hole.leftChild = left.rightChild;
+                hole.leftElement = element(current, index - 1);
+                hole.elements = 1;
+                setElement(current, index - 1, left.rightElement);
+                left.rightElement = null;
+                left.rightChild = null;
+                left.elements = 1;
+                left.unlockWrite(stamp);
+                return;
+            }
+
+            if (index == current.elements || !borrowRight(current, index, hole)) {
+                left.rightElement = element(current, index - 1);
+                left.rightChild = hole.leftChild;
+                left.elements = 2;
+                removeChild(current, index);
+            }
+            left.unlockWrite(stamp);
+            return;
+        }
+
+        if (borrowRight(current, index, hole)) {
+            return;
+        }
+
+        // Index 0 without a neighbour to borrow from: the middle descendant is merged into the hole
+        LockedNode right = current.middleChild;
+        long stamp = right.writeLock();
+        hole.leftElement = current.leftElement;
+        hole.rightElement = right.leftElement;
+        hole.middleChild = right.leftChild;
+        hole.rightChild = right.middleChild;
+        hole.elements = 2;
+        removeChild(current, 1);
+        right.unlockWrite(stamp);
+    }
+
+    /**
+     * Moves the smallest element of the right neighbour through the current node into the hole
+     *
+     * @return true, if the right neighbour had two elements, otherwise nothing is changed
+     */
+    private static boolean borrowRight(LockedNode current, int index, LockedNode hole) {
+        LockedNode right = child(current, index + 1);
+        long stamp = right.writeLock();
+
+        if (right.elements < 2) {
+            right.unlockWrite(stamp);
+            return false;
+        }
+
+        hole.leftElement = element(current, index);
+        hole.middleChild = right.leftChild;
+        hole.elements = 1;
+        setElement(current, index, right.leftElement);
+        right.leftElement = right.rightElement;
+        right.rightElement = null;
+        right.leftChild = right.middleChild;
+        right.middleChild = right.rightChild;
+        right.rightChild = null;
+        right.elements = 1;
+        right.unlockWrite(stamp);
+        return true;
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private static void removeChild(LockedNode current, int index) {
+        if (current.elements == 2) {
+            if (index == 1) {
+                current.leftElement = current.rightElement;
+                current.middleChild = current.rightChild;
+            }
+            current.rightElement = null;
+            current.rightChild = null;
+        } else {
+            current.leftElement = null;
+            current.middleChild = null;
+        }
+        current.elements--;
+    }
+
+    private static LockedNode child(LockedNode current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    private static Object element(LockedNode current, int index) {
+        return index == 0 ? current.leftElement : current.rightElement;
+    }
+
+    private static void setElement(LockedNode current, int index, Object element) {
+        if (index == 0) {
+            current.leftElement = element;
+        } else {
+            current.rightElement = element;
+        }
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value, otherwise null
+     */
+    public T findMin() {
+        return end(false);
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value, otherwise null
+     */
+    public T findMax() {
+        return end(true);
+    }
+
+    /**
+     * @return the smallest or the largest element, null if the tree is empty
+     */
+    private T end(boolean max) {
+        attempts:
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            LockedNode current = root;
+            if (current == null) {
+                return null;
+            }
+            long stamp = current.tryOptimisticRead();
+            if (root != current) {
+                continue;
+            }
+
+            while (true) {
+                int elements = current.elements;
+                LockedNode next = max ? child(current, elements) : current.leftChild;
+                Object element = max ? element(current, elements - 1) : current.leftElement;
+                long nextStamp = next == null ? 0 : next.tryOptimisticRead();
+
+                if (!current.validate(stamp)) {
+                    continue attempts;
+                }
+                if (next == null) {
+                    return (T) element;
+                }
+                current = next;
+                stamp = nextStamp;
+            }
+        }
+
+        LockedNode current;
+        long stamp;
+
+        while (true) {
+            current = root;
+            if (current == null) {
+                return null;
+            }
+            stamp = current.readLock();
+            if (root == current) {
+                break;
+            }
+            current.unlockRead(stamp);
+        }
+
+        while (!current.isLeaf()) {
+            LockedNode next = max ? child(current, current.elements) : current.leftChild;
+            long nextStamp = next.readLock();
+            current.unlockRead(stamp);
+            current = next;
+            stamp = nextStamp;
+        }
+
+        T element = (T) (max ? element(current, current.elements - 1) : current.leftElement);
+        current.unlockRead(stamp);
+        return element;
+    }
+
+    /**
+     * Checks every invariant of the tree in one walk over all nodes, O(n): each node has one or two elements
+     * in ascending order and two or three descendants or none, the elements of every subtree lie between
+     * the elements around it, all leaves are at the same depth and the tree holds size elements.
+     * No update may run at the same time.
+     *
+     * @throws IllegalStateException naming the first broken invariant found
+     */
+    public void validate() {
+        int leafDepth = 0;
+        for (LockedNode current = root; current != null; current = current.leftChild) {
+            leafDepth++;
+        }
+
+        int elements = root == null ? 0 : validate(root, null, null, 1, leafDepth);
+        if (elements != size()) {
+            throw new IllegalStateException("Size is " + size() + ", but the tree holds " + elements + " elements");
+        }
+    }
+
+    /**
+     * @param low  - all elements of the subtree must be bigger, null if there is no bound
+     * @param high - all elements of the subtree must be smaller, null if there is no bound
+     * @return number of elements in the subtree
+     */
+    private int validate(LockedNode current, T low, T high, int depth, int leafDepth) {
+        if (current.elements != 1 && current.elements != 2) {
+            throw new IllegalStateException("Node with " + current.elements + " elements at level " + depth);
+        }
+
+        T left = (T) current.leftElement;
+        T right = current.elements == 2 ? (T) current.rightElement : null;
+        T max = right != null ? right : left;
+        if (right != null && left.compareTo(right) >= 0
+                || low != null && low.compareTo(left) >= 0 || high != null && max.compareTo(high) >= 0) {
+            throw new IllegalStateException("Node " + left + (right != null ? ", " + right : "") + " is out of order");
+        }
+
+        int elements = current.elements;
+        if (current.isLeaf()) {
+            if (depth != leafDepth) {
+                throw new IllegalStateException("Leaf " + left + " at level " + depth + ", the leftmost leaf is at level " + leafDepth);
+            }
+        } else {
+            if (current.middleChild == null || (right != null) != (current.rightChild != null)) {
+                throw new IllegalStateException("Node " + left + " has " + current.elements + " elements, but other descendants");
+            }
+            elements += validate(current.leftChild, low, left, depth + 1, leafDepth);
+            elements += validate(current.middleChild, left, right != null ? right : high, depth + 1, leafDepth);
+            if (right != null) elements += validate(current.rightChild, right, high, depth + 1, leafDepth);
+        }
+        return elements;
+    }
+}
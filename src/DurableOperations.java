@@ -0,0 +1,622 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 2-3-tree whose changes survive a crash of the process or the machine.
+ * <p>
+ * The tree lives in memory as an {@link Operations}, a directory on disk holds a {@link TreeSnapshot}
+ * and an append-only write-ahead log of the changes made after it. add and remove put a record into the log
+ * and return only after the record has been forced to disk. Threads that change the tree at the same time
+ * share the writes: one of them forces all records collected so far, the others wait for it (group commit),
+ * and the records arriving meanwhile make up the next batch.
+ * <p>
+ * Log layout: a header with a magic number, format version and the name of the key codec,
+ * then the records, each one as its length, a CRC32 and the payload (operation and key, a clear has no key).
+ * Only changes are logged, an add of a present key or a remove of a missing one writes nothing.
+ * <p>
+ * When the log grows over the checkpoint size, a copy of the tree is written to a new snapshot, which replaces
+ * the old one by an atomic rename. Only the copy is taken under the lock, the changes go on while the snapshot
+ * is written. Then the log is replaced, again by a rename, with one that holds only the records after the copy.
+ * Opening the directory reads the snapshot and replays the log up to the first record that is incomplete
+ * or fails its checksum, the rest of the log is dropped. The snapshot replaces the old one only after every change
+ * it holds is in the log, so a crash between the two renames leaves a log that leads up to the snapshot:
+ * replaying it again gives the same tree, as every record sets the state of its key.
+ * <p>
+ * All methods are thread safe. A change is visible to the other threads as soon as it is made,
+ * the call returns once it is durable.
+ */
+public class DurableOperations<T extends Comparable<T>> implements Closeable {
+
+    static final String SNAPSHOT = "snapshot";
+    static final String LOG = "log";
+    private static final String TEMPORARY = "snapshot.tmp";
+    private static final String LOG_TEMPORARY = "log.tmp";
+
+    private static final int MAGIC = 0x3233544C;       // "23TL"
+    private static final int VERSION = 1;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+    private static final int RECORD_HEADER = 8;         // Length and checksum
+
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+    private final Path directory;
+    private final KeyCodec<T> codec;
+    private final long checkpointBytes;
+    private final byte[] header;
+
+    // Guarded by this
+    private FileChannel log;        // Replaced by a checkpoint, while no batch is written
+    private Operations<T> tree;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();   // Records not written yet
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadData = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+    private long appended;          // Number of the last record put into pending
+    private long durable;           // Number of the last record forced to disk
+    private boolean flushing;       // A thread is writing a batch, it owns the log file
+    private boolean checkpointing;  // A thread is writing a snapshot
+    private long logSize;           // Bytes of the log file written so far
+    private IOException failure;    // The log could not be written, the state on disk is unknown
+    private boolean closed;
+
+    private DurableOperations(Path directory, KeyCodec<T> codec, long checkpointBytes, FileChannel log) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.checkpointBytes = checkpointBytes;
+        this.log = log;
+        this.header = header(codec);
+    }
+
+    /**
+     * Opens the tree stored in the directory, a missing or empty directory starts with an empty tree
+     *
+     * @param directory - directory of the snapshot and the log, created if it does not exist
+     * @param codec     - codec of the keys, has to match the one the directory was written with
+     * @return tree with the changes of the last snapshot and the log
+     * @throws IOException if the files cannot be read or were written with another codec
+     */
+    public static <T extends Comparable<T>> DurableOperations<T> open(Path directory, KeyCodec<T> codec) throws IOException {
+        return open(directory, codec, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * @param checkpointBytes - size of the log that triggers a checkpoint
+     */
+    public static <T extends Comparable<T>> DurableOperations<T> open(Path directory, KeyCodec<T> codec, long checkpointBytes) throws IOException {
+        if (checkpointBytes <= 0) {
+            throw new IllegalArgumentException("Checkpoint size must be positive: " + checkpointBytes);
+        }
+
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(TEMPORARY));     // Left by a crash during a checkpoint
+        Files.deleteIfExists(directory.resolve(LOG_TEMPORARY));
+
+        FileChannel log = FileChannel.open(directory.resolve(LOG),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            DurableOperations<T> tree = new DurableOperations<>(directory, codec, checkpointBytes, log);
+            tree.recover();
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    private static byte[] header(KeyCodec<?> codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(codec.name());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the snapshot, replays the complete records of the log and cuts off the rest
+     */
+    private void recover() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot)) {
+                tree = TreeSnapshot.read(channel, codec);
+            }
+        } else {
+            tree = new Operations<>();
+        }
+
+        long size = log.size();
+        if (size < header.length) {
+            // New log, or a crash before its header was complete
+            resetLog();
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log.position(0)), 1 << 16));
+        byte[] found = new byte[header.length];
+        in.readFully(found);
+        if (!Arrays.equals(found, header)) {
+            throw new IOException("Not a tree log or the log holds keys of another codec than " + codec.name());
+        }
+
+        long valid = header.length;
+        while (true) {
+            long end = replay(in, size - valid);
+            if (end < 0) break;
+            valid += end;
+        }
+
+        // Whatever follows the last complete record was never acknowledged
+        if (valid < size) {
+            log.truncate(valid);
+            log.force(false);
+        }
+        log.position(valid);
+        logSize = valid;
+    }
+
+    /**
+     * Applies the next record of the log
+     *
+     * @param remaining - bytes of the log after the previous record
+     * @return bytes taken by the record, -1 if there is no complete and valid record
+     */
+    private long replay(DataInputStream in, long remaining) throws IOException {
+        if (remaining < RECORD_HEADER) return -1;
+
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length <= 0 || length > remaining - RECORD_HEADER) return -1;
+
+        byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            return -1;
+        }
+
+        crc.reset();
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) return -1;
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte operation = record.readByte();
+        if (operation == CLEAR) {
+            tree = new Operations<>();
+            return RECORD_HEADER + length;
+        }
+
+        T key = codec.read(null, record);
+        if (operation == ADD) {
+            tree.add(key);
+        } else if (operation == REMOVE) {
+            tree.remove(key);
+        } else {
+            return -1;
+        }
+        return RECORD_HEADER + length;
+    }
+
+    /**
+     * Cuts the log back to its header
+     */
+    private void resetLog() throws IOException {
+        log.truncate(0);
+        log.write(ByteBuffer.wrap(header), 0);
+        log.force(true);
+        log.position(header.length);
+        logSize = header.length;
+    }
+
+    /**
+     * Adds a new element and waits until the change is durable
+     *
+     * @param element - element to add
+     * @return true, if the element was added, false if it was already in the tree
+     * @throws UncheckedIOException if the log cannot be written, the tree refuses all changes afterwards
+     */
+    public boolean add(T element) {
+        long record;
+        synchronized (this) {
+            checkWritable();
+            if (tree.search(element)) return false;
+
+            record = append(ADD, element);
+            tree.add(element);
+        }
+        commit(record);
+        return true;
+    }
+
+    /**
+     * Removes an element and waits until the change is durable
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     * @throws UncheckedIOException if the log cannot be written, the tree refuses all changes afterwards
+     */
+    public boolean remove(T element) {
+        long record;
+        synchronized (this) {
+            checkWritable();
+            if (!tree.search(element)) return false;
+
+            record = append(REMOVE, element);
+            tree.remove(element);
+        }
+        commit(record);
+        return true;
+    }
+
+    /**
+     * Puts the record of a change into the pending batch
+     *
+     * @param element - key of the change, null for a clear
+     * @return number of the record
+     */
+    private long append(byte operation, T element) {
+        try {
+            payload.reset();
+            payloadData.writeByte(operation);
+            if (element != null) {
+                codec.write(null, element, payloadData);
+            }
+
+            crc.reset();
+            crc.update(payload.toByteArray());
+
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(payload.size());
+            out.writeInt((int) crc.getValue());
+            payload.writeTo(pending);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);      // Memory streams do not fail, only the codec can
+        }
+        return ++appended;
+    }
+
+    /**
+     * Waits until the record is on disk. If no other thread is writing, the current one writes
+     * every pending record, so the threads waiting for them are served by the same force.
+     */
+    private void commit(long record) {
+        byte[] batch;
+        long last;
+        FileChannel channel;
+        boolean interrupted = false;
+
+        synchronized (this) {
+            try {
+                while (durable < record) {
+                    if (failure != null) {
+                        throw new UncheckedIOException("The log could not be written", failure);
+                    }
+                    if (!flushing) break;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;     // The record is in the batch of another thread, it has to be awaited
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+            if (durable >= record) return;
+
+            flushing = true;
+            batch = pending.toByteArray();
+            pending.reset();
+            last = appended;
+            channel = log;
+        }
+
+        // Written outside of the lock, the threads arriving meanwhile make up the next batch
+        IOException error = null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        boolean full;
+        synchronized (this) {
+            flushing = false;
+            if (error == null) {
+                durable = last;
+                logSize += batch.length;
+            } else {
+                failure = error;
+            }
+            notifyAll();
+            full = logSize >= checkpointBytes;
+        }
+
+        if (error != null) {
+            throw new UncheckedIOException("The log could not be written", error);
+        }
+        if (full) {
+            try {
+                checkpointIfFull();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Checkpoint failed", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the tree to a new snapshot and empties the log. Changes go on while the snapshot is written.
+     */
+    public void checkpoint() throws IOException {
+        writeCheckpoint(false);
+    }
+
+    /**
+     * Checkpoint after a batch, unless another thread is writing one or has already emptied the log
+     */
+    private void checkpointIfFull() throws IOException {
+        writeCheckpoint(true);
+    }
+
+    /**
+     * Waits until no batch is being written, the current thread owns the log file afterwards
+     *
+     * @param checkpoints - wait for a running checkpoint as well
+     */
+    private void awaitFlush(boolean checkpoints) {
+        boolean interrupted = false;
+        while (flushing || checkpoints && checkpointing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Only the copy of the tree and the end of the log it covers are taken under the lock,
+     * the snapshot is written and forced outside of it
+     *
+     * @param onlyIfFull - skip the checkpoint if one is running already or the log is no longer full
+     */
+    private void writeCheckpoint(boolean onlyIfFull) throws IOException {
+        Operations<T> snapshot;
+        long record;        // Last change in the snapshot
+        long covered;       // End of its record in the log, once the pending batch is written
+
+        synchronized (this) {
+            if (onlyIfFull) {
+                awaitFlush(false);
+                if (checkpointing || closed || failure != null || logSize < checkpointBytes) return;
+            } else {
+                checkWritable();
+                awaitFlush(true);
+                checkWritable();
+            }
+            snapshot = tree.copy();
+            record = appended;
+            covered = logSize + pending.size();
+            checkpointing = true;
+        }
+
+        try {
+            Path temporary = directory.resolve(TEMPORARY);
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                TreeSnapshot.write(snapshot, codec, channel);
+                channel.force(true);
+            }
+
+            // The log has to lead up to the snapshot before the snapshot replaces the old one,
+            // the threads of the pending changes are writing them
+            synchronized (this) {
+                boolean interrupted = false;
+                while (durable < record && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                checkWritable();
+            }
+
+            Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+
+            synchronized (this) {
+                awaitFlush(false);
+                replaceLog(covered);
+            }
+        } finally {
+            synchronized (this) {
+                checkpointing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replaces the log with one that holds the records after the given end, the changes made during the checkpoint.
+     * A failure leaves the old log in place, whose records lead up to the snapshot.
+     */
+    private void replaceLog(long covered) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate(Math.toIntExact(logSize - covered));
+        while (tail.hasRemaining()) {
+            if (log.read(tail, covered + tail.position()) < 0) {
+                throw new EOFException("The log ends before the records of the checkpoint");
+            }
+        }
+        tail.flip();
+
+        Path temporary = directory.resolve(LOG_TEMPORARY);
+        FileChannel next = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(header.length + tail.remaining()).put(header).put(tail).flip();
+            while (buffer.hasRemaining()) {
+                next.write(buffer);
+            }
+            next.force(true);
+            Files.move(temporary, directory.resolve(LOG), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            next.close();
+            throw e;
+        }
+        forceDirectory();
+
+        FileChannel old = log;
+        log = next;
+        logSize = next.position();
+        old.close();
+    }
+
+    /**
+     * Makes the rename durable, where the platform allows to force a directory
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform, the rename becomes durable with the next metadata flush
+        }
+    }
+
+    /**
+     * Removes all elements and waits until the change is durable, the empty tree is checkpointed right away.
+     * The clear is a record of the log like any change: until the checkpoint is done, the log still holds
+     * the records before it.
+     *
+     * @throws UncheckedIOException if the log cannot be written, the tree refuses all changes afterwards
+     */
+    public void clear() throws IOException {
+        long record;
+        synchronized (this) {
+            checkWritable();
+            if (tree.isEmpty()) return;
+
+            record = append(CLEAR, null);
+            tree = new Operations<>();
+        }
+        commit(record);
+        checkpoint();
+    }
+
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public synchronized boolean search(T element) {
+        return tree.search(element);
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public synchronized boolean contains(T element) {
+        return tree.search(element);
+    }
+
+    /**
+     * @return number of tree elements
+     */
+    public synchronized int size() {
+        return tree.size();
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public synchronized boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value
+     */
+    public synchronized T findMin() {
+        return tree.findMin();
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value
+     */
+    public synchronized T findMax() {
+        return tree.findMax();
+    }
+
+    /**
+     * @return copy of the tree at the time of the call, for scans without holding the lock
+     */
+    public synchronized Operations<T> copy() {
+        Comparable[] elements = new Comparable[tree.size()];
+        int i = 0;
+        for (T element : tree) {
+            elements[i++] = element;
+        }
+        return new Operations<>((T[]) elements);
+    }
+
+    /**
+     * Waits for the pending changes and closes the log, the next open() replays it
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (this) {
+            if (closed) return;
+            last = appended;
+        }
+        if (failure == null) {
+            commit(last);
+        }
+        synchronized (this) {
+            awaitFlush(true);
+            closed = true;
+            log.close();
+        }
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("The tree is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The log could not be written, the tree accepts no changes", failure);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.Iterator;
+
+/**
+ * {@link Operations} that records what it does: every add, remove and search is counted and timed,
+ * and with {@code -Dtwothree.metrics=true} the comparisons, splits and rebalances it caused are added up.
+ * See {@link TreeMetrics} for reading the results.
+ * <p>
+ * The calls are synchronized, so the metrics, which read the shape of the tree, can be polled from another thread,
+ * for example through JMX. A tree that does not need the metrics is used directly and pays nothing for them.
+ */
+public class InstrumentedOperations<T extends Comparable<T>> implements Iterable<T> {
+
+    private final Operations<T> tree;
+    private final TreeMetrics metrics;
+
+    // Counters of the current thread when the running operation started, guarded by this
+    private long comparisons;
+    private long splits;
+    private long rebalances;
+
+    public InstrumentedOperations() {
+        this(new Operations<>());
+    }
+
+    /**
+     * @param tree - tree to instrument, must not be used directly afterwards
+     */
+    InstrumentedOperations(Operations<T> tree) {
+        this.tree = tree;
+        this.metrics = new TreeMetrics(this);
+    }
+
+    /**
+     * @return metrics of this tree
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds a new element to the tree, keeping it balanced
+     *
+     * @param element - element to add
+     */
+    public synchronized void add(T element) {
+        long start = begin();
+        tree.add(element);
+        metrics.record(TreeMetrics.ADD, System.nanoTime() - start, comparisons, splits, rebalances);
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public synchronized boolean remove(T element) {
+        long start = begin();
+        boolean removed = tree.remove(element);
+        metrics.record(TreeMetrics.REMOVE, System.nanoTime() - start, comparisons, splits, rebalances);
+        return removed;
+    }
+
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public synchronized boolean search(T element) {
+        long start = begin();
+        boolean found = tree.search(element);
+        metrics.record(TreeMetrics.SEARCH, System.nanoTime() - start, comparisons, splits, rebalances);
+        return found;
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(T element) {
+        return search(element);
+    }
+
+    /**
+     * Notes the counters of the current thread
+     *
+     * @return start time of the operation
+     */
+    private long begin() {
+        if (TreeMetrics.ENABLED) {
+            TreeMetrics.Probe probe = TreeMetrics.probe();
+            comparisons = probe.comparisons;
+            splits = probe.splits;
+            rebalances = probe.rebalances;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * @return number of tree elements
+     */
+    public synchronized int size() {
+        return tree.size();
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public synchronized boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * @return number of levels, 0 for the empty tree
+     */
+    public synchronized int height() {
+        return tree.height();
+    }
+
+    /**
+     * Walks all nodes while holding the lock, so writers wait for it; pollers read {@link TreeMetrics#shape()}
+     *
+     * @return shape of the tree, see {@link Operations#stats()}
+     */
+    public synchronized TreeStats stats() {
+        return tree.stats();
+    }
+
+    /**
+     * Checks every invariant of the tree, see {@link Operations#validate()}
+     *
+     * @throws IllegalStateException naming the first broken invariant found
+     */
+    public synchronized void validate() {
+        tree.validate();
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value
+     */
+    public synchronized T findMin() {
+        return tree.findMin();
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value
+     */
+    public synchronized T findMax() {
+        return tree.findMax();
+    }
+
+    /**
+     * Method for removing all elements from a tree, the metrics stay
+     */
+    public synchronized void clear() {
+        tree.clear();
+    }
+
+    /**
+     * @return iterator over the elements in ascending order, it must not be used while another thread changes the tree
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return tree.iterator();
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns keys into bytes and back for the binary formats of the trees.
+ * Keys are written in the order of the tree, each one together with the key written before it,
+ * so a codec may store only the difference to the previous key. The order is not necessarily the natural one:
+ * a tree with a comparator hands over its keys in the order of the comparator, a key may be smaller than the previous one.
+ *
+ * @param <T> type of the keys
+ */
+public interface KeyCodec<T> {
+
+    /**
+     * @return name stored with the data, a codec reads only data written under its own name
+     */
+    String name();
+
+    /**
+     * @param previous - key written before this one, null for the first key
+     * @param key      - key to write, after the previous one in the order of the tree
+     * @param out      - destination of the bytes
+     */
+    void write(T previous, T key, DataOutput out) throws IOException;
+
+    /**
+     * @param previous - key read before this one, null for the first key
+     * @param in       - source of the bytes
+     * @return key written with the same previous key
+     */
+    T read(T previous, DataInput in) throws IOException;
+
+    /**
+     * int keys, 4 bytes each
+     */
+    KeyCodec<Integer> INTEGERS = new KeyCodec<>() {
+        @Override
+        public String name() {
+            return "int";
+        }
+
+        @Override
+        public void write(Integer previous, Integer key, DataOutput out) throws IOException {
+            out.writeInt(key);
+        }
+
+        @Override
+        public Integer read(Integer previous, DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    /**
+     * int keys as varints of the gaps between them, zigzag encoded: dense keys take one byte each,
+     * whether the tree is ascending or descending
+     */
+    KeyCodec<Integer> INTEGER_DELTAS = new KeyCodec<>() {
+        @Override
+        public String name() {
+            return "int-delta";
+        }
+
+        @Override
+        public void write(Integer previous, Integer key, DataOutput out) throws IOException {
+            long value = key;
+            writeVarLong(zigZag(previous == null ? value : value - previous), out);
+        }
+
+        @Override
+        public Integer read(Integer previous, DataInput in) throws IOException {
+            long value = unZigZag(readVarLong(in));
+            return (int) (previous == null ? value : previous + value);
+        }
+    };
+
+    /**
+     * long keys, 8 bytes each
+     */
+    KeyCodec<Long> LONGS = new KeyCodec<>() {
+        @Override
+        public String name() {
+            return "long";
+        }
+
+        @Override
+        public void write(Long previous, Long key, DataOutput out) throws IOException {
+            out.writeLong(key);
+        }
+
+        @Override
+        public Long read(Long previous, DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    /**
+     * long keys as varints of the gaps between them, zigzag encoded like {@link #INTEGER_DELTAS}.
+     * A gap may not fit into a long, it wraps around and back again on reading.
+     */
+    KeyCodec<Long> LONG_DELTAS = new KeyCodec<>() {
+        @Override
+        public String name() {
+            return "long-delta";
+        }
+
+        @Override
+        public void write(Long previous, Long key, DataOutput out) throws IOException {
+            writeVarLong(zigZag(previous == null ? key : key - previous), out);
+        }
+
+        @Override
+        public Long read(Long previous, DataInput in) throws IOException {
+            long value = unZigZag(readVarLong(in));
+            return previous == null ? value : previous + value;
+        }
+    };
+
+    /**
+     * Strings in UTF-8 without the prefix they share with the previous key
+     */
+    KeyCodec<String> STRINGS = new KeyCodec<>() {
+        @Override
+        public String name() {
+            return "utf8-prefix";
+        }
+
+        @Override
+        public void write(String previous, String key, DataOutput out) throws IOException {
+            int prefix = 0;
+            if (previous != null) {
+                int limit = Math.min(previous.length(), key.length());
+                while (prefix < limit && previous.charAt(prefix) == key.charAt(prefix)) {
+                    prefix++;
+                }
+                // A surrogate pair is never cut in half
+                if (prefix > 0 && Character.isHighSurrogate(key.charAt(prefix - 1))) {
+                    prefix--;
+                }
+            }
+
+            byte[] suffix = key.substring(prefix).getBytes(StandardCharsets.UTF_8);
+            writeVarLong(prefix, out);
+            writeVarLong(suffix.length, out);
+            out.write(suffix);
+        }
+
+        @Override
+        public String read(String previous, DataInput in) throws IOException {
+            long prefix = readVarLong(in);
+            long length = readVarLong(in);
+            // Damaged data must end in an IOException, not in an exception of the string operations
+            int limit = previous == null ? 0 : previous.length();
+            if (prefix < 0 || prefix > limit) {
+                throw new IOException("Corrupt snapshot: shared prefix of " + prefix + " chars, the previous key has " + limit);
+            }
+            if (length < 0 || length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Corrupt snapshot: key suffix of " + length + " bytes");
+            }
+            byte[] suffix = new byte[(int) length];
+            in.readFully(suffix);
+
+            String rest = new String(suffix, StandardCharsets.UTF_8);
+            return prefix == 0 ? rest : previous.substring(0, (int) prefix) + rest;
+        }
+    };
+
+    /**
+     * Writes the value in groups of 7 bits, the lowest group first, the high bit marks that another group follows
+     */
+    static void writeVarLong(long value, DataOutput out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Varint is longer than 10 bytes");
+    }
+
+    /**
+     * @return the value with the sign moved to the lowest bit, so small negative values stay short
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
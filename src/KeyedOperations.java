@@ -0,0 +1,624 @@
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * 2-3-tree for elements that are expensive to compare, such as composite keys or long strings.
+ * Every element is stored in its node together with a long sort key computed once when it is added,
+ * so on the way down most comparisons are comparisons of two longs in the node itself, and the comparator
+ * or compareTo only runs, and the element is only read, when the sort keys are equal.
+ * <p>
+ * The sort key has to agree with the order of the elements: if a comes before b, the sort key of a must not be bigger
+ * than the sort key of b. A prefix of the element does that, for example the leading field of a composite key
+ * or the first characters of a string ({@link #stringPrefix(String)}). The more elements have a sort key of their own,
+ * the fewer full comparisons are made; a constant sort key is correct, but saves nothing.
+ * {@link #validate()} finds sort keys that do not agree with the order.
+ * <p>
+ * The nodes are built like the ones of {@link LongTwoThreeTree}, with the elements next to the keys.
+ * The elements do not have to be Comparable if a comparator is given.
+ */
+public class KeyedOperations<T> implements Iterable<T> {
+
+    /**
+     * Node with one (2 node) or two (3 node) elements and their sort keys.
+     * During removal a node may be left without elements for a moment, then its only descendant is the left one.
+     */
+    private static final class KeyedNode {
+        long leftKey;
+        long rightKey;
+        Object leftElement;
+        Object rightElement;
+        int elements;
+        KeyedNode leftChild;
+        KeyedNode middleChild;
+        KeyedNode rightChild;
+
+        KeyedNode() {
+        }
+
+        KeyedNode(long key, Object element, KeyedNode leftChild, KeyedNode middleChild) {
+            this.leftKey = key;
+            this.leftElement = element;
+            this.elements = 1;
+            this.leftChild = leftChild;
+            this.middleChild = middleChild;
+        }
+
+        boolean isLeaf() {
+            return leftChild == null;
+        }
+    }
+
+    private final ToLongFunction<? super T> sortKey;
+    private final Comparator<? super T> comparator;
+
+    private KeyedNode root;      // Tree root
+    private int size;            // The number of tree elements
+    private int modCount;        // Number of changes, lets the iterators fail fast
+    private boolean added;       // Tracks if the last element was added or was already in the tree
+    private long splitKey;       // Key of the element going up after the last split
+    private Object splitElement; // Element going up after the last split
+    private KeyedNode splitNode; // Right half of the last split node
+
+    /**
+     * Tree ordered by the natural ordering of the elements
+     *
+     * @param sortKey - prefix of the natural ordering as a long, see the class description
+     */
+    public KeyedOperations(ToLongFunction<? super T> sortKey) {
+        this(sortKey, null);
+    }
+
+    /**
+     * @param sortKey    - prefix of the order as a long, see the class description
+     * @param comparator - order of the elements, null for their natural ordering
+     */
+    public KeyedOperations(ToLongFunction<? super T> sortKey, Comparator<? super T> comparator) {
+        this.sortKey = sortKey;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Sort key of a string: its first four characters, so strings that differ within them
+     * are ordered without looking at the strings again. Missing characters count as 0, like in String.compareTo,
+     * where a shorter string comes first.
+     *
+     * @param string - string to take the prefix of
+     * @return sort key, ordered as signed longs like the strings are ordered by String.compareTo
+     */
+    public static long stringPrefix(String string) {
+        long prefix = 0;
+        int length = Math.min(string.length(), 4);
+        for (int i = 0; i < length; i++) {
+            prefix |= (long) string.charAt(i) << (48 - 16 * i);
+        }
+        return prefix ^ Long.MIN_VALUE;     // Characters are unsigned, the longs are compared signed
+    }
+
+    /**
+     * @return order of the elements, null for their natural ordering
+     */
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Compares by the sort keys, and by the elements only if the keys are equal
+     *
+     * @return negative, 0 or positive, as the element comes before, is equal to or comes after the other one
+     */
+    private int compare(long key, T element, long otherKey, Object otherElement) {
+        if (key != otherKey) return key < otherKey ? -1 : 1;
+        return compare(element, (T) otherElement);
+    }
+
+    private int compare(T a, T b) {
+        return comparator == null ? ((Comparable<Object>) a).compareTo(b) : comparator.compare(a, b);
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method for removing all elements from a tree
+     */
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+        modCount++;
+    }
+
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public boolean search(T element) {
+        long key = sortKey.applyAsLong(element);
+        KeyedNode current = root;
+
+        while (current != null) {
+            int order = compare(key, element, current.leftKey, current.leftElement);
+            if (order < 0) {
+                current = current.leftChild;
+                continue;
+            }
+            if (order == 0) return true;
+            if (current.elements == 1) {
+                current = current.middleChild;
+                continue;
+            }
+
+            order = compare(key, element, current.rightKey, current.rightElement);
+            if (order == 0) return true;
+            current = order < 0 ? current.middleChild : current.rightChild;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(T element) {
+        return search(element);
+    }
+
+    /**
+     * Adds a new element to the tree, keeping it balanced
+     *
+     * @param element - element to add
+     */
+    public void add(T element) {
+        long key = sortKey.applyAsLong(element);
+
+        if (root == null) {
+            root = new KeyedNode(key, element, null, null);
+            size = 1;
+            modCount++;
+            return;
+        }
+
+        added = false;
+
+        // The root was split, the tree grows by one level
+        if (add(root, key, element)) {
+            root = new KeyedNode(splitKey, splitElement, root, splitNode);
+        }
+        splitElement = null;
+
+        if (added) {
+            size++;
+            modCount++;
+        }
+    }
+
+    /**
+     * @return true, if the node was split, then splitKey, splitElement and splitNode have to be put into the parent
+     */
+    private boolean add(KeyedNode current, long key, T element) {
+        int index;
+
+        int order = compare(key, element, current.leftKey, current.leftElement);
+        if (order == 0) return false;
+        if (order < 0) {
+            index = 0;
+        } else if (current.elements == 1) {
+            index = 1;
+        } else {
+            order = compare(key, element, current.rightKey, current.rightElement);
+            if (order == 0) return false;
+            index = order < 0 ? 1 : 2;
+        }
+
+        if (current.isLeaf()) {
+            added = true;
+            return put(current, index, key, element, null);
+        }
+
+        if (!add(child(current, index), key, element)) {
+            return false;
+        }
+
+        return put(current, index, splitKey, splitElement, splitNode);
+    }
+
+    /**
+     * Puts an element into the node at the given position, right is the subtree following the element
+     * (null in the leaves). A node with two elements is split: it keeps the smallest element, the middle one goes up.
+     *
+     * @param index - 0 before the left element, 1 between the elements, 2 after the right element
+     * @return true, if the node was split
+     */
+    private boolean put(KeyedNode current, int index, long key, Object element, KeyedNode right) {
+        if (current.elements == 1) {
+            if (index == 0) {
+                current.rightKey = current.leftKey;
+                current.rightElement = current.leftElement;
+                current.leftKey = key;
+                current.leftElement = element;
+                current.rightChild = current.middleChild;
+                current.middleChild = right;
+            } else {
+                current.rightKey = key;
+                current.rightElement = element;
+                current.rightChild = right;
+            }
+            current.elements = 2;
+            return false;
+        }
+
+        KeyedNode sibling = new KeyedNode();
+
+        if (index == 0) {
+            splitKey = current.leftKey;
+            splitElement = current.leftElement;
+            sibling.leftKey = current.rightKey;
+            sibling.leftElement = current.rightElement;
+            sibling.leftChild = current.middleChild;
+            sibling.middleChild = current.rightChild;
+            current.leftKey = key;
+            current.leftElement = element;
+            current.middleChild = right;
+
+        } else if (index == 1) {
+            splitKey = key;
+            splitElement = element;
+            sibling.leftKey = current.rightKey;
+            sibling.leftElement = current.rightElement;
+            sibling.leftChild = right;
+            sibling.middleChild = current.rightChild;
+
+        } else {
+            splitKey = current.rightKey;
+            splitElement = current.rightElement;
+            sibling.leftKey = key;
+            sibling.leftElement = element;
+            sibling.leftChild = current.rightChild;
+            sibling.middleChild = right;
+        }
+
+        sibling.elements = 1;
+        current.elements = 1;
+        current.rightElement = null;
+        current.rightChild = null;
+        splitNode = sibling;
+        return true;
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public boolean remove(T element) {
+        if (root == null || !remove(root, sortKey.applyAsLong(element), element)) {
+            return false;
+        }
+
+        // The root lost its last element, the tree shrinks by one level
+        if (root.elements == 0) {
+            root = root.leftChild;
+        }
+
+        size--;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Removes the element from the subtree. A node left without elements is repaired by its parent.
+     *
+     * @return true, if the element was removed, otherwise false
+     */
+    private boolean remove(KeyedNode current, long key, T element) {
+        int index;
+        int order = compare(key, element, current.leftKey, current.leftElement);
+        if (order < 0) {
+            index = 0;
+        } else if (order == 0) {
+            index = -1;
+        } else if (current.elements == 1) {
+            index = 1;
+        } else {
+            order = compare(key, element, current.rightKey, current.rightElement);
+            index = order == 0 ? -2 : order < 0 ? 1 : 2;
+        }
+
+        if (current.isLeaf()) {
+            if (index == -1) {
+                current.leftKey = current.rightKey;
+                current.leftElement = current.rightElement;
+                current.rightElement = null;
+                current.elements--;
+                return true;
+            }
+            if (index == -2) {
+                current.rightElement = null;
+                current.elements = 1;
+                return true;
+            }
+            return false;
+        }
+
+        // An element of an inner node is replaced by its predecessor, which is then removed from the leaf
+        if (index < 0) {
+            index = -index - 1;
+            KeyedNode max = max(child(current, index));
+            int last = max.elements - 1;
+            key = last == 0 ? max.leftKey : max.rightKey;
+            element = (T) (last == 0 ? max.leftElement : max.rightElement);
+            setElement(current, index, key, element);
+        }
+
+        KeyedNode child = child(current, index);
+        if (!remove(child, key, element)) {
+            return false;
+        }
+
+        if (child.elements == 0) {
+            fix(current, index);
+        }
+        return true;
+    }
+
+    /**
+     * Repairs the descendant that was left without elements, either by borrowing an element
+     * of a neighbour with two elements or by merging with a neighbour with one element.
+     * A merge takes an element from the current node, which may in turn be left empty.
+     */
+    private void fix(KeyedNode current, int index) {
+        KeyedNode hole = child(current, index);
+
+        if (index > 0 && child(current, index - 1).elements == 2) {
+            KeyedNode left = child(current, index - 1);
+            hole.middleChild = hole.leftChild;
+            hole.leftChild = left.rightChild;
+            hole.leftKey = key(current, index - 1);
+            hole.leftElement = element(current, index - 1);
+            hole.elements = 1;
+            setElement(current, index - 1, left.rightKey, left.rightElement);
+            left.rightElement = null;
+            left.rightChild = null;
+            left.elements = 1;
+
+        } else if (index < current.elements && child(current, index + 1).elements == 2) {
+            KeyedNode right = child(current, index + 1);
+            hole.leftKey = key(current, index);
+            hole.leftElement = element(current, index);
+            hole.middleChild = right.leftChild;
+            hole.elements = 1;
+            setElement(current, index, right.leftKey, right.leftElement);
+            right.leftKey = right.rightKey;
+            right.leftElement = right.rightElement;
+            right.rightElement = null;
+            right.leftChild = right.middleChild;
+            right.middleChild = right.rightChild;
+            right.rightChild = null;
+            right.elements = 1;
+
+        } else if (index > 0) {
+            KeyedNode left = child(current, index - 1);
+            left.rightKey = key(current, index - 1);
+            left.rightElement = element(current, index - 1);
+            left.rightChild = hole.leftChild;
+            left.elements = 2;
+            removeChild(current, index);
+
+        } else {
+            KeyedNode right = current.middleChild;
+            hole.leftKey = current.leftKey;
+            hole.leftElement = current.leftElement;
+            hole.rightKey = right.leftKey;
+            hole.rightElement = right.leftElement;
+            hole.middleChild = right.leftChild;
+            hole.rightChild = right.middleChild;
+            hole.elements = 2;
+            removeChild(current, 1);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private static void removeChild(KeyedNode current, int index) {
+        if (current.elements == 2) {
+            if (index == 1) {
+                current.leftKey = current.rightKey;
+                current.leftElement = current.rightElement;
+                current.middleChild = current.rightChild;
+            }
+            current.rightElement = null;
+            current.rightChild = null;
+        } else {
+            current.leftElement = null;
+            current.middleChild = null;
+        }
+        current.elements--;
+    }
+
+    private static KeyedNode child(KeyedNode current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    private static long key(KeyedNode current, int index) {
+        return index == 0 ? current.leftKey : current.rightKey;
+    }
+
+    private static Object element(KeyedNode current, int index) {
+        return index == 0 ? current.leftElement : current.rightElement;
+    }
+
+    private static void setElement(KeyedNode current, int index, long key, Object element) {
+        if (index == 0) {
+            current.leftKey = key;
+            current.leftElement = element;
+        } else {
+            current.rightKey = key;
+            current.rightElement = element;
+        }
+    }
+
+    /**
+     * @return leaf with the largest element of the subtree
+     */
+    private static KeyedNode max(KeyedNode current) {
+        while (!current.isLeaf()) {
+            current = current.elements == 2 ? current.rightChild : current.middleChild;
+        }
+        return current;
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value, null if the tree is empty
+     */
+    public T findMin() {
+        if (root == null) return null;
+
+        KeyedNode current = root;
+        while (!current.isLeaf()) {
+            current = current.leftChild;
+        }
+        return (T) current.leftElement;
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value, null if the tree is empty
+     */
+    public T findMax() {
+        if (root == null) return null;
+
+        KeyedNode max = max(root);
+        return (T) (max.elements == 2 ? max.rightElement : max.leftElement);
+    }
+
+    /**
+     * Checks every invariant of the tree in one walk over all nodes, O(n): each node has one or two elements
+     * in ascending order and two or three descendants or none, all leaves are at the same depth,
+     * the tree holds size elements, and the sort keys agree with the order of the elements
+     *
+     * @throws IllegalStateException naming the first broken invariant found
+     */
+    public void validate() {
+        int leafDepth = 0;
+        for (KeyedNode current = root; current != null; current = current.leftChild) {
+            leafDepth++;
+        }
+
+        Object[] previous = new Object[1];
+        int elements = root == null ? 0 : validate(root, 1, leafDepth, previous);
+        if (elements != size) {
+            throw new IllegalStateException("Size is " + size + ", but the tree holds " + elements + " elements");
+        }
+    }
+
+    /**
+     * @param previous - holds the element before the subtree in the order, null at the start
+     * @return number of elements in the subtree
+     */
+    private int validate(KeyedNode current, int depth, int leafDepth, Object[] previous) {
+        if (current.elements != 1 && current.elements != 2) {
+            throw new IllegalStateException("Node with " + current.elements + " elements at level " + depth);
+        }
+        if (current.isLeaf() ? depth != leafDepth
+                : current.middleChild == null || (current.elements == 2) != (current.rightChild != null)) {
+            throw new IllegalStateException("Node " + current.leftElement + " at level " + depth
+                    + " has the wrong descendants");
+        }
+
+        int elements = current.elements;
+        for (int index = 0; index <= current.elements; index++) {
+            KeyedNode child = child(current, index);
+            if (child != null) elements += validate(child, depth + 1, leafDepth, previous);
+            if (index == current.elements) break;
+
+            long key = key(current, index);
+            T element = (T) element(current, index);
+            if (key != sortKey.applyAsLong(element)) {
+                throw new IllegalStateException("The sort key of " + element + " changed");
+            }
+            if (previous[0] != null && compare((T) previous[0], element) >= 0) {
+                throw new IllegalStateException("The sort keys do not agree with the order: " + previous[0]
+                        + " comes before " + element);
+            }
+            previous[0] = element;
+        }
+        return elements;
+    }
+
+    /**
+     * @return iterator over the elements in ascending order, it fails fast if the tree changes meanwhile
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new TreeIterator();
+    }
+
+    /**
+     * In-order walk with an explicit stack: the nodes on the path and the next element to return in each of them
+     */
+    private final class TreeIterator implements Iterator<T> {
+        private final KeyedNode[] nodes = new KeyedNode[32];
+        private final int[] indexes = new int[32];
+        private int depth;
+        private final int expectedModCount = modCount;
+
+        TreeIterator() {
+            descend(root);
+        }
+
+        private void descend(KeyedNode current) {
+            for (; current != null; current = current.leftChild) {
+                nodes[depth] = current;
+                indexes[depth] = 0;
+                depth++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (depth == 0) throw new NoSuchElementException();
+
+            KeyedNode current = nodes[depth - 1];
+            int index = indexes[depth - 1];
+            T element = (T) element(current, index);
+
+            // The element is done, then comes the subtree after it
+            if (index + 1 < current.elements) {
+                indexes[depth - 1] = index + 1;
+            } else {
+                depth--;
+            }
+            descend(child(current, index + 1));
+            return element;
+        }
+    }
+}
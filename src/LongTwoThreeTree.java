@@ -0,0 +1,390 @@
+import java.util.NoSuchElementException;
+
+/**
+ * 2-3-tree of long elements.
+ * Offers the operations of {@link Operations}, but the elements are kept in primitive fields of the nodes,
+ * so they are never boxed and are compared with plain long comparisons.
+ * <p>
+ * A long cannot be null: unlike the ones of Operations, findMin and findMax of an empty tree
+ * throw NoSuchElementException, like findMinLong of {@link OffHeapOperations}.
+ * <p>
+ * The class is a line by line copy of {@link IntTwoThreeTree}, only the elements are long. Generics take no primitives,
+ * and a common base class would reach the elements of its nodes through calls the JIT has to resolve per subclass,
+ * which is the indirection the two classes exist to avoid; int nodes also take 8 bytes less than long ones.
+ * Changes go to IntTwoThreeTree first and are copied here, PrimitiveTreeCheck runs both trees through the same rounds.
+ */
+public class LongTwoThreeTree {
+
+    /**
+     * Node with one (2 node) or two (3 node) elements.
+     * During removal a node may be left without elements for a moment, then its only descendant is the left one.
+     */
+    private static final class LongNode {
+        long leftElement;
+        long rightElement;
+        int elements;
+        LongNode leftChild;
+        LongNode middleChild;
+        LongNode rightChild;
+
+        LongNode() {
+        }
+
+        LongNode(long element, LongNode leftChild, LongNode middleChild) {
+            this.leftElement = element;
+            this.elements = 1;
+            this.leftChild = leftChild;
+            this.middleChild = middleChild;
+        }
+
+        boolean isLeaf() {
+            return leftChild == null;
+        }
+    }
+
+    private LongNode root;       // Tree root
+    private int size;            // The number of tree elements
+    private boolean added;       // Tracks if the last element was added or was already in the tree
+    private long splitElement;   // Element going up after the last split
+    private LongNode splitNode;  // Right half of the last split node
+
+    public LongTwoThreeTree() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method for removing all elements from a tree
+     */
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(long element) {
+        LongNode current = root;
+
+        while (current != null) {
+            if (element < current.leftElement) {
+                current = current.leftChild;
+            } else if (element == current.leftElement) {
+                return true;
+            } else if (current.elements == 1 || element < current.rightElement) {
+                current = current.middleChild;
+            } else if (element == current.rightElement) {
+                return true;
+            } else {
+                current = current.rightChild;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds a new element to the tree, keeping it balanced
+     *
+     * @param element - element to add
+     */
+    public void add(long element) {
+        if (root == null) {
+            root = new LongNode(element, null, null);
+            size = 1;
+            return;
+        }
+
+        added = false;
+
+        // The root was split, the tree grows by one level
+        if (add(root, element)) {
+            root = new LongNode(splitElement, root, splitNode);
+        }
+
+        if (added) size++;
+    }
+
+    /**
+     * @return true, if the node was split, then splitElement and splitNode have to be put into the parent
+     */
+    private boolean add(LongNode current, long element) {
+        LongNode child;
+
+        if (current.isLeaf()) {
+            if (element == current.leftElement || (current.elements == 2 && element == current.rightElement)) {
+                return false;
+            }
+            added = true;
+            return put(current, element, null);
+        }
+
+        if (element < current.leftElement) {
+            child = current.leftChild;
+        } else if (element == current.leftElement) {
+            return false;
+        } else if (current.elements == 1 || element < current.rightElement) {
+            child = current.middleChild;
+        } else if (element == current.rightElement) {
+            return false;
+        } else {
+            child = current.rightChild;
+        }
+
+        if (!add(child, element)) {
+            return false;
+        }
+
+        return put(current, splitElement, splitNode);
+    }
+
+    /**
+     * Puts an element into the node, right is the subtree following the element (null in the leaves).
+     * A node with two elements is split: it keeps the smallest element, the middle one goes up.
+     *
+     * @return true, if the node was split
+     */
+    private boolean put(LongNode current, long element, LongNode right) {
+        if (current.elements == 1) {
+            if (element < current.leftElement) {
+                current.rightElement = current.leftElement;
+                current.leftElement = element;
+                current.rightChild = current.middleChild;
+                current.middleChild = right;
+            } else {
+                current.rightElement = element;
+                current.rightChild = right;
+            }
+            current.elements = 2;
+            return false;
+        }
+
+        LongNode sibling = new LongNode();
+
+        if (element < current.leftElement) {
+            splitElement = current.leftElement;
+            sibling.leftElement = current.rightElement;
+            sibling.leftChild = current.middleChild;
+            sibling.middleChild = current.rightChild;
+            current.leftElement = element;
+            current.middleChild = right;
+
+        } else if (element < current.rightElement) {
+            splitElement = element;
+            sibling.leftElement = current.rightElement;
+            sibling.leftChild = right;
+            sibling.middleChild = current.rightChild;
+
+        } else {
+            splitElement = current.rightElement;
+            sibling.leftElement = element;
+            sibling.leftChild = current.rightChild;
+            sibling.middleChild = right;
+        }
+
+        sibling.elements = 1;
+        current.elements = 1;
+        current.rightChild = null;
+        splitNode = sibling;
+        return true;
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public boolean remove(long element) {
+        if (root == null || !remove(root, element)) {
+            return false;
+        }
+
+        // The root lost its last element, the tree shrinks by one level
+        if (root.elements == 0) {
+            root = root.leftChild;
+        }
+
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes the element from the subtree. A node left without elements is repaired by its parent.
+     *
+     * @return true, if the element was removed, otherwise false
+     */
+    private boolean remove(LongNode current, long element) {
+        if (current.isLeaf()) {
+            if (element == current.leftElement) {
+                current.leftElement = current.rightElement;
+                current.elements--;
+                return true;
+            }
+            if (current.elements == 2 && element == current.rightElement) {
+                current.elements = 1;
+                return true;
+            }
+            return false;
+        }
+
+        int index;
+
+        // An element of an inner node is replaced by its predecessor, which is then removed from the leaf
+        if (element < current.leftElement) {
+            index = 0;
+        } else if (element == current.leftElement) {
+            element = current.leftElement = max(current.leftChild);
+            index = 0;
+        } else if (current.elements == 1 || element < current.rightElement) {
+            index = 1;
+        } else if (element == current.rightElement) {
+            element = current.rightElement = max(current.middleChild);
+            index = 1;
+        } else {
+            index = 2;
+        }
+
+        LongNode child = child(current, index);
+        if (!remove(child, element)) {
+            return false;
+        }
+
+        if (child.elements == 0) {
+            fix(current, index);
+        }
+        return true;
+    }
+
+    /**
+     * Repairs the descendant that was left without elements, either by borrowing an element
+     * of a neighbour with two elements or by merging with a neighbour with one element.
+     * A merge takes an element from the current node, which may in turn be left empty.
+     */
+    private void fix(LongNode current, int index) {
+        LongNode hole = child(current, index);
+
+        if (index > 0 && child(current, index - 1).elements == 2) {
+            LongNode left = child(current, index - 1);
+            hole.middleChild = hole.leftChild;
+            hole.leftChild = left.rightChild;
+            hole.leftElement = element(current, index - 1);
+            hole.elements = 1;
+            setElement(current, index - 1, left.rightElement);
+            left.rightChild = null;
+            left.elements = 1;
+
+        } else if (index < current.elements && child(current, index + 1).elements == 2) {
+            LongNode right = child(current, index + 1);
+            hole.leftElement = element(current, index);
+            hole.middleChild = right.leftChild;
+            hole.elements = 1;
+            setElement(current, index, right.leftElement);
+            right.leftElement = right.rightElement;
+            right.leftChild = right.middleChild;
+            right.middleChild = right.rightChild;
+            right.rightChild = null;
+            right.elements = 1;
+
+        } else if (index > 0) {
+            LongNode left = child(current, index - 1);
+            left.rightElement = element(current, index - 1);
+            left.rightChild = hole.leftChild;
+            left.elements = 2;
+            removeChild(current, index);
+
+        } else {
+            LongNode right = current.middleChild;
+            hole.leftElement = current.leftElement;
+            hole.rightElement = right.leftElement;
+            hole.middleChild = right.leftChild;
+            hole.rightChild = right.middleChild;
+            hole.elements = 2;
+            removeChild(current, 1);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private static void removeChild(LongNode current, int index) {
+        if (current.elements == 2) {
+            if (index == 1) {
+                current.leftElement = current.rightElement;
+                current.middleChild = current.rightChild;
+            }
+            current.rightChild = null;
+        } else {
+            current.middleChild = null;
+        }
+        current.elements--;
+    }
+
+    private static LongNode child(LongNode current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    private static long element(LongNode current, int index) {
+        return index == 0 ? current.leftElement : current.rightElement;
+    }
+
+    private static void setElement(LongNode current, int index, long element) {
+        if (index == 0) {
+            current.leftElement = element;
+        } else {
+            current.rightElement = element;
+        }
+    }
+
+    private static long max(LongNode current) {
+        while (!current.isLeaf()) {
+            current = current.elements == 2 ? current.rightChild : current.middleChild;
+        }
+        return current.elements == 2 ? current.rightElement : current.leftElement;
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public long findMin() {
+        if (root == null) throw new NoSuchElementException("The tree is empty");
+
+        LongNode current = root;
+        while (!current.isLeaf()) {
+            current = current.leftChild;
+        }
+        return current.leftElement;
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public long findMax() {
+        if (root == null) throw new NoSuchElementException("The tree is empty");
+        return max(root);
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * 2-3-tree of fixed-width keys stored in a memory-mapped file.
+ * Nodes have the shape of {@link Node} (three descendants, two keys) and the layout of {@link OffHeapOperations},
+ * the chunks of nodes are mapped from the file instead of being allocated in memory.
+ * <p>
+ * File layout: a header page followed by the chunks of nodes. The header page has two slots,
+ * each with a magic number, format version, key width, node size, generation, root, size,
+ * number of nodes, free list head, flags and a CRC32 of the slot. The valid slot with the highest generation wins.
+ * <p>
+ * A call of {@link #force()} makes the current tree durable. Between two calls, nodes written by the last
+ * durable generation are never changed: a node is copied before its first change, together with the path
+ * from the root, and the nodes replaced this way are reused only after the next force().
+ * So whatever happens to the process, the file always holds the tree of the last force().
+ * <p>
+ * Reopening maps the chunks without reading them, the tree is used right away.
+ * Only after a crash the free list is rebuilt, by walking the nodes reachable from the root.
+ */
+public class MappedOperations extends OffHeapOperations implements Closeable {
+
+    private static final int MAGIC = 0x32335446;        // "23TF"
+    private static final int VERSION = 1;
+
+    private static final int PAGE = 4096;               // Header page, the chunks follow it
+    private static final int SLOT = 64;                 // Size of a header slot
+    private static final int CHECKED = 56;              // Bytes of a slot covered by the checksum
+    private static final int CLEAN = 1;                 // Flag of a header written by close()
+
+    private static final int GENERATION = HEADER;       // Generation that wrote the node, reserved in every node
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    private int generation;         // Generation of the nodes that can be changed in place
+    private int[] pending;          // Nodes of the durable tree, freed once the next generation is durable
+    private int pendingCount;
+    private boolean closed;
+
+    private MappedOperations(FileChannel channel, int keyWidth) throws IOException {
+        super(keyWidth, 4);
+        this.channel = channel;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, PAGE);
+        this.pending = new int[16];
+    }
+
+    /**
+     * Opens the tree stored in the file, a missing or empty file is initialized with an empty tree
+     *
+     * @param file     - file of the tree
+     * @param keyWidth - number of bytes in every key, has to match the file
+     * @return tree stored in the file
+     * @throws IOException if the file cannot be mapped or is not a tree file with the given key width
+     */
+    public static MappedOperations open(Path file, int keyWidth) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean empty = channel.size() == 0;
+            MappedOperations tree = new MappedOperations(channel, keyWidth);
+            if (empty) {
+                tree.initialize();
+            } else {
+                tree.recover();
+            }
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void initialize() {
+        generation = 1;
+        writeHeader(0, 0);
+        header.force();
+    }
+
+    private void recover() throws IOException {
+        int slot = latestSlot();
+        if (slot < 0) {
+            throw new IOException("Not a tree file or both headers are damaged");
+        }
+
+        ByteBuffer h = header.duplicate().position(slot * SLOT);
+        h.getInt();     // Magic and version are checked by latestSlot()
+        h.getInt();
+        int width = h.getInt();
+        int bytes = h.getInt();
+        if (width != keyWidth() || bytes != nodeSize) {
+            throw new IOException("The file holds keys of " + width + " bytes, not " + keyWidth());
+        }
+        int durable = h.getInt();
+        root = h.getInt();
+        size = h.getInt();
+        allocated = h.getInt();
+        free = h.getInt();
+        int flags = h.getInt();
+
+        for (int index = 0; index <= allocated >>> chunkShift; index++) {
+            ensureChunk(index);
+        }
+
+        // The free list was written over after the last force(), only the nodes reachable from the root are valid
+        if ((flags & CLEAN) == 0) {
+            rebuildFreeList();
+        }
+
+        // Nodes taken from the free list are written over from now on, a crash must not find it trusted
+        generation = durable + 1;
+        writeHeader(generation, 0);
+        header.force();
+        generation++;
+    }
+
+    /**
+     * @return index of the valid header slot with the highest generation, -1 if there is none
+     */
+    private int latestSlot() {
+        int latest = -1;
+        long latestGeneration = -1;
+
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = slot * SLOT;
+            CRC32 crc = new CRC32();
+            crc.update(header.duplicate().position(offset).limit(offset + CHECKED));
+
+            if (header.getInt(offset) == MAGIC && header.getInt(offset + 4) == VERSION
+                    && header.getLong(offset + CHECKED) == crc.getValue()
+                    && Integer.toUnsignedLong(header.getInt(offset + 16)) > latestGeneration) {
+                latest = slot;
+                latestGeneration = Integer.toUnsignedLong(header.getInt(offset + 16));
+            }
+        }
+
+        return latest;
+    }
+
+    /**
+     * Writes the state of the tree into the header slot of the given generation
+     */
+    private void writeHeader(int generation, int flags) {
+        int offset = (generation & 1) * SLOT;
+        ByteBuffer h = header.duplicate().position(offset);
+        h.putInt(MAGIC).putInt(VERSION).putInt(keyWidth()).putInt(nodeSize)
+                .putInt(generation).putInt(root).putInt(size).putInt(allocated).putInt(free).putInt(flags);
+
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate().position(offset).limit(offset + CHECKED));
+        header.putLong(offset + CHECKED, crc.getValue());
+    }
+
+    /**
+     * Puts every node that cannot be reached from the root on the free list
+     */
+    private void rebuildFreeList() {
+        BitSet reachable = new BitSet(allocated + 1);
+        int[] stack = new int[64];
+        int top = 0;
+
+        if (root != NONE) {
+            stack[top++] = root;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            reachable.set(node);
+            for (int index = 0; index <= elements(node) && child(node, 0) != NONE; index++) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                }
+                stack[top++] = child(node, index);
+            }
+        }
+
+        free = NONE;
+        for (int node = allocated; node > 0; node--) {
+            if (!reachable.get(node)) {
+                super.free(node);
+            }
+        }
+    }
+
+    /**
+     * Makes the current tree durable: writes the nodes, then the header pointing to them
+     */
+    public void force() {
+        checkOpen();
+        for (ByteBuffer chunk : chunks()) {
+            if (chunk != null) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+        writeHeader(generation, 0);
+        header.force();
+
+        // The replaced nodes are not part of the durable tree any more
+        generation++;
+        for (int i = 0; i < pendingCount; i++) {
+            super.free(pending[i]);
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Makes the tree durable and closes the file, the next open() trusts the free list
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        force();
+        writeHeader(generation, CLEAN);
+        header.force();
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Removes all elements and makes the empty tree durable right away,
+     * so that the nodes of the file can be reused
+     */
+    @Override
+    public void clear() {
+        checkOpen();
+        super.clear();
+        pendingCount = 0;
+        writeHeader(generation, 0);
+        header.force();
+        generation++;
+    }
+
+    /**
+     * The file keeps its size, the nodes are reused by later additions
+     */
+    @Override
+    public void release() {
+        clear();
+    }
+
+    /* Copy on write */
+
+    @Override
+    protected int writable(int node) {
+        checkOpen();
+        if (generation(node) == generation) {
+            return node;
+        }
+
+        int copy = allocate();
+        chunk(copy).put(offset(copy), chunk(node), offset(node), nodeSize);
+        chunk(copy).putInt(offset(copy) + GENERATION, generation);
+        free(node);
+        return copy;
+    }
+
+    @Override
+    protected int allocate() {
+        int node = super.allocate();
+        chunk(node).putInt(offset(node) + GENERATION, generation);
+        return node;
+    }
+
+    @Override
+    protected void free(int node) {
+        if (generation(node) == generation) {
+            super.free(node);
+            return;
+        }
+
+        // The durable tree may still point to the node
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = node;
+    }
+
+    @Override
+    protected ByteBuffer createChunk(int index, int bytes) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, PAGE + (long) index * bytes, bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map chunk " + index, e);
+        }
+    }
+
+    private int generation(int node) {
+        return chunk(node).getInt(offset(node) + GENERATION);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The tree is closed");
+        }
+    }
+}
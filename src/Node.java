@@ -11,6 +11,7 @@ public class Node<T extends Comparable<T>> {
     Node rightChild;
     T leftElement;
     T rightElement;
+    int count;          // Elements in the subtree of the node, kept up to date by Operations
 
     public Node() {
         this.leftChild = null;
@@ -18,6 +19,7 @@ public class Node<T extends Comparable<T>> {
         this.rightChild = null;
         this.leftElement = null;
         this.rightElement = null;
+        this.count = 0;
     }
 
     /**
@@ -29,6 +31,7 @@ public class Node<T extends Comparable<T>> {
         leftChild = null;
         middleChild = null;
         rightChild = null;
+        recount();
     }
 
     /**
@@ -39,6 +42,7 @@ public class Node<T extends Comparable<T>> {
         this.rightElement = rightElement;
         this.leftChild = leftChild;
         this.middleChild = middleChild;
+        recount();
     }
 
     public T getLeftElement() {
@@ -81,6 +85,21 @@ public class Node<T extends Comparable<T>> {
         return rightChild;
     }
 
+    /**
+     * @return number of elements in the subtree, 0 for null
+     */
+    static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Sets the count from the elements of the node and the counts of its descendants
+     */
+    void recount() {
+        count = (leftElement != null ? 1 : 0) + (rightElement != null ? 1 : 0)
+                + count(leftChild) + count(middleChild) + count(rightChild);
+    }
+
     /**
      * @return true, if we are at the deepest level of a tree, otherwise false
      */
@@ -165,6 +184,7 @@ public class Node<T extends Comparable<T>> {
             reBalance();
         }
 
+        recount();
         return max;
     }
 
@@ -198,115 +218,115 @@ public class Node<T extends Comparable<T>> {
             reBalance();
         }
 
+        recount();
         return min;
     }
 
     /**
-     * Method for maintaining balance by rebalancing the deepest level of the tree starting from the second deepest
+     * Method for maintaining balance: repairs the descendant that was left without elements (a hole),
+     * at any level of the tree. The hole keeps its only descendant on the left.
+     * If this node loses its last element meanwhile, it becomes the hole of its parent.
      */
     void reBalance() {
-
-        while (!isBalanced()) {
-
-            /* Imbalance in the left child  */
-            if (getLeftNode().getLeftElement() == null) {
-
-                // We put the left element of the current node as the left element of the left child
-                getLeftNode().setLeftElement(getLeftElement());
-
-                // Now we replace the left element of the middle descendant as the left element of the current node
-                setLeftElement((T) getMidNode().getLeftElement());
-
-                // If the right element on the middle child exists, we move it to the left
-                if (getMidNode().getRightElement() != null) {
-                    getMidNode().setLeftElement(getMidNode().getRightElement());
-                    getMidNode().setRightElement(null);
-                }
-
-                // Otherwise, we will make the middle descendant "empty", so the next iteration can resolve this situation,
-                // if not, then the critical case begins
-                else {
-                    getMidNode().setLeftElement(null);
-                }
+        if (TreeMetrics.ENABLED) TreeMetrics.probe().rebalances++;
+        int elements = rightElement == null ? 1 : 2;
+
+        for (int index = 0; index <= elements; index++) {
+            Node hole = getChild(index);
+            if (hole != null && hole.leftElement == null) {
+                fix(index, elements);
+                break;
             }
+        }
 
-            /* Imbalance in the right child */
-            else if (getMidNode().getLeftElement() == null) {
-
-                // Critical case, each node (child) of the deepest level
-                // has only one element, the algorithm will have to perform balancing from a higher tree level
-                if (getRightElement() == null) {
-
-                    if (getLeftNode().getLeftElement() != null && getLeftNode().getRightElement() == null && getMidNode().getLeftElement() == null) {
-                        setRightElement(getLeftElement());
-                        setLeftElement((T) getLeftNode().getLeftElement());
-
-                        // We delete current descendants
-                        setLeftNode(null);
-                        setMidNode(null);
-                        setRightNode(null);
-
-                    } else {
-                        getMidNode().setLeftElement(getLeftElement());
-                        if (getLeftNode().getRightElement() == null) {
-                            setLeftElement((T) getLeftNode().getLeftElement());
-                            getLeftNode().setLeftElement(null);
-
-                        } else {
-                            setLeftElement((T) getLeftNode().getRightElement());
-                            getLeftNode().setRightElement(null);
-                        }
-
-                        if (getLeftNode().getLeftElement() == null && getMidNode().getLeftElement() == null) {
-                            setLeftNode(null);
-                            setMidNode(null);
-                            setRightNode(null);
-                        }
-                    }
+        recount();
+    }
 
-                } else {
+    /**
+     * Borrows an element of a neighbour with two elements, otherwise merges the hole with a neighbour
+     */
+    private void fix(int index, int elements) {
+        Node hole = getChild(index);
+
+        // The left neighbour has two elements, its right element goes up and the separator goes down
+        if (index > 0 && getChild(index - 1).rightElement != null) {
+            Node left = getChild(index - 1);
+            hole.middleChild = hole.leftChild;
+            hole.leftChild = left.rightChild;
+            hole.leftElement = getElement(index - 1);
+            setElement(index - 1, (T) left.rightElement);
+            left.rightElement = null;
+            left.rightChild = null;
+            left.recount();
+        }
 
-                    // We put the right element of the current node as the left element of the middle child
-                    getMidNode().setLeftElement(getRightElement());
+        // The right neighbour has two elements, its left element goes up and the separator goes down
+        else if (index < elements && getChild(index + 1).rightElement != null) {
+            Node right = getChild(index + 1);
+            hole.leftElement = getElement(index);
+            hole.middleChild = right.leftChild;
+            setElement(index, (T) right.leftElement);
+            right.leftElement = right.rightElement;
+            right.rightElement = null;
+            right.leftChild = right.middleChild;
+            right.middleChild = right.rightChild;
+            right.rightChild = null;
+            right.recount();
+        }
 
-                    // We put the left element of the right child as the right element of the current node
-                    setRightElement((T) getRightNode().getLeftElement());
+        // Both neighbours have one element: the hole and the separator are merged into the left neighbour
+        else if (index > 0) {
+            Node left = getChild(index - 1);
+            left.rightElement = getElement(index - 1);
+            left.rightChild = hole.leftChild;
+            left.recount();
+            removeChild(index);
+            return;
+        }
 
-                    // If the right child in which we took the last element
-                    // has the right element, we move it to the left of the same child element.
-                    if (getRightNode().getRightElement() != null) {
-                        getRightNode().setLeftElement(getRightNode().getRightElement());
-                        getRightNode().setRightElement(null);
+        // The hole is the leftmost descendant, the separator and the right neighbour are merged into it
+        else {
+            Node right = middleChild;
+            hole.leftElement = leftElement;
+            hole.rightElement = right.leftElement;
+            hole.middleChild = right.leftChild;
+            hole.rightChild = right.middleChild;
+            removeChild(1);
+        }
 
-                    }
+        hole.recount();
+    }
 
-                    // Otherwise, we will make the right child "empty"
-                    else {
-                        getRightNode().setLeftElement(null);
-                    }
-                }
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private void removeChild(int index) {
+        if (rightElement != null) {
+            if (index == 1) {
+                leftElement = rightElement;
+                middleChild = rightChild;
             }
+            rightElement = null;
+            rightChild = null;
+        } else {
+            leftElement = null;
+            middleChild = null;
+        }
+    }
 
-            /* Imbalance on the right */
-            else if (getRightElement() != null && getRightNode().getLeftElement() == null) {
-
-                // *** Situation 1 ***
-                // The middle child exists, so we shift the elements to the right
-                if (getMidNode().getRightElement() != null) {
-                    getRightNode().setLeftElement(getRightElement());
-                    setRightElement((T) getMidNode().getRightElement());
-                    getMidNode().setRightElement(null);
+    private Node getChild(int index) {
+        return index == 0 ? leftChild : index == 1 ? middleChild : rightChild;
+    }
 
-                }
+    private T getElement(int index) {
+        return index == 0 ? leftElement : rightElement;
+    }
 
-                // *** Situation 2 ***
-                // The middle child has only the left element,
-                // then we need to put the right element of the current node as the right element of the middle child.
-                else {
-                    getMidNode().setRightElement(getRightElement());
-                    setRightElement(null);
-                }
-            }
+    private void setElement(int index, T element) {
+        if (index == 0) {
+            leftElement = element;
+        } else {
+            rightElement = element;
         }
     }
 }
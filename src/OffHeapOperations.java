@@ -0,0 +1,803 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * 2-3-tree of fixed-width keys kept outside of the Java heap.
+ * Nodes live in direct byte buffers allocated in chunks, so the garbage collector
+ * sees a handful of buffer objects no matter how many elements the tree holds.
+ * The tree allocates and frees its nodes itself, freed nodes are reused through a free list.
+ * <p>
+ * Keys are compared as unsigned bytes, from the first to the last one.
+ * int and long keys are stored big-endian with the sign bit flipped,
+ * so this order matches their numeric order and they are compared as single words.
+ * <p>
+ * Layout of a node: number of elements (0, 1 or 2), left, middle and right descendant
+ * as int identifiers (0 means none), then the left and the right key.
+ * Subclasses may reserve bytes of their own between the descendants and the keys,
+ * supply the memory of the chunks and copy nodes before they are changed.
+ */
+public class OffHeapOperations {
+
+    protected static final int NONE = 0;                // Identifier 0 is never used
+
+    private static final int ELEMENTS = 0;
+    private static final int LEFT_CHILD = 4;
+    private static final int MIDDLE_CHILD = 8;
+    private static final int RIGHT_CHILD = 12;
+    protected static final int HEADER = 16;             // Bytes before the keys or the reserved bytes of a subclass
+
+    private static final int MAX_CHUNK_SHIFT = 16;      // At most 65536 nodes per chunk
+    private static final int MAX_CHUNK_BYTES = 1 << 30; // Chunks of wide keys hold fewer nodes, a buffer is indexed by int
+
+    private final int keyWidth;
+    private final int keys;         // Offset of the keys inside a node
+    protected final int nodeSize;
+    protected final int chunkShift; // Nodes per chunk as a power of two, as many as fit into MAX_CHUNK_BYTES
+    private final int chunkMask;
+    private ByteBuffer[] chunks;
+
+    protected int allocated;        // Highest identifier handed out so far
+    protected int free;             // Head of the free list, linked through the left descendants
+
+    protected int root;             // Tree root
+    protected int size;             // The number of tree elements
+    private boolean added;          // Tracks if the last element was added or was already in the tree
+    private int splitNode;          // Right half of the last split node
+
+    private byte[] probe;           // Key of the current operation
+    private long probeBits;         // The same key as a number, for 4 and 8 byte keys
+    private byte[] splitKey;        // Key going up after the last split
+    private byte[] spareKey;        // Buffer for the next key going up
+
+    /**
+     * @param keyWidth - number of bytes in every key
+     */
+    public OffHeapOperations(int keyWidth) {
+        this(keyWidth, 0);
+    }
+
+    /**
+     * @param keyWidth - number of bytes in every key
+     * @param reserved - number of bytes reserved for the subclass in every node, starting at HEADER
+     */
+    protected OffHeapOperations(int keyWidth, int reserved) {
+        if (keyWidth <= 0) {
+            throw new IllegalArgumentException("Key width must be positive: " + keyWidth);
+        }
+        if (keyWidth > (MAX_CHUNK_BYTES - HEADER - reserved) / 2) {
+            throw new IllegalArgumentException("Key width must leave room for two keys in " + MAX_CHUNK_BYTES + " bytes: " + keyWidth);
+        }
+
+        this.keyWidth = keyWidth;
+        this.keys = HEADER + reserved;
+        this.nodeSize = (keys + 2 * keyWidth + 7) & ~7;
+        this.chunkShift = Math.min(MAX_CHUNK_SHIFT, 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / nodeSize));
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.chunks = new ByteBuffer[1];
+        this.probe = new byte[keyWidth];
+        this.splitKey = new byte[keyWidth];
+        this.spareKey = new byte[keyWidth];
+        this.root = NONE;
+        this.size = 0;
+    }
+
+    /**
+     * @return tree of int keys
+     */
+    public static OffHeapOperations forInts() {
+        return new OffHeapOperations(Integer.BYTES);
+    }
+
+    /**
+     * @return tree of long keys
+     */
+    public static OffHeapOperations forLongs() {
+        return new OffHeapOperations(Long.BYTES);
+    }
+
+    /**
+     * @param keyWidth - number of bytes in every key
+     * @return tree of byte[] keys of the given length
+     */
+    public static OffHeapOperations forBytes(int keyWidth) {
+        return new OffHeapOperations(keyWidth);
+    }
+
+    /**
+     * @return number of bytes in every key
+     */
+    public int keyWidth() {
+        return keyWidth;
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return root == NONE;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method for removing all elements from a tree, the allocated memory is kept for reuse
+     */
+    public void clear() {
+        this.allocated = 0;
+        this.free = NONE;
+        this.root = NONE;
+        this.size = 0;
+    }
+
+    /**
+     * Drops all elements together with the memory, which is returned once the buffers are collected
+     */
+    public void release() {
+        clear();
+        this.chunks = new ByteBuffer[1];
+    }
+
+    public boolean contains(int key) {
+        setProbe(key);
+        return searchProbe();
+    }
+
+    public boolean contains(long key) {
+        setProbe(key);
+        return searchProbe();
+    }
+
+    /**
+     * Check if the given key is in the tree
+     *
+     * @param key the key to check, keyWidth bytes
+     * @return true, if the key is found, otherwise false
+     */
+    public boolean contains(byte[] key) {
+        setProbe(key);
+        return searchProbe();
+    }
+
+    public void add(int key) {
+        setProbe(key);
+        addProbe();
+    }
+
+    public void add(long key) {
+        setProbe(key);
+        addProbe();
+    }
+
+    /**
+     * Adds a new key to the tree, keeping it balanced
+     *
+     * @param key - key to add, keyWidth bytes
+     */
+    public void add(byte[] key) {
+        setProbe(key);
+        addProbe();
+    }
+
+    public boolean remove(int key) {
+        setProbe(key);
+        return removeProbe();
+    }
+
+    public boolean remove(long key) {
+        setProbe(key);
+        return removeProbe();
+    }
+
+    /**
+     * Method for removing a key from the tree
+     *
+     * @param key - key to remove, keyWidth bytes
+     * @return true, if the key was removed, otherwise false
+     */
+    public boolean remove(byte[] key) {
+        setProbe(key);
+        return removeProbe();
+    }
+
+    /**
+     * Method for finding the minimum key
+     *
+     * @return copy of the minimum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public byte[] findMin() {
+        byte[] key = new byte[keyWidth];
+        readKey(minNode(), 0, key);
+        return key;
+    }
+
+    /**
+     * Method for finding the maximum key
+     *
+     * @return copy of the maximum key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public byte[] findMax() {
+        int node = maxNode();
+        byte[] key = new byte[keyWidth];
+        readKey(node, elements(node) - 1, key);
+        return key;
+    }
+
+    public int findMinInt() {
+        checkWidth(Integer.BYTES);
+        int node = minNode();
+        return chunk(node).getInt(keyOffset(node, 0)) ^ Integer.MIN_VALUE;
+    }
+
+    public int findMaxInt() {
+        checkWidth(Integer.BYTES);
+        int node = maxNode();
+        return chunk(node).getInt(keyOffset(node, elements(node) - 1)) ^ Integer.MIN_VALUE;
+    }
+
+    public long findMinLong() {
+        checkWidth(Long.BYTES);
+        int node = minNode();
+        return chunk(node).getLong(keyOffset(node, 0)) ^ Long.MIN_VALUE;
+    }
+
+    public long findMaxLong() {
+        checkWidth(Long.BYTES);
+        int node = maxNode();
+        return chunk(node).getLong(keyOffset(node, elements(node) - 1)) ^ Long.MIN_VALUE;
+    }
+
+    private int minNode() {
+        if (root == NONE) throw new NoSuchElementException("The tree is empty");
+
+        int current = root;
+        while (!isLeaf(current)) {
+            current = child(current, 0);
+        }
+        return current;
+    }
+
+    private int maxNode() {
+        if (root == NONE) throw new NoSuchElementException("The tree is empty");
+
+        int current = root;
+        while (!isLeaf(current)) {
+            current = child(current, elements(current));
+        }
+        return current;
+    }
+
+    private boolean searchProbe() {
+        int current = root;
+
+        while (current != NONE) {
+            int order = compareProbe(current, 0);
+
+            if (order < 0) {
+                current = child(current, 0);
+            } else if (order == 0) {
+                return true;
+            } else if (elements(current) == 1) {
+                current = child(current, 1);
+            } else {
+                order = compareProbe(current, 1);
+
+                if (order < 0) {
+                    current = child(current, 1);
+                } else if (order == 0) {
+                    return true;
+                } else {
+                    current = child(current, 2);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void addProbe() {
+        if (root == NONE) {
+            root = allocate();
+            writeKey(root, 0, probe);
+            setElements(root, 1);
+            size = 1;
+            return;
+        }
+
+        added = false;
+        root = writable(root);
+
+        // The root was split, the tree grows by one level
+        if (addProbe(root)) {
+            int newRoot = allocate();
+            writeKey(newRoot, 0, splitKey);
+            setElements(newRoot, 1);
+            setChild(newRoot, 0, root);
+            setChild(newRoot, 1, splitNode);
+            root = newRoot;
+        }
+
+        if (added) size++;
+    }
+
+    /**
+     * @return true, if the node was split, then splitKey and splitNode have to be put into the parent
+     */
+    private boolean addProbe(int current) {
+        int order = compareProbe(current, 0);
+        int rightOrder = elements(current) == 1 || order <= 0 ? -1 : compareProbe(current, 1);
+
+        // Key already exists
+        if (order == 0 || rightOrder == 0) {
+            return false;
+        }
+
+        if (isLeaf(current)) {
+            added = true;
+            return put(current, probe, NONE);
+        }
+
+        int child = writableChild(current, order < 0 ? 0 : rightOrder < 0 ? 1 : 2);
+        if (!addProbe(child)) {
+            return false;
+        }
+
+        return put(current, splitKey, splitNode);
+    }
+
+    /**
+     * Puts a key into the node, right is the subtree following the key (NONE in the leaves).
+     * A node with two keys is split: it keeps the smallest key, the middle one goes up.
+     *
+     * @return true, if the node was split
+     */
+    private boolean put(int current, byte[] key, int right) {
+        if (elements(current) == 1) {
+            if (compare(key, current, 0) < 0) {
+                copyKey(current, 0, current, 1);
+                writeKey(current, 0, key);
+                setChild(current, 2, child(current, 1));
+                setChild(current, 1, right);
+            } else {
+                writeKey(current, 1, key);
+                setChild(current, 2, right);
+            }
+            setElements(current, 2);
+            return false;
+        }
+
+        int sibling = allocate();
+        byte[] up = spareKey;
+
+        if (compare(key, current, 0) < 0) {
+            readKey(current, 0, up);
+            copyKey(current, 1, sibling, 0);
+            setChild(sibling, 0, child(current, 1));
+            setChild(sibling, 1, child(current, 2));
+            writeKey(current, 0, key);
+            setChild(current, 1, right);
+
+        } else if (compare(key, current, 1) < 0) {
+            System.arraycopy(key, 0, up, 0, keyWidth);
+            copyKey(current, 1, sibling, 0);
+            setChild(sibling, 0, right);
+            setChild(sibling, 1, child(current, 2));
+
+        } else {
+            readKey(current, 1, up);
+            writeKey(sibling, 0, key);
+            setChild(sibling, 0, child(current, 2));
+            setChild(sibling, 1, right);
+        }
+
+        setElements(sibling, 1);
+        setElements(current, 1);
+        setChild(current, 2, NONE);
+
+        // The key that went up is in the spare buffer now, the old one can be reused
+        spareKey = splitKey;
+        splitKey = up;
+        splitNode = sibling;
+        return true;
+    }
+
+    private boolean removeProbe() {
+        if (root == NONE) {
+            return false;
+        }
+
+        root = writable(root);
+        if (!removeProbe(root)) {
+            return false;
+        }
+
+        // The root lost its last key, the tree shrinks by one level
+        if (elements(root) == 0) {
+            int empty = root;
+            root = child(root, 0);
+            free(empty);
+        }
+
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes the probe from the subtree. A node left without keys is repaired by its parent.
+     *
+     * @return true, if the key was removed, otherwise false
+     */
+    private boolean removeProbe(int current) {
+        int elements = elements(current);
+        int order = compareProbe(current, 0);
+        int rightOrder = elements == 1 || order <= 0 ? -1 : compareProbe(current, 1);
+
+        if (isLeaf(current)) {
+            if (order == 0) {
+                if (elements == 2) copyKey(current, 1, current, 0);
+                setElements(current, elements - 1);
+                return true;
+            }
+            if (rightOrder == 0) {
+                setElements(current, 1);
+                return true;
+            }
+            return false;
+        }
+
+        int index;
+
+        // A key of an inner node is replaced by its predecessor, which is then removed from the leaf
+        if (order < 0) {
+            index = 0;
+        } else if (order == 0) {
+            index = 0;
+            replaceWithPredecessor(current, 0);
+        } else if (rightOrder < 0) {
+            index = 1;
+        } else if (rightOrder == 0) {
+            index = 1;
+            replaceWithPredecessor(current, 1);
+        } else {
+            index = 2;
+        }
+
+        int child = writableChild(current, index);
+        if (!removeProbe(child)) {
+            return false;
+        }
+
+        if (elements(child) == 0) {
+            fix(current, index);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the maximum key of the descendant into the given slot of the node and makes it the probe
+     */
+    private void replaceWithPredecessor(int current, int slot) {
+        int node = child(current, slot);
+        while (!isLeaf(node)) {
+            node = child(node, elements(node));
+        }
+
+        copyKey(node, elements(node) - 1, current, slot);
+        readKey(current, slot, probe);
+        probeBits = bits(probe);
+    }
+
+    /**
+     * Repairs the descendant that was left without keys, either by borrowing a key
+     * of a neighbour with two keys or by merging with a neighbour with one key.
+     * A merge takes a key from the current node, which may in turn be left empty.
+     */
+    private void fix(int current, int index) {
+        int hole = child(current, index);
+        int elements = elements(current);
+
+        if (index > 0 && elements(child(current, index - 1)) == 2) {
+            int left = writableChild(current, index - 1);
+            setChild(hole, 1, child(hole, 0));
+            setChild(hole, 0, child(left, 2));
+            copyKey(current, index - 1, hole, 0);
+            copyKey(left, 1, current, index - 1);
+            setChild(left, 2, NONE);
+            setElements(left, 1);
+            setElements(hole, 1);
+
+        } else if (index < elements && elements(child(current, index + 1)) == 2) {
+            int right = writableChild(current, index + 1);
+            copyKey(current, index, hole, 0);
+            setChild(hole, 1, child(right, 0));
+            copyKey(right, 0, current, index);
+            copyKey(right, 1, right, 0);
+            setChild(right, 0, child(right, 1));
+            setChild(right, 1, child(right, 2));
+            setChild(right, 2, NONE);
+            setElements(right, 1);
+            setElements(hole, 1);
+
+        } else if (index > 0) {
+            int left = writableChild(current, index - 1);
+            copyKey(current, index - 1, left, 1);
+            setChild(left, 2, child(hole, 0));
+            setElements(left, 2);
+            removeChild(current, index);
+            free(hole);
+
+        } else {
+            int right = child(current, 1);
+            copyKey(current, 0, hole, 0);
+            copyKey(right, 0, hole, 1);
+            setChild(hole, 1, child(right, 0));
+            setChild(hole, 2, child(right, 1));
+            setElements(hole, 2);
+            removeChild(current, 1);
+            free(right);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the key before it
+     */
+    private void removeChild(int current, int index) {
+        if (elements(current) == 2) {
+            if (index == 1) {
+                copyKey(current, 1, current, 0);
+                setChild(current, 1, child(current, 2));
+            }
+            setChild(current, 2, NONE);
+            setElements(current, 1);
+        } else {
+            setChild(current, 1, NONE);
+            setElements(current, 0);
+        }
+    }
+
+    /* Memory management */
+
+    /**
+     * Called before a node is changed. The node itself is changed by default,
+     * a subclass may return a copy instead, which is then linked in place of the node.
+     *
+     * @return identifier of the node to change
+     */
+    protected int writable(int node) {
+        return node;
+    }
+
+    /**
+     * @return descendant with the given index, ready to be changed
+     */
+    private int writableChild(int current, int index) {
+        int child = child(current, index);
+        int copy = writable(child);
+        if (copy != child) {
+            setChild(current, index, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * @return identifier of a node without keys and descendants, taken from the free list if possible
+     */
+    protected int allocate() {
+        int node;
+
+        if (free != NONE) {
+            node = free;
+            free = child(node, 0);
+        } else {
+            node = ++allocated;
+            if (node < 0) {
+                throw new IllegalStateException("The tree cannot hold more nodes");
+            }
+
+            ensureChunk(node >>> chunkShift);
+        }
+
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node);
+        chunk.putInt(offset + ELEMENTS, 0);
+        chunk.putInt(offset + LEFT_CHILD, NONE);
+        chunk.putInt(offset + MIDDLE_CHILD, NONE);
+        chunk.putInt(offset + RIGHT_CHILD, NONE);
+        return node;
+    }
+
+    /**
+     * Makes sure the chunk with the given index exists
+     */
+    protected void ensureChunk(int index) {
+        if (index >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length * 2));
+        }
+        if (chunks[index] == null) {
+            chunks[index] = createChunk(index, nodeSize << chunkShift);
+        }
+    }
+
+    /**
+     * @param index - index of the chunk
+     * @param bytes - size of the chunk
+     * @return memory for the nodes of the chunk
+     */
+    protected ByteBuffer createChunk(int index, int bytes) {
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    /**
+     * @return chunks created so far, some of them may be null
+     */
+    protected ByteBuffer[] chunks() {
+        return chunks;
+    }
+
+    /**
+     * Puts the node on the free list
+     */
+    protected void free(int node) {
+        setElements(node, 0);
+        setChild(node, 0, free);
+        free = node;
+    }
+
+    /* Access to the nodes */
+
+    protected final ByteBuffer chunk(int node) {
+        return chunks[node >>> chunkShift];
+    }
+
+    protected final int offset(int node) {
+        return (node & chunkMask) * nodeSize;
+    }
+
+    private int keyOffset(int node, int slot) {
+        return offset(node) + keys + slot * keyWidth;
+    }
+
+    protected final int elements(int node) {
+        return chunk(node).getInt(offset(node) + ELEMENTS);
+    }
+
+    private void setElements(int node, int elements) {
+        chunk(node).putInt(offset(node) + ELEMENTS, elements);
+    }
+
+    private boolean isLeaf(int node) {
+        return child(node, 0) == NONE;
+    }
+
+    protected final int child(int node, int index) {
+        return chunk(node).getInt(offset(node) + LEFT_CHILD + 4 * index);
+    }
+
+    private void setChild(int node, int index, int child) {
+        chunk(node).putInt(offset(node) + LEFT_CHILD + 4 * index, child);
+    }
+
+    private void readKey(int node, int slot, byte[] target) {
+        ByteBuffer chunk = chunk(node);
+        int offset = keyOffset(node, slot);
+        for (int i = 0; i < keyWidth; i++) {
+            target[i] = chunk.get(offset + i);
+        }
+    }
+
+    private void writeKey(int node, int slot, byte[] key) {
+        ByteBuffer chunk = chunk(node);
+        int offset = keyOffset(node, slot);
+        for (int i = 0; i < keyWidth; i++) {
+            chunk.put(offset + i, key[i]);
+        }
+    }
+
+    private void copyKey(int fromNode, int fromSlot, int toNode, int toSlot) {
+        ByteBuffer from = chunk(fromNode);
+        ByteBuffer to = chunk(toNode);
+        int source = keyOffset(fromNode, fromSlot);
+        int target = keyOffset(toNode, toSlot);
+
+        if (keyWidth == Long.BYTES) {
+            to.putLong(target, from.getLong(source));
+            return;
+        }
+        if (keyWidth == Integer.BYTES) {
+            to.putInt(target, from.getInt(source));
+            return;
+        }
+
+        for (int i = 0; i < keyWidth; i++) {
+            to.put(target + i, from.get(source + i));
+        }
+    }
+
+    /* Keys */
+
+    private void setProbe(int key) {
+        if (keyWidth == Long.BYTES) {
+            setProbe((long) key);
+            return;
+        }
+
+        checkWidth(Integer.BYTES);
+        int bits = key ^ Integer.MIN_VALUE;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            probe[i] = (byte) (bits >>> (24 - 8 * i));
+        }
+        probeBits = bits;
+    }
+
+    private void setProbe(long key) {
+        checkWidth(Long.BYTES);
+        long bits = key ^ Long.MIN_VALUE;
+        for (int i = 0; i < Long.BYTES; i++) {
+            probe[i] = (byte) (bits >>> (56 - 8 * i));
+        }
+        probeBits = bits;
+    }
+
+    private void setProbe(byte[] key) {
+        if (key.length != keyWidth) {
+            throw new IllegalArgumentException("Key must have " + keyWidth + " bytes: " + key.length);
+        }
+        System.arraycopy(key, 0, probe, 0, keyWidth);
+        probeBits = bits(probe);
+    }
+
+    private void checkWidth(int width) {
+        if (keyWidth != width) {
+            throw new IllegalArgumentException("The tree holds keys of " + keyWidth + " bytes");
+        }
+    }
+
+    /**
+     * @return first bytes of the key as an unsigned big-endian number
+     */
+    private long bits(byte[] key) {
+        long bits = 0;
+        for (int i = 0; i < Math.min(keyWidth, Long.BYTES); i++) {
+            bits = bits << 8 | (key[i] & 0xFF);
+        }
+        return bits;
+    }
+
+    /**
+     * Compares the probe with a key of the node, as a single word for 4 and 8 byte keys
+     */
+    private int compareProbe(int node, int slot) {
+        if (keyWidth == Long.BYTES) {
+            return Long.compareUnsigned(probeBits, chunk(node).getLong(keyOffset(node, slot)));
+        }
+        if (keyWidth == Integer.BYTES) {
+            return Integer.compareUnsigned((int) probeBits, chunk(node).getInt(keyOffset(node, slot)));
+        }
+        return compare(probe, node, slot);
+    }
+
+    private int compare(byte[] key, int node, int slot) {
+        ByteBuffer chunk = chunk(node);
+        int offset = keyOffset(node, slot);
+
+        if (keyWidth == Long.BYTES) {
+            return Long.compareUnsigned(bits(key), chunk.getLong(offset));
+        }
+        if (keyWidth == Integer.BYTES) {
+            return Integer.compareUnsigned((int) bits(key), chunk.getInt(offset));
+        }
+
+        for (int i = 0; i < keyWidth; i++) {
+            int order = (key[i] & 0xFF) - (chunk.get(offset + i) & 0xFF);
+            if (order != 0) return order;
+        }
+        return 0;
+    }
+}
@@ -1,23 +1,345 @@
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Implements the "2-3-tree" data structure.
  * The structure stores elements in the form of a tree, but balanced.
  *
  * @author Syniuk Valentyn
  */
-public class Operations<T extends Comparable<T>> {
+public class Operations<T extends Comparable<T>> implements Iterable<T> {
 
     private static final int ROOT_IS_BIGGER = 1;
     private static final int ROOT_IS_SMALLER = -1;
 
+    static final double DEFAULT_FILL_FACTOR = 0.5;          // Half of the bulk loaded nodes are 3 nodes
+    private static final int REBUILD_RATIO = 2;             // A batch of at least size / 2 elements rebuilds the tree
+
+    private final Comparator<? super T> comparator; // Order of the elements, null for their natural ordering
+
     private Node root;      // Tree root
     private int size;       // The number of tree elements
     private boolean flag;   // Tracks if the last element was added correctly or not.
+    private int modCount;   // Number of changes, lets the iterators fail fast
 
     Operations() {
+        this((Comparator<? super T>) null);
+    }
+
+    /**
+     * @param comparator - order of the elements, null for their natural ordering
+     */
+    Operations(Comparator<? super T> comparator) {
+        this.comparator = comparator;
         this.root = new Node();
         this.size = 0;
     }
 
+    /**
+     * Builds a balanced tree from sorted elements bottom-up in a single linear pass
+     *
+     * @param sorted - elements in ascending order, equal neighbours are stored once
+     * @throws IllegalArgumentException if the elements are not sorted
+     */
+    Operations(T[] sorted) {
+        this(sorted, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * @param sorted     - elements in ascending order, equal neighbours are stored once
+     * @param fillFactor - share of the nodes that are built as 3 nodes, from 0.0 (only 2 nodes) to 1.0 (only 3 nodes)
+     * @throws IllegalArgumentException if the elements are not sorted or the fill factor is out of range
+     */
+    Operations(T[] sorted, double fillFactor) {
+        this(sorted, fillFactor, null);
+    }
+
+    /**
+     * @param sorted     - elements in the order of the comparator, equal neighbours are stored once
+     * @param fillFactor - share of the nodes that are built as 3 nodes, from 0.0 (only 2 nodes) to 1.0 (only 3 nodes)
+     * @param comparator - order of the elements, null for their natural ordering
+     * @throws IllegalArgumentException if the elements are not sorted or the fill factor is out of range
+     */
+    Operations(T[] sorted, double fillFactor, Comparator<? super T> comparator) {
+        checkFillFactor(fillFactor);
+        this.comparator = comparator;
+
+        int n = sorted.length;
+        Comparable[] elements = sorted;
+
+        // Copy only if equal neighbours have to be dropped
+        for (int i = 1; i < sorted.length; i++) {
+            if (checkOrder(sorted[i - 1], sorted[i]) == 0) {
+                elements = new Comparable[sorted.length];
+                n = distinct(sorted, elements);
+                break;
+            }
+        }
+
+        build(elements, n, fillFactor);
+    }
+
+    /**
+     * @param sorted - iterator over elements in ascending order, equal neighbours are stored once
+     * @throws IllegalArgumentException if the elements are not sorted
+     */
+    Operations(Iterator<T> sorted) {
+        this(sorted, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * @param sorted     - iterator over elements in ascending order, equal neighbours are stored once
+     * @param fillFactor - share of the nodes that are built as 3 nodes, from 0.0 (only 2 nodes) to 1.0 (only 3 nodes)
+     * @throws IllegalArgumentException if the elements are not sorted or the fill factor is out of range
+     */
+    Operations(Iterator<T> sorted, double fillFactor) {
+        this(sorted, fillFactor, null);
+    }
+
+    /**
+     * @param sorted     - iterator over elements in the order of the comparator, equal neighbours are stored once
+     * @param fillFactor - share of the nodes that are built as 3 nodes, from 0.0 (only 2 nodes) to 1.0 (only 3 nodes)
+     * @param comparator - order of the elements, null for their natural ordering
+     * @throws IllegalArgumentException if the elements are not sorted or the fill factor is out of range
+     */
+    Operations(Iterator<T> sorted, double fillFactor, Comparator<? super T> comparator) {
+        checkFillFactor(fillFactor);
+        this.comparator = comparator;
+
+        ArrayList<T> elements = new ArrayList<>();
+        T previous = null;
+
+        while (sorted.hasNext()) {
+            T element = sorted.next();
+            if (previous == null || checkOrder(previous, element) != 0) {
+                elements.add(element);
+                previous = element;
+            }
+        }
+
+        build(elements.toArray(new Comparable[0]), elements.size(), fillFactor);
+    }
+
+    /**
+     * @param sorted - stream of elements in ascending order, equal neighbours are stored once
+     * @throws IllegalArgumentException if the elements are not sorted
+     */
+    Operations(Stream<T> sorted) {
+        this(sorted.iterator(), DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * @param sorted     - stream of elements in ascending order, equal neighbours are stored once
+     * @param fillFactor - share of the nodes that are built as 3 nodes, from 0.0 (only 2 nodes) to 1.0 (only 3 nodes)
+     * @throws IllegalArgumentException if the elements are not sorted or the fill factor is out of range
+     */
+    Operations(Stream<T> sorted, double fillFactor) {
+        this(sorted.iterator(), fillFactor);
+    }
+
+    /**
+     * @param sorted     - stream of elements in the order of the comparator, equal neighbours are stored once
+     * @param fillFactor - share of the nodes that are built as 3 nodes, from 0.0 (only 2 nodes) to 1.0 (only 3 nodes)
+     * @param comparator - order of the elements, null for their natural ordering
+     * @throws IllegalArgumentException if the elements are not sorted or the fill factor is out of range
+     */
+    Operations(Stream<T> sorted, double fillFactor, Comparator<? super T> comparator) {
+        this(sorted.iterator(), fillFactor, comparator);
+    }
+
+    private static void checkFillFactor(double fillFactor) {
+        if (!(fillFactor >= 0.0 && fillFactor <= 1.0)) {
+            throw new IllegalArgumentException("Fill factor must be between 0.0 and 1.0: " + fillFactor);
+        }
+    }
+
+    /**
+     * All comparisons of the tree go through here, so they can be counted.
+     * The counting is compiled away unless the metrics are enabled, see {@link TreeMetrics#ENABLED}.
+     *
+     * @return ROOT_IS_SMALLER, 0 or ROOT_IS_BIGGER, whatever the magnitude returned by compareTo or the comparator
+     */
+    private int compare(T a, T b) {
+        if (TreeMetrics.ENABLED) TreeMetrics.probe().comparisons++;
+        return Integer.signum(comparator == null ? a.compareTo(b) : comparator.compare(a, b));
+    }
+
+    /**
+     * @return order of the elements, null for their natural ordering
+     */
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    /**
+     * @return result of comparing two neighbouring elements of the sorted input
+     * @throws IllegalArgumentException if the previous element is bigger
+     */
+    private int checkOrder(T previous, T element) {
+        int order = compare(previous, element);
+        if (order > 0) {
+            throw new IllegalArgumentException("Elements are not sorted: " + previous + " comes before " + element);
+        }
+        return order;
+    }
+
+    /**
+     * Copies sorted elements without equal neighbours
+     *
+     * @return number of copied elements
+     */
+    private int distinct(T[] sorted, Comparable[] target) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || checkOrder(sorted[i - 1], sorted[i]) != 0) {
+                target[n++] = sorted[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Builds the tree level by level, starting from the leaves.
+     * Every element is touched once, so the whole build takes O(n).
+     *
+     * @param elements   - distinct elements in ascending order
+     * @param n          - number of elements to take from the array
+     * @param fillFactor - share of the nodes that are built as 3 nodes
+     */
+    private void build(Comparable[] elements, int n, double fillFactor) {
+        if (n == 0) {
+            this.root = new Node();
+            this.size = 0;
+            return;
+        }
+
+        Level level = leaves(elements, 0, n, fillFactor);
+
+        // Every pass puts a new level of parents above the previous one
+        while (level.nodes.length > 1) {
+            level = parents(level, fillFactor);
+        }
+
+        this.root = level.nodes[0];
+        this.size = n;
+    }
+
+    /**
+     * One level of the tree under construction: the nodes from left to right
+     * and the elements separating them, which will go up to the parents.
+     */
+    private static class Level {
+        final Node[] nodes;
+        final Comparable[] separators;
+
+        Level(int nodes) {
+            this.nodes = new Node[nodes];
+            this.separators = new Comparable[nodes - 1];
+        }
+    }
+
+    /**
+     * Distributes sorted elements between leaves.
+     * A tree with L leaves keeps L - 1 elements above them, so n = (elements in leaves) + L - 1.
+     */
+    private static Level leaves(Comparable[] elements, int from, int to, double fillFactor) {
+        int n = to - from;
+
+        // Between (n + 1) / 3 leaves with 2 elements each and (n + 1) / 2 leaves with 1 element each
+        int count = clamp((int) Math.ceil((n + 1) / (2 + fillFactor)), (n + 3) / 3, (n + 1) / 2);
+        int threeNodes = n + 1 - 2 * count;
+
+        Level level = new Level(count);
+        int position = from;
+
+        for (int i = 0; i < count; i++) {
+            if (isThreeNode(i, threeNodes, count)) {
+                level.nodes[i] = new Node(elements[position], elements[position + 1]);
+                position += 2;
+            } else {
+                level.nodes[i] = new Node(elements[position], null);
+                position += 1;
+            }
+
+            if (i < count - 1) {
+                level.separators[i] = elements[position++];
+            }
+        }
+
+        return level;
+    }
+
+    /**
+     * Groups the nodes of a level under parents with two or three descendants each.
+     */
+    private static Level parents(Level children, double fillFactor) {
+        int m = children.nodes.length;
+
+        // Between m / 3 parents with 3 descendants and m / 2 parents with 2 descendants
+        int count = clamp((int) Math.ceil(m / (2 + fillFactor)), (m + 2) / 3, m / 2);
+        int threeNodes = m - 2 * count;
+
+        Level level = new Level(count);
+        int child = 0;
+        int separator = 0;
+
+        for (int i = 0; i < count; i++) {
+            Node parent;
+
+            if (isThreeNode(i, threeNodes, count)) {
+                parent = new Node(children.separators[separator], children.separators[separator + 1],
+                        children.nodes[child], children.nodes[child + 1]);
+                parent.rightChild = children.nodes[child + 2];
+                parent.recount();
+                separator += 2;
+                child += 3;
+            } else {
+                parent = new Node(children.separators[separator], null, children.nodes[child], children.nodes[child + 1]);
+                separator += 1;
+                child += 2;
+            }
+
+            level.nodes[i] = parent;
+
+            if (i < count - 1) {
+                level.separators[i] = children.separators[separator++];
+            }
+        }
+
+        return level;
+    }
+
+    /**
+     * Spreads the 3 nodes evenly over the level instead of packing them to the left
+     */
+    private static boolean isThreeNode(int index, int threeNodes, int count) {
+        return (long) (index + 1) * threeNodes / count > (long) index * threeNodes / count;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return tree root, used by the benchmarks to reach the nodes directly
+     */
+    Node getRoot() {
+        return root;
+    }
+
     /**
      * @return true, the tree is empty, otherwise false
      */
@@ -43,6 +365,105 @@ public class Operations<T extends Comparable<T>> {
         return size;
     }
 
+    /**
+     * @return number of levels, 0 for the empty tree; all leaves are at the same depth, so the left edge is enough
+     */
+    public int height() {
+        int height = 0;
+        for (Node current = root; current != null && current.leftElement != null; current = current.leftChild) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Collects the shape of the tree in one walk over all nodes, O(n).
+     * It is a diagnostic, not a counter to poll: size() and height() are cheap,
+     * and {@link TreeMetrics} serves a collected shape for a while instead of walking the tree on every read.
+     *
+     * @return height, nodes, fill ratio and memory estimate, in total and per level
+     */
+    public TreeStats stats() {
+        int height = height();
+        int[] nodes = new int[height];
+        int[] threeNodes = new int[height];
+        if (height > 0) stats(root, 0, nodes, threeNodes);
+        return new TreeStats(size, nodes, threeNodes);
+    }
+
+    private static void stats(Node current, int level, int[] nodes, int[] threeNodes) {
+        nodes[level]++;
+        if (current.rightElement != null) threeNodes[level]++;
+        if (current.leftChild == null) return;
+
+        stats(current.leftChild, level + 1, nodes, threeNodes);
+        stats(current.middleChild, level + 1, nodes, threeNodes);
+        if (current.rightChild != null) stats(current.rightChild, level + 1, nodes, threeNodes);
+    }
+
+    /**
+     * Checks every invariant of the tree in one walk over all nodes, O(n): each node has one or two elements
+     * in ascending order and two or three descendants or none, the elements of every subtree lie between
+     * the elements around it, all leaves are at the same depth, the subtree counts are right and the tree holds size elements
+     *
+     * @throws IllegalStateException naming the first broken invariant found
+     */
+    public void validate() {
+        if (root == null || root.leftElement == null) {
+            if (root != null && (root.rightElement != null || !root.isLeaf())) {
+                throw new IllegalStateException("The empty root has elements or descendants");
+            }
+            if (size != 0) throw new IllegalStateException("Size is " + size + ", but the tree is empty");
+            return;
+        }
+
+        int elements = validate(root, null, null, 1, height());
+        if (elements != size) {
+            throw new IllegalStateException("Size is " + size + ", but the tree holds " + elements + " elements");
+        }
+    }
+
+    /**
+     * @param low   - all elements of the subtree must be bigger, null if there is no bound
+     * @param high  - all elements of the subtree must be smaller, null if there is no bound
+     * @param depth - level of the node, counted from 1 at the root
+     * @param leafDepth - depth at which the leaves must be
+     * @return number of elements in the subtree
+     */
+    private int validate(Node current, T low, T high, int depth, int leafDepth) {
+        T left = (T) current.leftElement;
+        T right = (T) current.rightElement;
+
+        if (left == null) throw new IllegalStateException("Node without elements at level " + depth);
+        if (right != null && compare(left, right) >= 0) {
+            throw new IllegalStateException("Elements " + left + " and " + right + " are out of order");
+        }
+        T max = right != null ? right : left;
+        if (low != null && compare(low, left) >= 0 || high != null && compare(max, high) >= 0) {
+            throw new IllegalStateException("Node " + left + (right != null ? ", " + right : "")
+                    + " lies outside of " + low + " .. " + high);
+        }
+
+        int elements = right != null ? 2 : 1;
+        if (current.isLeaf()) {
+            if (depth != leafDepth) {
+                throw new IllegalStateException("Leaf " + left + " at level " + depth + ", the leftmost leaf is at level " + leafDepth);
+            }
+        } else {
+            if (current.leftChild == null || current.middleChild == null || (right != null) != (current.rightChild != null)) {
+                throw new IllegalStateException("Node " + left + " has " + elements + " elements, but other descendants");
+            }
+            elements += validate(current.leftChild, low, left, depth + 1, leafDepth);
+            elements += validate(current.middleChild, left, right != null ? right : high, depth + 1, leafDepth);
+            if (right != null) elements += validate(current.rightChild, right, high, depth + 1, leafDepth);
+        }
+
+        if (current.count != elements) {
+            throw new IllegalStateException("Node " + left + " counts " + current.count + " elements, but holds " + elements);
+        }
+        return elements;
+    }
+
     /**
      * Adds a new element to the tree, keeping it balanced
      *
@@ -59,6 +480,7 @@ public class Operations<T extends Comparable<T>> {
             }
 
             root.setLeftElement(element);
+            root.recount();
         } else {
             Node newRoot = add(root, element);
             if (newRoot != null) {
@@ -66,7 +488,10 @@ public class Operations<T extends Comparable<T>> {
             }
         }
 
-        if (flag) size++;
+        if (flag) {
+            size++;
+            modCount++;
+        }
     }
 
     /**
@@ -81,13 +506,15 @@ public class Operations<T extends Comparable<T>> {
         if (!current.isLeaf()) {
 
             Node newNode;
+            int leftOrder = compare((T) current.leftElement, element);
+            int rightOrder = current.is3Node() ? compare((T) current.rightElement, element) : ROOT_IS_BIGGER;
 
             // Element already exists
-            if (current.leftElement.compareTo(element) == 0 || (current.is3Node() && current.rightElement.compareTo(element) == 0)) {
+            if (leftOrder == 0 || rightOrder == 0) {
             }
 
             // newNode < left element
-            else if (current.leftElement.compareTo(element) == ROOT_IS_BIGGER) {
+            else if (leftOrder == ROOT_IS_BIGGER) {
                 newNode = add(current.leftChild, element);
 
                 // newNode comes from the left branch
@@ -115,7 +542,7 @@ public class Operations<T extends Comparable<T>> {
             }
 
             // newNode is > left and < right
-            else if (current.is2Node() || (current.is3Node() && current.rightElement.compareTo(element) == ROOT_IS_BIGGER)) {
+            else if (rightOrder == ROOT_IS_BIGGER) {
 
                 newNode = add(current.middleChild, element);
 
@@ -139,7 +566,7 @@ public class Operations<T extends Comparable<T>> {
             }
 
             // newNode is larger than the right element
-            else if (current.is3Node() && current.rightElement.compareTo(element) == ROOT_IS_SMALLER) {
+            else {
 
                 newNode = add(current.rightChild, element);
 
@@ -154,9 +581,10 @@ public class Operations<T extends Comparable<T>> {
         // We are at the deepest level
         else {
             flag = true;
+            int leftOrder = compare((T) current.leftElement, element);
 
             // Element already exists
-            if (current.leftElement.compareTo(element) == 0 || (current.is3Node() && current.rightElement.compareTo(element) == 0)) {
+            if (leftOrder == 0 || (current.is3Node() && compare((T) current.rightElement, element) == 0)) {
                 flag = false;
             }
 
@@ -164,19 +592,26 @@ public class Operations<T extends Comparable<T>> {
             else if (current.is2Node()) {
 
                 // If the current left element is larger than newNode, we move the left element to the right
-                if (current.leftElement.compareTo(element) == ROOT_IS_BIGGER) {
+                if (leftOrder == ROOT_IS_BIGGER) {
                     current.rightElement = current.leftElement;
                     current.leftElement = element;
                 }
 
                 // If newNode is larger, we add it to the right
-                else if (current.leftElement.compareTo(element) == ROOT_IS_SMALLER) current.rightElement = element;
+                else current.rightElement = element;
             }
 
             // The case when the node has 2 elements, and we want to add another one. To do this, we share the node
             else newParent = split(current, element);
         }
 
+        // A split node is replaced by newParent, whose nodes are counted when they are built
+        if (newParent == null) {
+            current.recount();
+        } else if (TreeMetrics.ENABLED) {
+            TreeMetrics.probe().splits++;
+        }
+
         return newParent;
     }
 
@@ -191,17 +626,19 @@ public class Operations<T extends Comparable<T>> {
 
         Node newParent = null;
 
+        int leftOrder = compare((T) current.leftElement, element);
+
         // The left element is larger, so it will rise, allowing newParent to stand on the left
-        if (current.leftElement.compareTo(element) == ROOT_IS_BIGGER) {
+        if (leftOrder == ROOT_IS_BIGGER) {
             Node<T> left = new Node<>(element, null);
             Node right = new Node(current.rightElement, null);
             newParent = new Node(current.leftElement, null, left, right);
 
-        } else if (current.leftElement.compareTo(element) == ROOT_IS_SMALLER) {
+        } else if (leftOrder == ROOT_IS_SMALLER) {
             Node left = new Node(current.leftElement, null);
 
             // newParent is greater than the current on the right and smaller than the right. newParent rises.
-            if (current.rightElement.compareTo(element) == ROOT_IS_BIGGER) {
+            if (compare((T) current.rightElement, element) == ROOT_IS_BIGGER) {
                 Node right = new Node(current.rightElement, null);
                 newParent = new Node(element, null, left, right);
             }
@@ -223,225 +660,488 @@ public class Operations<T extends Comparable<T>> {
      * @return true, if the element was removed, otherwise false
      */
     public boolean remove(T element) {
+        if (isEmpty()) return false;
 
-        // Reduce the number of levels at the beginning
-        this.size--;
-
-        boolean ifRemoved = remove(root, element);
-
-        root.reBalance();
-
-        // If you deleted the last element of the tree
-        if (root.getLeftElement() == null) root = null;
+        if (!remove(root, element)) return false;
+        shrink();
 
-        // If the element could not be deleted, then increase the number of levels
-        if (!ifRemoved) this.size++;
-
-        return ifRemoved;
+        size--;
+        modCount++;
+        return true;
     }
 
     /**
-     * @param current - node to be deleted
+     * Removes the element in one descent. Only the nodes on the search path are repaired, on the way back up:
+     * a descendant left without elements borrows from a neighbour or is merged with it, so a removal takes O(log n).
+     *
+     * @param current - root of the subtree to remove from
      * @param element - element to be deleted
-     * @return true, if the element was deleted, otherwise false
+     * @return true, if the element was deleted, otherwise false (nothing is changed then)
      */
     private boolean remove(Node current, T element) {
-        boolean ifRemoved = true;
-
-        // The case when we are at the deepest level of the tree, but we did not find the element (it does not exist)
-        if (current == null) {
-            ifRemoved = false;
-            return false;
-        }
 
-        // Recursive case, we still find the element to delete
-        else {
+        // We are below the deepest level of the tree and did not find the element (it does not exist)
+        if (current == null) return false;
 
-            if (!current.getLeftElement().equals(element)) {
+        int left = compare(element, (T) current.getLeftElement());
+        int right = current.getRightElement() == null ? -1 : compare(element, (T) current.getRightElement());
+        boolean removed = true;
 
-                // If there is no element on the right or the element to be deleted is smaller than the right element
-                if (current.getRightElement() == null || current.getRightElement().compareTo(element) == ROOT_IS_BIGGER) {
+        if (left == 0 || right == 0) {
 
-                    // The left element is larger than the element to be deleted, so we go through the left child element
-                    if (current.getLeftElement().compareTo(element) == ROOT_IS_BIGGER) {
-                        ifRemoved = remove(current.leftChild, element);
-                    }
+            // *** Situation 1 ***
+            // The element is in a leaf, it is simply dropped; a leaf without elements is repaired by its parent
+            if (current.isLeaf()) {
+                if (left == 0) current.setLeftElement(current.getRightElement());
+                current.setRightElement(null);
+            }
 
-                    // Otherwise -> try to remove the middle child
-                    else {
-                        ifRemoved = remove(current.middleChild, element);
-                    }
+            // *** Situation 2 ***
+            // The element is in an inner node, its neighbour in the order takes its place: the max element
+            // of the left branch for the left element, the min element of the right branch for the right element
+            else if (left == 0) {
+                current.setLeftElement(current.getLeftNode().replaceMax());
+            } else {
+                current.setRightElement(current.getRightNode().replaceMin());
+            }
+        }
 
-                } else {
+        // Recursive case, we still search the element: left, middle or right descendant
+        else if (left < 0) {
+            removed = remove(current.getLeftNode(), element);
+        } else if (right < 0) {
+            removed = remove(current.getMidNode(), element);
+        } else {
+            removed = remove(current.getRightNode(), element);
+        }
 
-                    // If the element to be deleted is not equal to the desired element, we pass the right child
-                    if (!current.getRightElement().equals(element)) {
-                        ifRemoved = remove(current.rightChild, element);
-                    }
+        if (!removed) return false;
 
-                    // Otherwise, we found an element
-                    else {
+        // The lower level must be balanced
+        if (!current.isBalanced()) {
+            current.reBalance();
+        } else {
+            current.recount();
+        }
+        return true;
+    }
 
-                        // *** Situation 1 ***
-                        // The element is equal to the right element of the sheet, so we just delete it
-                        if (current.isLeaf()) {
-                            current.setRightElement(null);
-                        }
+    /**
+     * Removes the smallest element, in one descent along the left edge of the tree
+     *
+     * @return the removed element, otherwise null if the tree is empty
+     */
+    public T pollFirst() {
+        if (isEmpty()) return null;
 
-                        // *** Situation 2 ***
-                        // We found the element, but it is not in the sheet
-                        else {
+        T min = (T) root.replaceMin();
+        shrink();
 
-                            // We get the min element of the right branch,
-                            // delete it from the current position and place it where we found the element to delete.
-                            T replacement = (T) current.getRightNode().replaceMin();
-                            current.setRightElement(replacement);
-                        }
-                    }
-                }
-            }
+        size--;
+        modCount++;
+        return min;
+    }
 
-            // The left element is equal to the element to be deleted.
-            else {
+    /**
+     * Removes the largest element, in one descent along the right edge of the tree
+     *
+     * @return the removed element, otherwise null if the tree is empty
+     */
+    public T pollLast() {
+        if (isEmpty()) return null;
 
-                // *** Situation 1 ***
-                if (current.isLeaf()) {
+        T max = (T) root.replaceMax();
+        shrink();
 
-                    // The left element, the element to delete, is replaced by the right element
-                    if (current.getRightElement() != null) {
-                        current.setLeftElement(current.getRightElement());
-                        current.setRightElement(null);
+        size--;
+        modCount++;
+        return max;
+    }
 
-                    }
+    /**
+     * The root that lost its last element is replaced by its only descendant, the tree gets one level lower
+     */
+    private void shrink() {
+        if (root.getLeftElement() == null) root = root.leftChild;
+    }
 
-                    // If there is no element on the right, then balancing is required
-                    else {
-                        current.setLeftElement(null); // Release the node
-                        return true;
-                    }
-                }
+    /**
+     * Adds a batch of elements. The batch is sorted first. A batch that is large next to the tree is merged
+     * with the elements of the tree in one in-order walk, and the tree is rebuilt bottom-up from the result.
+     * A smaller batch is taken down the tree in one descent: every subtree gets the run of the batch
+     * that falls into it, only the subtrees with a run are visited, and the nodes are split on the way back up.
+     *
+     * @param elements - elements to add
+     * @return true, if at least one element was added, otherwise false
+     */
+    public boolean addAll(Collection<? extends T> elements) {
+        Comparable[] batch = sortedBatch(elements);
+        int before = size;
 
-                // *** Situation 2 ***
-                else {
+        if (!rebuilds(batch.length)) {
+            return merge(batch, true);
+        }
 
-                    // Move the "max" element of the left branch, where we found the element
-                    T replacement = (T) current.getLeftNode().replaceMax();
-                    current.setLeftElement(replacement);
-                }
+        Comparable[] merged = new Comparable[size + batch.length];
+        TreeCursor<T> cursor = new TreeCursor<>(root, 0, root == null ? 0 : TreeCursor.slots(root));
+        T element = cursor.next();
+        int n = 0;
+        int i = 0;
+
+        // Merge of two ascending sequences, an element in both is taken once
+        while (element != null && i < batch.length) {
+            int order = compare(element, (T) batch[i]);
+            if (order <= 0) {
+                merged[n++] = element;
+                element = cursor.next();
+                if (order == 0) i++;
+            } else {
+                merged[n++] = batch[i++];
             }
         }
+        for (; element != null; element = cursor.next()) merged[n++] = element;
+        while (i < batch.length) merged[n++] = batch[i++];
 
-        // The lower level must be balanced
-        if (!current.isBalanced()) {
-            current.reBalance();
-
-        } else if (!current.isLeaf()) {
-            boolean isBalanced = false;
-
-            while (!isBalanced) {
-                if (current.getRightNode() == null) {
+        if (n == before) return false;
 
-                    // A critical case of situation 2 for the left child
-                    if (current.getLeftNode().isLeaf() && !current.getMidNode().isLeaf()) {
-                        T replacement = (T) current.getMidNode().replaceMin();
-                        T tempLeft = (T) current.getLeftElement();
-                        current.setLeftElement(replacement);
-
-                        add(tempLeft);
-                    }
+        build(merged, n, DEFAULT_FILL_FACTOR);
+        modCount++;
+        return true;
+    }
 
-                    // A critical case of situation 2 for the right child
-                    else if (!current.getLeftNode().isLeaf() && current.getMidNode().isLeaf()) {
-                        if (current.getRightElement() == null) {
-                            T replacement = (T) current.getLeftNode().replaceMax();
-                            T tempLeft = (T) current.getLeftElement();
-                            current.setLeftElement(replacement);
+    /**
+     * Removes a batch of elements, the counterpart of {@link #addAll(Collection)}: a large batch is taken out
+     * of the elements of the tree in one in-order walk and the rest is rebuilt bottom-up,
+     * a smaller batch is taken down the tree in one descent and the emptied nodes are merged on the way back up.
+     *
+     * @param elements - elements to remove
+     * @return true, if at least one element was removed, otherwise false
+     */
+    public boolean removeAll(Collection<? extends T> elements) {
+        if (isEmpty()) return false;
 
-                            add(tempLeft);
-                        }
-                    }
-                }
+        Comparable[] batch = sortedBatch(elements);
+        int before = size;
 
-                if (current.getRightNode() != null) {
-                    if (current.getMidNode().isLeaf() && !current.getRightNode().isLeaf()) {
-                        current.getRightNode().reBalance();
-                    }
+        if (!rebuilds(batch.length)) {
+            return merge(batch, false);
+        }
 
-                    if (current.getMidNode().isLeaf() && !current.getRightNode().isLeaf()) {
-                        T replacement = (T) current.getRightNode().replaceMin();
-                        T tempRight = (T) current.getRightElement();
-                        current.setRightElement(replacement);
+        Comparable[] kept = new Comparable[size];
+        TreeCursor<T> cursor = new TreeCursor<>(root, 0, TreeCursor.slots(root));
+        int n = 0;
+        int i = 0;
 
-                        add(tempRight);
-                    } else {
-                        isBalanced = true;
-                    }
-                }
+        for (T element = cursor.next(); element != null; element = cursor.next()) {
+            while (i < batch.length && compare(element, (T) batch[i]) > 0) i++;
 
-                if (current.isBalanced()) isBalanced = true;
+            if (i < batch.length && compare(element, (T) batch[i]) == 0) {
+                i++;
+            } else {
+                kept[n++] = element;
             }
         }
 
-        return ifRemoved;
+        if (n == before) return false;
+
+        build(kept, n, DEFAULT_FILL_FACTOR);
+        modCount++;
+        return true;
     }
 
     /**
-     * Method for removing all elements from a tree
+     * Adds the elements of the other tree. The trees are cut at the root elements of this one and the halves
+     * are put together in parallel (see {@link TreeAlgebra}), which takes O(m log(n / m + 1)) work
+     * for trees of m and n elements, no element is added one by one.
+     *
+     * @param other - tree to add, it is not changed, the parts of it that end up here are copied
+     * @return true, if this tree changed, otherwise false
      */
-    public void clear() {
-        this.size = 0;
-        this.root = null;
+    public boolean union(Operations<T> other) {
+        return apply(TreeAlgebra.UNION, other);
     }
 
     /**
-     * Method for finding an element in a tree
+     * Keeps only the elements that are in the other tree too, in the same way as {@link #union(Operations)}
      *
-     * @param element - element to find
-     * @return true, if the element was found, otherwise false
+     * @param other - tree with the elements to keep, it is not changed
+     * @return true, if this tree changed, otherwise false
      */
-    public boolean search(T element) {
-        if (root == null) {
-            return false;
-        } else {
-            return search(root, element);
-        }
+    public boolean intersection(Operations<T> other) {
+        return apply(TreeAlgebra.INTERSECTION, other);
     }
 
-    private boolean search(Node current, T element) {
-        boolean ifFound = false;
-
-        if (current != null) {
-
-            // In the trivial case -> found an element
-            if (current.leftElement != null && current.leftElement.equals(element)) {
-                ifFound = true;
+    /**
+     * Removes the elements of the other tree, in the same way as {@link #union(Operations)}
+     *
+     * @param other - tree with the elements to remove, it is not changed
+     * @return true, if this tree changed, otherwise false
+     */
+    public boolean difference(Operations<T> other) {
+        return apply(TreeAlgebra.DIFFERENCE, other);
+    }
+
+    /**
+     * @return tree with the same elements and order that shares no node with this one, built in O(n) without comparisons
+     */
+    Operations<T> copy() {
+        Operations<T> copy = new Operations<T>(comparator);
+        if (size > 0) {
+            copy.root = TreeAlgebra.copy(TreeAlgebra.Tree.of(root)).root;
+            copy.size = size;
+        }
+        return copy;
+    }
+
+    /**
+     * Cuts the tree at the key in O(log n): this tree keeps the elements smaller than the key,
+     * the returned tree gets the key, if it is in the tree, and the larger elements
+     *
+     * @param key - where to cut, it does not have to be in the tree
+     * @return tree with the elements from the key on
+     */
+    public Operations<T> split(T key) {
+        TreeAlgebra.Split split = TreeAlgebra.split(TreeAlgebra.Tree.of(root), key, comparator);
+        TreeAlgebra.Tree right = split.found ? TreeAlgebra.join(TreeAlgebra.Tree.EMPTY, split.element, split.right) : split.right;
+
+        Operations<T> tail = new Operations<T>(comparator);
+        tail.root = right.root;
+        tail.size = right.size();
+
+        if (tail.size > 0) {
+            root = split.left.root;
+            size -= tail.size;
+            modCount++;
+        }
+        return tail;
+    }
+
+    /**
+     * Puts the elements of the other tree into this one in O(log n), the trees are joined, not rebuilt.
+     * All elements of the other tree have to be larger than the elements of this one, or all smaller.
+     *
+     * @param other - tree to take the elements from, it is left empty
+     * @throws IllegalArgumentException if the elements of the trees overlap or the trees are ordered differently
+     */
+    public void join(Operations<T> other) {
+        checkComparator(other);
+        if (other.isEmpty()) return;
+
+        TreeAlgebra.Tree joined;
+        if (isEmpty()) {
+            joined = TreeAlgebra.Tree.of(other.root);
+        } else if (compare(findMax(), other.findMin()) < 0) {
+            joined = TreeAlgebra.join(TreeAlgebra.Tree.of(root), TreeAlgebra.Tree.of(other.root));
+        } else if (compare(other.findMax(), findMin()) < 0) {
+            joined = TreeAlgebra.join(TreeAlgebra.Tree.of(other.root), TreeAlgebra.Tree.of(root));
+        } else {
+            throw new IllegalArgumentException("The elements of the trees overlap: " + findMin() + " .. " + findMax()
+                    + " and " + other.findMin() + " .. " + other.findMax());
+        }
+
+        root = joined.root;
+        size += other.size;
+        modCount++;
+        other.clear();
+    }
+
+    private boolean apply(int operation, Operations<T> other) {
+        checkComparator(other);
+        TreeAlgebra.Tree result = TreeAlgebra.apply(operation, TreeAlgebra.Tree.of(root), TreeAlgebra.Tree.of(other.root), comparator);
+
+        // The operations only add or only remove elements, the same size means the same elements
+        if (result.size() == size) return false;
+
+        root = result.root;
+        size = result.size();
+        modCount++;
+        return true;
+    }
+
+    /**
+     * The trees are taken apart and put together by position, which only works if both are ordered alike
+     */
+    private void checkComparator(Operations<T> other) {
+        if (!Objects.equals(comparator, other.comparator)) {
+            throw new IllegalArgumentException("The trees are ordered by different comparators");
+        }
+    }
+
+    /**
+     * @return elements of the batch in ascending order, without repetitions
+     */
+    private Comparable[] sortedBatch(Collection<?> elements) {
+        Comparable[] batch = elements.toArray(new Comparable[0]);
+
+        // A sorted set in the order of the tree is taken as it is
+        if (elements instanceof SortedSet && Objects.equals(((SortedSet<?>) elements).comparator(), comparator)) {
+            return batch;
+        }
+        Arrays.sort(batch, (Comparator) comparator);
+
+        int n = 0;
+        for (int i = 0; i < batch.length; i++) {
+            if (n == 0 || compare((T) batch[n - 1], (T) batch[i]) != 0) {
+                batch[n++] = batch[i];
             }
+        }
+        return n == batch.length ? batch : Arrays.copyOf(batch, n);
+    }
 
-            // Otherwise -> not yet at the deepest level
-            else {
+    /**
+     * Adds or removes a sorted batch in one descent
+     *
+     * @return true, if the tree changed, otherwise false
+     */
+    private boolean merge(Comparable[] batch, boolean add) {
+        TreeAlgebra.Tree result = merge(root, height(), batch, 0, batch.length, add);
+        if (result != null) root = result.root;
 
-                // Search element equals right element
-                if (current.rightElement != null && current.rightElement.equals(element)) {
-                    ifFound = true;
-                }
+        int before = size;
+        size = Node.count(root);
+        if (size == before) return false;
+
+        modCount++;
+        return true;
+    }
 
-                // Otherwise -> recursive calls
-                else {
-                    if (current.leftElement.compareTo(element) == ROOT_IS_BIGGER) {
-                        ifFound = search(current.leftChild, element);
+    /**
+     * Takes the run of a sorted batch that falls into the subtree down into it. The run is divided
+     * at the elements of the node, every part goes into its descendant, and the descendants coming back
+     * taller or lower are joined with the kept elements (see {@link TreeAlgebra#join}).
+     * A part of one element is added or removed in place, like by add / remove.
+     *
+     * @param current - root of the subtree
+     * @param height  - height of the subtree, 0 if it is empty
+     * @param from    - first element of the run
+     * @param to      - end of the run, exclusive
+     * @param add     - true, if the run is added, false, if it is removed
+     * @return the new subtree, null if the subtree was changed in place and kept its root and height
+     */
+    private TreeAlgebra.Tree merge(Node current, int height, Comparable[] batch, int from, int to, boolean add) {
+        if (from == to) return null;
+        if (height == 0) return add ? TreeAlgebra.build(batch, from, to) : null;
+
+        if (to - from == 1) {
+            T element = (T) batch[from];
+            if (add) {
+                Node newParent = add(current, element);
+                return newParent == null ? null : new TreeAlgebra.Tree(newParent, height + 1);
+            }
+
+            // A node left without elements is replaced by its only descendant
+            if (!remove(current, element) || current.leftElement != null) return null;
+            return new TreeAlgebra.Tree(current.leftChild, height - 1);
+        }
+
+        int elements = current.is3Node() ? 2 : 1;
+        TreeAlgebra.Tree[] parts = null;   // Created once a descendant comes back as a new subtree
+        int dropped = 0;                    // Bit i is set if element i of the node is removed
+        int start = from;
+
+        for (int i = 0; i <= elements; i++) {
+            int end = to;
+            boolean found = false;
+            if (i < elements) {
+                T element = (T) (i == 0 ? current.leftElement : current.rightElement);
+                end = search(batch, start, to, element);
+                found = end < to && compare((T) batch[end], element) == 0;
+            }
+
+            TreeAlgebra.Tree part = merge(TreeCursor.child(current, i), height - 1, batch, start, end, add);
+            if (part != null) {
+                if (parts == null) parts = new TreeAlgebra.Tree[elements + 1];
+                parts[i] = part;
+            }
+            if (found && !add) dropped |= 1 << i;
+            start = found ? end + 1 : end;
+        }
+
+        if (parts == null && dropped == 0) {
+            current.recount();
+            return null;
+        }
+
+        // The node is rebuilt from its descendants and the elements it keeps
+        TreeAlgebra.Tree result = null;
+        for (int i = 0; i <= elements; i++) {
+            TreeAlgebra.Tree part = parts != null && parts[i] != null ? parts[i]
+                    : new TreeAlgebra.Tree(TreeCursor.child(current, i), height - 1);
+            if (i == 0) {
+                result = part;
+            } else {
+                Comparable element = i == 1 ? current.leftElement : current.rightElement;
+                result = (dropped & 1 << (i - 1)) == 0 ? TreeAlgebra.join(result, element, part) : TreeAlgebra.join(result, part);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return index of the first element of the batch run that is not smaller than the element
+     */
+    private int search(Comparable[] batch, int from, int to, T element) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (compare((T) batch[middle], element) < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @return true, if a batch of the given size is cheaper to merge into a rebuilt tree
+     * than to take down the tree in one descent, otherwise false
+     */
+    private boolean rebuilds(int batch) {
+        return batch > 1 && (long) batch * REBUILD_RATIO >= size;
+    }
 
-                    } else if (current.rightChild == null || current.rightElement.compareTo(element) == ROOT_IS_BIGGER) {
-                        ifFound = search(current.middleChild, element);
+    /**
+     * Method for removing all elements from a tree
+     */
+    public void clear() {
+        this.size = 0;
+        this.root = null;
+        this.modCount++;
+    }
 
-                    } else if (current.rightElement.compareTo(element) == ROOT_IS_SMALLER) {
-                        ifFound = search(current.rightChild, element);
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public boolean search(T element) {
+        Node current = root;
+
+        // Iterative descent: one or two comparisons per node, no recursion and no allocation
+        while (current != null && current.leftElement != null) {
+            int order = compare(element, (T) current.leftElement);
+
+            if (order < 0) {
+                current = current.leftChild;
+            } else if (order == 0) {
+                return true;
+            } else if (current.rightElement == null) {
+                current = current.middleChild;
+            } else {
+                order = compare(element, (T) current.rightElement);
 
-                    } else return false;
+                if (order < 0) {
+                    current = current.middleChild;
+                } else if (order == 0) {
+                    return true;
+                } else {
+                    current = current.rightChild;
                 }
             }
         }
 
-        return ifFound;
+        return false;
     }
 
     /**
@@ -497,6 +1197,555 @@ public class Operations<T extends Comparable<T>> {
         }
     }
 
+    /**
+     * @param element - the bound, it does not have to be in the tree
+     * @return the largest element smaller than or equal to the given one, otherwise null
+     */
+    public T floor(T element) {
+        return nearest(element, true, true);
+    }
+
+    /**
+     * @param element - the bound, it does not have to be in the tree
+     * @return the largest element strictly smaller than the given one, otherwise null
+     */
+    public T lower(T element) {
+        return nearest(element, true, false);
+    }
+
+    /**
+     * @param element - the bound, it does not have to be in the tree
+     * @return the smallest element larger than or equal to the given one, otherwise null
+     */
+    public T ceiling(T element) {
+        return nearest(element, false, true);
+    }
+
+    /**
+     * @param element - the bound, it does not have to be in the tree
+     * @return the smallest element strictly larger than the given one, otherwise null
+     */
+    public T higher(T element) {
+        return nearest(element, false, false);
+    }
+
+    /**
+     * One descent from the root, remembering the closest element passed on the wanted side
+     *
+     * @param below     - true, if the element is looked for below the bound, otherwise above it
+     * @param inclusive - true, if the bound itself is an answer, otherwise false
+     */
+    private T nearest(T element, boolean below, boolean inclusive) {
+        T closest = null;
+        Node current = root;
+
+        while (current != null && current.leftElement != null) {
+            T left = (T) current.leftElement;
+            int order = compare(element, left);
+            if (order == 0 && inclusive) return left;
+
+            // The bound is left of the left element, an element equal to it counts as larger
+            if (order < 0 || (order == 0 && below)) {
+                if (!below) closest = left;
+                current = current.leftChild;
+                continue;
+            }
+
+            if (below) closest = left;
+            if (current.rightElement == null) {
+                current = current.middleChild;
+                continue;
+            }
+
+            T right = (T) current.rightElement;
+            order = compare(element, right);
+            if (order == 0 && inclusive) return right;
+
+            if (order < 0 || (order == 0 && below)) {
+                if (!below) closest = right;
+                current = current.middleChild;
+            } else {
+                if (below) closest = right;
+                current = current.rightChild;
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * @return iterator over the elements in ascending order, it fails fast if the tree is changed meanwhile
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new TreeIterator(new TreeCursor<>(root, 0, root == null ? 0 : TreeCursor.slots(root)));
+    }
+
+    /**
+     * @return spliterator over the elements in ascending order, it splits at the boundaries of the subtrees
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator(root, 0, root == null ? 0 : TreeCursor.slots(root));
+    }
+
+    /**
+     * @return sequential stream of the elements in ascending order
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return parallel stream of the elements, the subtrees are handed out to different threads
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * View of the elements from one bound to the other, in ascending order
+     *
+     * @param from          - lower bound
+     * @param fromInclusive - true, if the lower bound belongs to the view, otherwise false
+     * @param to            - upper bound
+     * @param toInclusive   - true, if the upper bound belongs to the view, otherwise false
+     * @return read-only view, it follows later changes of the tree
+     * @throws IllegalArgumentException if the lower bound is above the upper bound
+     */
+    public Set<T> subSet(T from, boolean fromInclusive, T to, boolean toInclusive) {
+        if (compare(from, to) > 0) {
+            throw new IllegalArgumentException("The lower bound " + from + " is above the upper bound " + to);
+        }
+        return new RangeView(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * @return view of the elements from the lower bound (inclusive) to the upper bound (exclusive)
+     */
+    public Set<T> subSet(T from, T to) {
+        return subSet(from, true, to, false);
+    }
+
+    /**
+     * @param to        - upper bound
+     * @param inclusive - true, if the upper bound belongs to the view, otherwise false
+     * @return view of the elements below the upper bound
+     */
+    public Set<T> headSet(T to, boolean inclusive) {
+        return new RangeView(null, false, to, inclusive);
+    }
+
+    /**
+     * @return view of the elements below the upper bound (exclusive)
+     */
+    public Set<T> headSet(T to) {
+        return headSet(to, false);
+    }
+
+    /**
+     * @param from      - lower bound
+     * @param inclusive - true, if the lower bound belongs to the view, otherwise false
+     * @return view of the elements above the lower bound
+     */
+    public Set<T> tailSet(T from, boolean inclusive) {
+        return new RangeView(from, inclusive, null, false);
+    }
+
+    /**
+     * @return view of the elements from the lower bound (inclusive)
+     */
+    public Set<T> tailSet(T from) {
+        return tailSet(from, true);
+    }
+
+    /**
+     * Passes the elements between the bounds to the action in ascending order, without allocating anything.
+     * The tree is entered once down to the lower bound and left at the upper bound.
+     *
+     * @param from          - lower bound, null for none
+     * @param fromInclusive - true, if the lower bound is passed too, otherwise false
+     * @param to            - upper bound, null for none
+     * @param toInclusive   - true, if the upper bound is passed too, otherwise false
+     * @param action        - called for every element
+     */
+    public void forEachInRange(T from, boolean fromInclusive, T to, boolean toInclusive, Consumer<? super T> action) {
+        forEachInRange(root, from, fromInclusive, to, toInclusive, action);
+    }
+
+    /**
+     * @return false, if an element above the upper bound was reached, otherwise true
+     */
+    private boolean forEachInRange(Node current, T from, boolean fromInclusive, T to, boolean toInclusive,
+                                   Consumer<? super T> action) {
+        if (current == null || current.leftElement == null) {
+            return true;
+        }
+
+        for (int i = 0; i < 2; i++) {
+            T element = (T) (i == 0 ? current.leftElement : current.rightElement);
+            if (element == null) {
+                break;
+            }
+
+            // Everything in the descendant before a low element is low as well
+            boolean low = below(element, from, fromInclusive);
+            if (!low && !forEachInRange(TreeCursor.child(current, i), from, fromInclusive, to, toInclusive, action)) {
+                return false;
+            }
+            if (above(element, to, toInclusive)) {
+                return false;
+            }
+            if (!low) {
+                action.accept(element);
+            }
+        }
+
+        return forEachInRange(current.rightElement == null ? current.middleChild : current.rightChild,
+                from, fromInclusive, to, toInclusive, action);
+    }
+
+    /**
+     * @param from          - lower bound, null for none
+     * @param fromInclusive - true, if the lower bound is counted too, otherwise false
+     * @param to            - upper bound, null for none
+     * @param toInclusive   - true, if the upper bound is counted too, otherwise false
+     * @return number of elements between the bounds, found in O(log n) through the counts of the nodes
+     */
+    public int rangeCount(T from, boolean fromInclusive, T to, boolean toInclusive) {
+        int high = to == null ? Node.count(root) : countBelow(to, toInclusive);
+        int low = from == null ? 0 : countBelow(from, !fromInclusive);
+        return Math.max(0, high - low);
+    }
+
+    /**
+     * @return number of elements from the lower bound to the upper bound, both inclusive
+     */
+    public int countInRange(T from, T to) {
+        return rangeCount(from, true, to, true);
+    }
+
+    /**
+     * @param element - the bound, it does not have to be in the tree
+     * @return number of elements smaller than the given one
+     */
+    public int countLessThan(T element) {
+        return countBelow(element, false);
+    }
+
+    /**
+     * @param element - element to look for
+     * @return position of the element in ascending order, starting at 0, or -1 if it is not in the tree
+     */
+    public int rank(T element) {
+        int count = 0;
+        Node current = root;
+
+        while (current != null && current.leftElement != null) {
+            int order = compare(element, (T) current.leftElement);
+
+            if (order < 0) {
+                current = current.leftChild;
+            } else if (order == 0) {
+                return count + Node.count(current.leftChild);
+            } else {
+                count += Node.count(current.leftChild) + 1;
+
+                if (current.rightElement == null) {
+                    current = current.middleChild;
+                } else {
+                    order = compare(element, (T) current.rightElement);
+
+                    if (order < 0) {
+                        current = current.middleChild;
+                    } else if (order == 0) {
+                        return count + Node.count(current.middleChild);
+                    } else {
+                        count += Node.count(current.middleChild) + 1;
+                        current = current.rightChild;
+                    }
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param index - position in ascending order, starting at 0
+     * @return element at the given position
+     * @throws IndexOutOfBoundsException if the index is negative or not smaller than the number of elements
+     */
+    public T select(int index) {
+        if (index < 0 || index >= Node.count(root)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + Node.count(root));
+        }
+
+        Node current = root;
+
+        while (true) {
+            int left = Node.count(current.leftChild);
+
+            if (index < left) {
+                current = current.leftChild;
+            } else if (index == left) {
+                return (T) current.leftElement;
+            } else {
+                index -= left + 1;
+                int middle = Node.count(current.middleChild);
+
+                if (index < middle) {
+                    current = current.middleChild;
+                } else if (index == middle) {
+                    return (T) current.rightElement;
+                } else {
+                    index -= middle + 1;
+                    current = current.rightChild;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param inclusive - true, if an element equal to the bound is counted too, otherwise false
+     * @return number of elements below the bound
+     */
+    private int countBelow(T bound, boolean inclusive) {
+        int count = 0;
+        Node current = root;
+
+        while (current != null && current.leftElement != null) {
+            int order = compare(bound, (T) current.leftElement);
+
+            if (order <= 0) {
+                if (order == 0) {
+                    return count + Node.count(current.leftChild) + (inclusive ? 1 : 0);
+                }
+                current = current.leftChild;
+            } else {
+                count += Node.count(current.leftChild) + 1;
+
+                if (current.rightElement == null) {
+                    current = current.middleChild;
+                } else {
+                    order = compare(bound, (T) current.rightElement);
+
+                    if (order <= 0) {
+                        if (order == 0) {
+                            return count + Node.count(current.middleChild) + (inclusive ? 1 : 0);
+                        }
+                        current = current.middleChild;
+                    } else {
+                        count += Node.count(current.middleChild) + 1;
+                        current = current.rightChild;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return true, if the element is below the lower bound, otherwise false
+     */
+    private boolean below(T element, T from, boolean inclusive) {
+        if (from == null) return false;
+        int order = compare(element, from);
+        return order < 0 || (order == 0 && !inclusive);
+    }
+
+    /**
+     * @return true, if the element is above the upper bound, otherwise false
+     */
+    private boolean above(T element, T to, boolean inclusive) {
+        if (to == null) return false;
+        int order = compare(element, to);
+        return order > 0 || (order == 0 && !inclusive);
+    }
+
+    /**
+     * Read-only view of the elements between two bounds, null bounds are open
+     */
+    private final class RangeView extends AbstractSet<T> {
+        private final T from;
+        private final boolean fromInclusive;
+        private final T to;
+        private final boolean toInclusive;
+
+        RangeView(T from, boolean fromInclusive, T to, boolean toInclusive) {
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            TreeCursor<T> cursor = new TreeCursor<>(null, 0, 0);
+            cursor.seek(root, from, fromInclusive, comparator);
+            return new TreeIterator(cursor, to, toInclusive);
+        }
+
+        @Override
+        public int size() {
+            return rangeCount(from, fromInclusive, to, toInclusive);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            T element = (T) o;
+            return !below(element, from, fromInclusive) && !above(element, to, toInclusive) && search(element);
+        }
+    }
+
+    /**
+     * In-order iterator, one element ahead of the caller, up to an optional upper bound
+     */
+    private final class TreeIterator implements Iterator<T> {
+        private final TreeCursor<T> cursor;
+        private final T to;
+        private final boolean toInclusive;
+        private final int expectedModCount;
+        private T next;
+
+        TreeIterator(TreeCursor<T> cursor) {
+            this(cursor, null, false);
+        }
+
+        TreeIterator(TreeCursor<T> cursor, T to, boolean toInclusive) {
+            this.cursor = cursor;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.expectedModCount = modCount;
+            advance();
+        }
+
+        private void advance() {
+            next = cursor.next();
+            if (next != null && above(next, to, toInclusive)) {
+                next = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (next == null) throw new NoSuchElementException();
+
+            T element = next;
+            advance();
+            return element;
+        }
+    }
+
+    /**
+     * Covers a range of slots of one node (see {@link TreeCursor}).
+     * A split hands out the first half of the range; a range of a single descendant
+     * is replaced by the slots of that descendant first. The counts of the nodes give the exact size of every part.
+     */
+    private final class TreeSpliterator implements Spliterator<T> {
+        private Node node;
+        private int from;
+        private int to;
+        private TreeCursor<T> cursor;   // Created once the elements are taken, no splits after that
+        private final int expectedModCount;
+
+        TreeSpliterator(Node node, int from, int to) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.expectedModCount = modCount;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (cursor != null || node == null) {
+                return null;
+            }
+
+            // A single descendant is split inside
+            while (to - from == 1 && (from & 1) == 0) {
+                Node child = TreeCursor.child(node, from >> 1);
+                if (child == null || child.leftElement == null) {
+                    return null;
+                }
+                node = child;
+                from = 0;
+                to = TreeCursor.slots(child);
+            }
+
+            if (to - from < 2) {
+                return null;
+            }
+
+            int middle = (from + to) >>> 1;
+            TreeSpliterator prefix = new TreeSpliterator(node, from, middle);
+            from = middle;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (cursor == null) {
+                cursor = new TreeCursor<>(node, from, to);
+            }
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+
+            T element = cursor.next();
+            if (element == null) {
+                return false;
+            }
+            action.accept(element);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (cursor == null) {
+                cursor = new TreeCursor<>(node, from, to);
+            }
+
+            T element;
+            while ((element = cursor.next()) != null) {
+                action.accept(element);
+            }
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+        }
+
+        /**
+         * @return exact number of elements left before the traversal starts, an upper bound afterwards
+         */
+        @Override
+        public long estimateSize() {
+            long size = 0;
+            for (int slot = from; node != null && slot < to; slot++) {
+                size += (slot & 1) == 1 ? 1 : Node.count(TreeCursor.child(node, slot >> 1));
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | NONNULL | (cursor == null ? SIZED | SUBSIZED : 0);
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return comparator;
+        }
+    }
+
     public void inOrder() {
         if (!isEmpty()) {
             inOrder(root);
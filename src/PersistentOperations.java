@@ -0,0 +1,471 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Persistent 2-3-tree: nodes are never changed once the tree points to them.
+ * add and remove copy the nodes on the path from the root to the leaf they touch,
+ * the rest of the tree is shared with the previous version, and the new root is published
+ * with a single compare-and-set. If another thread published first, the update starts over from its version.
+ * <p>
+ * Readers never lock and never wait, they work on the version that was current when they started.
+ * {@link #snapshot()} keeps such a version for as long as it is needed, at no cost.
+ */
+public class PersistentOperations<T extends Comparable<T>> {
+
+    /**
+     * Root and size, published together
+     */
+    private static final class Version {
+        final Node root;
+        final int size;
+
+        Version(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Result of an update below the current node
+     */
+    private static final class Change {
+        boolean split;              // The returned node is the left half, element and right have to be put into the parent
+        Comparable element;         // Element going up after a split
+        Node right;                 // Right half of the split node
+    }
+
+    private static final Version EMPTY = new Version(null, 0);
+
+    private final AtomicReference<Version> version;
+
+    public PersistentOperations() {
+        this.version = new AtomicReference<>(EMPTY);
+    }
+
+    private PersistentOperations(Version version) {
+        this.version = new AtomicReference<>(version);
+    }
+
+    /**
+     * @return independent tree holding the current elements, later changes of either tree are not seen by the other
+     */
+    public PersistentOperations<T> snapshot() {
+        return new PersistentOperations<>(version.get());
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return version.get().root == null;
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return version.get().size;
+    }
+
+    /**
+     * Method for removing all elements from a tree
+     */
+    public void clear() {
+        version.set(EMPTY);
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(T element) {
+        return search(element);
+    }
+
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public boolean search(T element) {
+        Node current = version.get().root;
+
+        while (current != null) {
+            int order = element.compareTo((T) current.leftElement);
+
+            if (order < 0) {
+                current = current.leftChild;
+            } else if (order == 0) {
+                return true;
+            } else if (current.rightElement == null) {
+                current = current.middleChild;
+            } else {
+                order = element.compareTo((T) current.rightElement);
+
+                if (order < 0) {
+                    current = current.middleChild;
+                } else if (order == 0) {
+                    return true;
+                } else {
+                    current = current.rightChild;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds a new element to the tree, keeping it balanced
+     *
+     * @param element - element to add
+     * @return true, if the element was added, false if it was already in the tree
+     */
+    public boolean add(T element) {
+        Change change = new Change();
+
+        while (true) {
+            Version current = version.get();
+            Node root;
+
+            if (current.root == null) {
+                root = node(element, null, null, null, null);
+            } else {
+                change.split = false;
+                root = add(current.root, element, change);
+                if (root == current.root) {
+                    return false;
+                }
+
+                // The root was split, the tree grows by one level
+                if (change.split) {
+                    root = node(change.element, null, root, change.right, null);
+                }
+            }
+
+            if (version.compareAndSet(current, new Version(root, current.size + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return new version of the node, the node itself if the element is already in the subtree
+     */
+    private Node add(Node current, T element, Change change) {
+        int order = element.compareTo((T) current.leftElement);
+        int rightOrder = 0;
+        int index;
+
+        if (order == 0) {
+            return current;
+        } else if (order < 0) {
+            index = 0;
+        } else if (current.rightElement == null) {
+            index = 1;
+        } else {
+            rightOrder = element.compareTo((T) current.rightElement);
+            if (rightOrder == 0) {
+                return current;
+            }
+            index = rightOrder < 0 ? 1 : 2;
+        }
+
+        if (current.leftChild == null) {
+            return put(current, index, element, null, null, change);
+        }
+
+        Node child = child(current, index);
+        Node added = add(child, element, change);
+        if (added == child) {
+            return current;
+        }
+
+        if (!change.split) {
+            Node copy = copy(current);
+            setChild(copy, index, added);
+            return copy;
+        }
+
+        change.split = false;
+        return put(current, index, change.element, added, change.right, change);
+    }
+
+    /**
+     * Builds the node with the element put before the descendant with the given index,
+     * whose place is taken by left and right (null in the leaves).
+     * A node with two elements is split: the returned node keeps the smallest element,
+     * the middle one and the right half are left in the change.
+     */
+    private Node put(Node current, int index, Comparable element, Node left, Node right, Change change) {
+        Comparable a = current.leftElement;
+        Comparable b = current.rightElement;
+        Node first = current.leftChild;
+        Node second = current.middleChild;
+        Node third = current.rightChild;
+
+        if (b == null) {
+            return index == 0
+                    ? node(element, a, left, right, second)
+                    : node(a, element, first, left, right);
+        }
+
+        change.split = true;
+        if (index == 0) {
+            change.element = a;
+            change.right = node(b, null, second, third, null);
+            return node(element, null, left, right, null);
+        } else if (index == 1) {
+            change.element = element;
+            change.right = node(b, null, right, third, null);
+            return node(a, null, first, left, null);
+        } else {
+            change.element = b;
+            change.right = node(element, null, left, right, null);
+            return node(a, null, first, second, null);
+        }
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public boolean remove(T element) {
+        while (true) {
+            Version current = version.get();
+            if (current.root == null) {
+                return false;
+            }
+
+            Node root = remove(current.root, element);
+            if (root == current.root) {
+                return false;
+            }
+
+            // The root lost its last element, the tree shrinks by one level
+            if (root.leftElement == null) {
+                root = root.leftChild;
+            }
+
+            if (version.compareAndSet(current, new Version(root, current.size - 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the element from the subtree. A new node left without elements,
+     * with its only descendant on the left, is repaired by the parent.
+     *
+     * @return new version of the node, the node itself if the element is not in the subtree
+     */
+    private Node remove(Node current, T element) {
+        int order = element.compareTo((T) current.leftElement);
+        int rightOrder = current.rightElement == null || order <= 0 ? -1 : element.compareTo((T) current.rightElement);
+
+        if (current.leftChild == null) {
+            if (order == 0) {
+                return current.rightElement == null ? new Node() : node(current.rightElement, null, null, null, null);
+            }
+            if (rightOrder == 0) {
+                return node(current.leftElement, null, null, null, null);
+            }
+            return current;
+        }
+
+        int index = order <= 0 ? 0 : rightOrder <= 0 ? 1 : 2;
+        Node child = child(current, index);
+        Node copy;
+
+        // An element of an inner node is replaced by its predecessor, which is then removed from the leaf
+        if (order == 0 || rightOrder == 0) {
+            T predecessor = max(child);
+            copy = copy(current);
+            if (order == 0) {
+                copy.leftElement = predecessor;
+            } else {
+                copy.rightElement = predecessor;
+            }
+            element = predecessor;
+        } else {
+            copy = null;
+        }
+
+        Node removed = remove(child, element);
+        if (removed == child) {
+            return current;
+        }
+
+        if (copy == null) {
+            copy = copy(current);
+        }
+        setChild(copy, index, removed);
+
+        if (removed.leftElement == null) {
+            fix(copy, index);
+        }
+        return copy;
+    }
+
+    /**
+     * Repairs the new descendant that was left without elements, either by borrowing an element
+     * of a neighbour with two elements or by merging with a neighbour with one element.
+     * The current node and the hole are new, neighbours are copied before they change.
+     */
+    private static void fix(Node current, int index) {
+        Node hole = child(current, index);
+        int elements = current.rightElement == null ? 1 : 2;
+
+        if (index > 0 && child(current, index - 1).rightElement != null) {
+            Node left = copy(child(current, index - 1));
+            hole.middleChild = hole.leftChild;
+            hole.leftChild = left.rightChild;
+            hole.leftElement = element(current, index - 1);
+            setElement(current, index - 1, left.rightElement);
+            left.rightElement = null;
+            left.rightChild = null;
+            setChild(current, index - 1, left);
+
+        } else if (index < elements && child(current, index + 1).rightElement != null) {
+            Node right = copy(child(current, index + 1));
+            hole.leftElement = element(current, index);
+            hole.middleChild = right.leftChild;
+            setElement(current, index, right.leftElement);
+            right.leftElement = right.rightElement;
+            right.rightElement = null;
+            right.leftChild = right.middleChild;
+            right.middleChild = right.rightChild;
+            right.rightChild = null;
+            setChild(current, index + 1, right);
+
+        } else if (index > 0) {
+            Node left = child(current, index - 1);
+            setChild(current, index - 1, node(left.leftElement, element(current, index - 1),
+                    left.leftChild, left.middleChild, hole.leftChild));
+            removeChild(current, index);
+
+        } else {
+            Node right = current.middleChild;
+            hole.leftElement = current.leftElement;
+            hole.rightElement = right.leftElement;
+            hole.middleChild = right.leftChild;
+            hole.rightChild = right.middleChild;
+            removeChild(current, 1);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private static void removeChild(Node current, int index) {
+        if (current.rightElement != null) {
+            if (index == 1) {
+                current.leftElement = current.rightElement;
+                current.middleChild = current.rightChild;
+            }
+            current.rightElement = null;
+            current.rightChild = null;
+        } else {
+            current.leftElement = null;
+            current.middleChild = null;
+        }
+    }
+
+    private static Node node(Comparable leftElement, Comparable rightElement, Node leftChild, Node middleChild, Node rightChild) {
+        Node node = new Node(leftElement, rightElement, leftChild, middleChild);
+        node.rightChild = rightChild;
+        return node;
+    }
+
+    private static Node copy(Node current) {
+        return node(current.leftElement, current.rightElement, current.leftChild, current.middleChild, current.rightChild);
+    }
+
+    private static Node child(Node current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    private static void setChild(Node current, int index, Node child) {
+        if (index == 0) {
+            current.leftChild = child;
+        } else if (index == 1) {
+            current.middleChild = child;
+        } else {
+            current.rightChild = child;
+        }
+    }
+
+    private static Comparable element(Node current, int index) {
+        return index == 0 ? current.leftElement : current.rightElement;
+    }
+
+    private static void setElement(Node current, int index, Comparable element) {
+        if (index == 0) {
+            current.leftElement = element;
+        } else {
+            current.rightElement = element;
+        }
+    }
+
+    private T max(Node current) {
+        while (current.leftChild != null) {
+            current = current.rightElement != null ? current.rightChild : current.middleChild;
+        }
+        return (T) (current.rightElement != null ? current.rightElement : current.leftElement);
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value, otherwise null
+     */
+    public T findMin() {
+        Node current = version.get().root;
+        if (current == null) return null;
+
+        while (current.leftChild != null) {
+            current = current.leftChild;
+        }
+        return (T) current.leftElement;
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value, otherwise null
+     */
+    public T findMax() {
+        Node current = version.get().root;
+        if (current == null) return null;
+        return max(current);
+    }
+
+    /**
+     * Method for displaying the elements of the current version in the order of the method - "in-order"
+     */
+    public void inOrder() {
+        Node root = version.get().root;
+        if (root != null) {
+            inOrder(root);
+        } else {
+            System.out.print("The tree is empty...");
+        }
+    }
+
+    private void inOrder(Node current) {
+        if (current != null) {
+            inOrder(current.leftChild);
+            System.out.print(current.leftElement + " ");
+            inOrder(current.middleChild);
+
+            if (current.rightElement != null) {
+                System.out.print(current.rightElement + " ");
+                inOrder(current.rightChild);
+            }
+        }
+    }
+}
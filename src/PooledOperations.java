@@ -0,0 +1,537 @@
+import java.util.Arrays;
+
+/**
+ * 2-3-tree with the public operations of {@link Operations}, stored without node objects.
+ * Every node is an int identifier, an index into parallel arrays that hold the elements
+ * and the identifiers of the descendants. The garbage collector sees a few large arrays
+ * instead of millions of nodes, and neighbouring nodes share cache lines.
+ * Identifiers of removed nodes are kept in a free list and reused by the next splits.
+ */
+public class PooledOperations<T extends Comparable<T>> {
+
+    private static final int NONE = 0;              // Identifier 0 is never used, so fresh arrays mean "no descendant"
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] leftElements;
+    private Object[] rightElements;   // null in 2 nodes
+    private int[] leftChildren;       // Also links the free list
+    private int[] middleChildren;
+    private int[] rightChildren;
+
+    private int allocated;            // Highest identifier handed out so far
+    private int free;                 // Head of the free list
+
+    private int root;                 // Tree root
+    private int size;                 // The number of tree elements
+    private boolean added;            // Tracks if the last element was added or was already in the tree
+    private T splitElement;           // Element going up after the last split
+    private int splitNode;            // Right half of the last split node
+
+    PooledOperations() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - number of nodes to reserve space for
+     */
+    PooledOperations(int capacity) {
+        int length = Math.max(capacity, 1) + 1;
+        this.leftElements = new Object[length];
+        this.rightElements = new Object[length];
+        this.leftChildren = new int[length];
+        this.middleChildren = new int[length];
+        this.rightChildren = new int[length];
+        this.root = NONE;
+        this.size = 0;
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return root == NONE;
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(T element) {
+        return search(element);
+    }
+
+    /**
+     * @return number of elements in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method for removing all elements from a tree, the arrays are kept for reuse
+     */
+    public void clear() {
+        Arrays.fill(leftElements, null);
+        Arrays.fill(rightElements, null);
+        Arrays.fill(leftChildren, NONE);
+        Arrays.fill(middleChildren, NONE);
+        Arrays.fill(rightChildren, NONE);
+        this.allocated = 0;
+        this.free = NONE;
+        this.root = NONE;
+        this.size = 0;
+    }
+
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public boolean search(T element) {
+        int current = root;
+
+        while (current != NONE) {
+            int order = element.compareTo(left(current));
+
+            if (order < 0) {
+                current = leftChildren[current];
+            } else if (order == 0) {
+                return true;
+            } else if (rightElements[current] == null) {
+                current = middleChildren[current];
+            } else {
+                order = element.compareTo(right(current));
+
+                if (order < 0) {
+                    current = middleChildren[current];
+                } else if (order == 0) {
+                    return true;
+                } else {
+                    current = rightChildren[current];
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds a new element to the tree, keeping it balanced
+     *
+     * @param element - element to add
+     */
+    public void add(T element) {
+        if (root == NONE) {
+            root = allocate(element, NONE, NONE);
+            size = 1;
+            return;
+        }
+
+        added = false;
+
+        // The root was split, the tree grows by one level
+        if (add(root, element)) {
+            root = allocate(splitElement, root, splitNode);
+        }
+
+        if (added) size++;
+    }
+
+    /**
+     * @return true, if the node was split, then splitElement and splitNode have to be put into the parent
+     */
+    private boolean add(int current, T element) {
+        int child;
+        int order = element.compareTo(left(current));
+        int rightOrder = rightElements[current] == null || order <= 0 ? -1 : element.compareTo(right(current));
+
+        // Element already exists
+        if (order == 0 || rightOrder == 0) {
+            return false;
+        }
+
+        if (isLeaf(current)) {
+            added = true;
+            return put(current, element, NONE);
+        }
+
+        if (order < 0) {
+            child = leftChildren[current];
+        } else if (rightOrder < 0) {
+            child = middleChildren[current];
+        } else {
+            child = rightChildren[current];
+        }
+
+        if (!add(child, element)) {
+            return false;
+        }
+
+        return put(current, splitElement, splitNode);
+    }
+
+    /**
+     * Puts an element into the node, right is the subtree following the element (NONE in the leaves).
+     * A node with two elements is split: it keeps the smallest element, the middle one goes up.
+     *
+     * @return true, if the node was split
+     */
+    private boolean put(int current, T element, int right) {
+        if (rightElements[current] == null) {
+            if (element.compareTo(left(current)) < 0) {
+                rightElements[current] = leftElements[current];
+                leftElements[current] = element;
+                rightChildren[current] = middleChildren[current];
+                middleChildren[current] = right;
+            } else {
+                rightElements[current] = element;
+                rightChildren[current] = right;
+            }
+            return false;
+        }
+
+        int sibling;
+
+        if (element.compareTo(left(current)) < 0) {
+            splitElement = left(current);
+            sibling = allocate(right(current), middleChildren[current], rightChildren[current]);
+            leftElements[current] = element;
+            middleChildren[current] = right;
+
+        } else if (element.compareTo(right(current)) < 0) {
+            splitElement = element;
+            sibling = allocate(right(current), right, rightChildren[current]);
+
+        } else {
+            splitElement = right(current);
+            sibling = allocate(element, rightChildren[current], right);
+        }
+
+        rightElements[current] = null;
+        rightChildren[current] = NONE;
+        splitNode = sibling;
+        return true;
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public boolean remove(T element) {
+        if (root == NONE || !remove(root, element)) {
+            return false;
+        }
+
+        // The root lost its last element, the tree shrinks by one level
+        if (leftElements[root] == null) {
+            int empty = root;
+            root = leftChildren[root];
+            release(empty);
+        }
+
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes the element from the subtree. A node left without elements is repaired by its parent.
+     *
+     * @return true, if the element was removed, otherwise false
+     */
+    private boolean remove(int current, T element) {
+        int order = element.compareTo(left(current));
+        int rightOrder = rightElements[current] == null || order <= 0 ? -1 : element.compareTo(right(current));
+
+        if (isLeaf(current)) {
+            if (order == 0) {
+                leftElements[current] = rightElements[current];
+                rightElements[current] = null;
+                return true;
+            }
+            if (rightOrder == 0) {
+                rightElements[current] = null;
+                return true;
+            }
+            return false;
+        }
+
+        int index;
+
+        // An element of an inner node is replaced by its predecessor, which is then removed from the leaf
+        if (order < 0) {
+            index = 0;
+        } else if (order == 0) {
+            element = max(leftChildren[current]);
+            leftElements[current] = element;
+            index = 0;
+        } else if (rightOrder < 0) {
+            index = 1;
+        } else if (rightOrder == 0) {
+            element = max(middleChildren[current]);
+            rightElements[current] = element;
+            index = 1;
+        } else {
+            index = 2;
+        }
+
+        int child = child(current, index);
+        if (!remove(child, element)) {
+            return false;
+        }
+
+        if (leftElements[child] == null) {
+            fix(current, index);
+        }
+        return true;
+    }
+
+    /**
+     * Repairs the descendant that was left without elements, either by borrowing an element
+     * of a neighbour with two elements or by merging with a neighbour with one element.
+     * A merge takes an element from the current node, which may in turn be left empty.
+     */
+    private void fix(int current, int index) {
+        int hole = child(current, index);
+        int elements = rightElements[current] == null ? 1 : 2;
+
+        if (index > 0 && rightElements[child(current, index - 1)] != null) {
+            int left = child(current, index - 1);
+            middleChildren[hole] = leftChildren[hole];
+            leftChildren[hole] = rightChildren[left];
+            leftElements[hole] = element(current, index - 1);
+            setElement(current, index - 1, right(left));
+            rightElements[left] = null;
+            rightChildren[left] = NONE;
+
+        } else if (index < elements && rightElements[child(current, index + 1)] != null) {
+            int right = child(current, index + 1);
+            leftElements[hole] = element(current, index);
+            middleChildren[hole] = leftChildren[right];
+            setElement(current, index, left(right));
+            leftElements[right] = rightElements[right];
+            rightElements[right] = null;
+            leftChildren[right] = middleChildren[right];
+            middleChildren[right] = rightChildren[right];
+            rightChildren[right] = NONE;
+
+        } else if (index > 0) {
+            int left = child(current, index - 1);
+            rightElements[left] = element(current, index - 1);
+            rightChildren[left] = leftChildren[hole];
+            removeChild(current, index);
+            release(hole);
+
+        } else {
+            int right = middleChildren[current];
+            leftElements[hole] = leftElements[current];
+            rightElements[hole] = leftElements[right];
+            middleChildren[hole] = leftChildren[right];
+            rightChildren[hole] = middleChildren[right];
+            removeChild(current, 1);
+            release(right);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private void removeChild(int current, int index) {
+        if (rightElements[current] != null) {
+            if (index == 1) {
+                leftElements[current] = rightElements[current];
+                middleChildren[current] = rightChildren[current];
+            }
+            rightElements[current] = null;
+            rightChildren[current] = NONE;
+        } else {
+            leftElements[current] = null;
+            middleChildren[current] = NONE;
+        }
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value, otherwise null
+     */
+    public T findMin() {
+        if (isEmpty()) return null;
+
+        int current = root;
+        while (!isLeaf(current)) {
+            current = leftChildren[current];
+        }
+        return left(current);
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value, otherwise null
+     */
+    public T findMax() {
+        if (isEmpty()) return null;
+        return max(root);
+    }
+
+    private T max(int current) {
+        while (!isLeaf(current)) {
+            current = rightElements[current] != null ? rightChildren[current] : middleChildren[current];
+        }
+        return rightElements[current] != null ? right(current) : left(current);
+    }
+
+    public void inOrder() {
+        if (!isEmpty()) {
+            inOrder(root);
+        } else {
+            System.out.print("The tree is empty...");
+        }
+    }
+
+    /**
+     * Method for displaying tree elements in the order of the method - "in-order"
+     */
+    private void inOrder(int current) {
+        if (current != NONE) {
+            inOrder(leftChildren[current]);
+            System.out.print(leftElements[current] + " ");
+            inOrder(middleChildren[current]);
+
+            if (rightElements[current] != null) {
+                System.out.print(rightElements[current] + " ");
+                inOrder(rightChildren[current]);
+            }
+        }
+    }
+
+    public void preOrder() {
+        if (!isEmpty()) {
+            preOrder(root);
+        } else {
+            System.out.print("The tree is empty...");
+        }
+    }
+
+    /**
+     * Method for displaying tree elements in the order of the method - "pre-order"
+     */
+    private void preOrder(int current) {
+        if (current != NONE) {
+            System.out.print(leftElements[current] + " ");
+            preOrder(leftChildren[current]);
+            preOrder(middleChildren[current]);
+
+            if (rightElements[current] != null) {
+                System.out.print(rightElements[current] + " ");
+                preOrder(rightChildren[current]);
+            }
+        }
+    }
+
+    public void postOrder() {
+        if (!isEmpty()) {
+            postOrder(root);
+        } else {
+            System.out.print("The tree is empty...");
+        }
+    }
+
+    /**
+     * Method for displaying tree elements in the order of the method - "post-order"
+     */
+    private void postOrder(int current) {
+        if (current != NONE) {
+            postOrder(leftChildren[current]);
+            postOrder(middleChildren[current]);
+            System.out.print(leftElements[current] + " ");
+
+            if (rightElements[current] != null) {
+                System.out.print(rightElements[current] + " ");
+                postOrder(rightChildren[current]);
+            }
+        }
+    }
+
+    /**
+     * Takes a node from the free list or from the end of the arrays, growing them when they are full
+     *
+     * @return identifier of a 2 node with the given element and descendants
+     */
+    private int allocate(T element, int leftChild, int middleChild) {
+        int node;
+
+        if (free != NONE) {
+            node = free;
+            free = leftChildren[node];
+        } else {
+            if (allocated + 1 == leftElements.length) {
+                grow();
+            }
+            node = ++allocated;
+        }
+
+        leftElements[node] = element;
+        rightElements[node] = null;
+        leftChildren[node] = leftChild;
+        middleChildren[node] = middleChild;
+        rightChildren[node] = NONE;
+        return node;
+    }
+
+    /**
+     * Puts the node on the free list, dropping the references to its elements
+     */
+    private void release(int node) {
+        leftElements[node] = null;
+        rightElements[node] = null;
+        middleChildren[node] = NONE;
+        rightChildren[node] = NONE;
+        leftChildren[node] = free;
+        free = node;
+    }
+
+    private void grow() {
+        int length = leftElements.length + (leftElements.length >> 1) + 1;
+        leftElements = Arrays.copyOf(leftElements, length);
+        rightElements = Arrays.copyOf(rightElements, length);
+        leftChildren = Arrays.copyOf(leftChildren, length);
+        middleChildren = Arrays.copyOf(middleChildren, length);
+        rightChildren = Arrays.copyOf(rightChildren, length);
+    }
+
+    private boolean isLeaf(int current) {
+        return leftChildren[current] == NONE;
+    }
+
+    private int child(int current, int index) {
+        return index == 0 ? leftChildren[current] : index == 1 ? middleChildren[current] : rightChildren[current];
+    }
+
+    private T element(int current, int index) {
+        return index == 0 ? left(current) : right(current);
+    }
+
+    private void setElement(int current, int index, T element) {
+        if (index == 0) {
+            leftElements[current] = element;
+        } else {
+            rightElements[current] = element;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T left(int current) {
+        return (T) leftElements[current];
+    }
+
+    @SuppressWarnings("unchecked")
+    private T right(int current) {
+        return (T) rightElements[current];
+    }
+}
@@ -0,0 +1,405 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Range-partitioned 2-3-tree: the key space is cut into consecutive ranges, every range is kept
+ * by its own {@link Operations} tree behind its own lock, so writes to different ranges do not wait for each other.
+ * <p>
+ * add, remove and search find the shard of the key by a binary search over the bounds of the ranges.
+ * The bounds move while the tree is used: when a shard grows or shrinks far from the average size, the bounds
+ * are shifted until the shards are even again. A bound moves by cutting the end of a range off with {@link Operations#split}
+ * and joining it to the neighbour with {@link Operations#join}, both in O(log n), under the locks of the two shards only.
+ * An empty sharded tree keeps all keys in the first shard, the ranges spread over the other shards as it fills.
+ * <p>
+ * The iterator walks the shards in order and takes the elements in small batches under the read lock of one shard,
+ * so it never blocks the writers for long. It is weakly consistent: it does not fail and does not repeat elements,
+ * but may or may not see the changes made during the walk.
+ */
+public class ShardedOperations<T extends Comparable<T>> implements Iterable<T> {
+
+    private static final int MIN_MOVE = 512;        // Smaller differences between neighbours are not worth a move
+    private static final int SCAN_BATCH = 256;      // Elements taken by the iterator under one lock
+
+    private static final class Shard<T extends Comparable<T>> {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        Operations<T> tree = new Operations<>();    // Guarded by the lock
+        volatile int size;                          // Read without the lock to decide about moves
+    }
+
+    private final Shard<T>[] shards;
+
+    // bounds[i] ends the range of shard i (exclusive) and starts the range of shard i + 1.
+    // null stands for no end, the nulls always come last. Changed under the locks of both shards, replaced as a whole.
+    private volatile Comparable[] bounds;
+
+    private final AtomicBoolean moving = new AtomicBoolean();   // One rebalance at a time
+
+    /**
+     * Sharded tree with two shards per processor
+     */
+    public ShardedOperations() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param shards - number of independent trees
+     */
+    public ShardedOperations(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is needed: " + shards);
+        }
+
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard<>();
+        }
+        this.bounds = new Comparable[shards - 1];
+    }
+
+    /**
+     * @return index of the shard whose range holds the element
+     */
+    private static int route(Comparable[] bounds, Comparable element) {
+        int low = 0;
+        int high = bounds.length;
+
+        // First bound above the element, null counts as larger than any element
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bounds[middle] == null || element.compareTo(bounds[middle]) < 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds a new element to the shard of its range
+     *
+     * @param element - element to add
+     * @return true, if the element was added, false if it was already in the tree
+     */
+    public boolean add(T element) {
+        while (true) {
+            int index = route(bounds, element);
+            Shard<T> shard = shards[index];
+            boolean added;
+
+            shard.lock.writeLock().lock();
+            try {
+                // The range may have moved before the lock was taken
+                if (route(bounds, element) != index) continue;
+
+                int before = shard.tree.size();
+                shard.tree.add(element);
+                shard.size = shard.tree.size();
+                added = shard.size != before;
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+
+            if (added) balance(index);
+            return added;
+        }
+    }
+
+    /**
+     * Method for removing an element from the tree
+     *
+     * @param element - element to remove
+     * @return true, if the element was removed, otherwise false
+     */
+    public boolean remove(T element) {
+        while (true) {
+            int index = route(bounds, element);
+            Shard<T> shard = shards[index];
+            boolean removed;
+
+            shard.lock.writeLock().lock();
+            try {
+                if (route(bounds, element) != index) continue;
+
+                removed = shard.tree.remove(element);
+                shard.size = shard.tree.size();
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+
+            if (removed) balance(index);
+            return removed;
+        }
+    }
+
+    /**
+     * Method for finding an element in a tree
+     *
+     * @param element - element to find
+     * @return true, if the element was found, otherwise false
+     */
+    public boolean search(T element) {
+        while (true) {
+            int index = route(bounds, element);
+            Shard<T> shard = shards[index];
+
+            shard.lock.readLock().lock();
+            try {
+                if (route(bounds, element) != index) continue;
+                return shard.tree.search(element);
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Check if the given element is in the tree
+     *
+     * @param element the element to check
+     * @return true, if the element is found, otherwise false
+     */
+    public boolean contains(T element) {
+        return search(element);
+    }
+
+    /**
+     * @return number of elements, the shards are counted one after another
+     */
+    public int size() {
+        int size = 0;
+        for (Shard<T> shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return true, the tree is empty, otherwise false
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return number of shards
+     */
+    public int shards() {
+        return shards.length;
+    }
+
+    /**
+     * Method for removing all elements from a tree, the bounds of the ranges stay
+     */
+    public void clear() {
+        for (Shard<T> shard : shards) {
+            shard.lock.writeLock().lock();
+            try {
+                shard.tree.clear();
+                shard.size = 0;
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Method for finding the minimum value
+     *
+     * @return minimum value, otherwise null
+     */
+    public T findMin() {
+        for (Shard<T> shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                if (!shard.tree.isEmpty()) return shard.tree.findMin();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method for finding the maximum value
+     *
+     * @return maximum value, otherwise null
+     */
+    public T findMax() {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            Shard<T> shard = shards[i];
+            shard.lock.readLock().lock();
+            try {
+                if (!shard.tree.isEmpty()) return shard.tree.findMax();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called after every change. The shard is compared with the average only when its size passes a multiple of MIN_MOVE,
+     * so the sizes of the other shards are not read on every call.
+     */
+    private void balance(int index) {
+        int size = shards[index].size;
+        if (size % MIN_MOVE != 0) return;
+
+        int average = size() / shards.length;
+        if (Math.abs(size - average) > MIN_MOVE + average / 2) rebalance();
+    }
+
+    /**
+     * Moves the bounds of the ranges so that every shard keeps about the same number of elements.
+     * The bounds are moved one at a time from left to right, each under the locks of its two shards,
+     * the other shards stay open for reads and writes. Called by the tree itself when the keys drift.
+     */
+    public void rebalance() {
+        if (!moving.compareAndSet(false, true)) return; // Another thread is already at it
+
+        try {
+            long total = size();
+            long before = 0;    // Elements left of the bound
+
+            for (int i = 0; i < shards.length - 1; i++) {
+                before += shards[i].size;
+
+                // Elements that have to cross the bound to the right, negative for the left
+                long flow = before - total * (i + 1) / shards.length;
+                if (flow > MIN_MOVE) {
+                    before -= move(i, i + 1, flow);
+                } else if (flow < -MIN_MOVE) {
+                    before += move(i + 1, i, -flow);
+                }
+            }
+        } finally {
+            moving.set(false);
+        }
+    }
+
+    /**
+     * Hands elements from one shard to its neighbour, the elements next to the common bound change sides
+     *
+     * @return number of elements moved, at most all elements of the shard
+     */
+    private int move(int from, int to, long count) {
+        // The locks are always taken from left to right
+        Shard<T> first = shards[Math.min(from, to)];
+        Shard<T> second = shards[Math.max(from, to)];
+
+        first.lock.writeLock().lock();
+        second.lock.writeLock().lock();
+        try {
+            Shard<T> source = shards[from];
+            Shard<T> target = shards[to];
+            Comparable[] moved = bounds.clone();
+            int size = source.tree.size();
+
+            if (to > from) {
+                // The largest elements go to the right neighbour
+                int taken = (int) Math.min(count, size);
+                if (taken == 0) return 0;
+
+                T cut = source.tree.select(size - taken);
+                target.tree.join(source.tree.split(cut));
+                moved[from] = cut;
+            } else {
+                // The smallest elements go to the left neighbour, the largest one stays to mark the bound
+                int taken = (int) Math.min(count, size - 1);
+                if (taken <= 0) return 0;
+
+                T cut = source.tree.select(taken);
+                Operations<T> head = source.tree;
+                source.tree = head.split(cut);
+                target.tree.join(head);
+                moved[to] = cut;
+            }
+
+            int change = size - source.tree.size();
+            source.size = source.tree.size();
+            target.size = target.tree.size();
+            bounds = moved;
+            return change;
+        } finally {
+            second.lock.writeLock().unlock();
+            first.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return weakly consistent iterator over the elements in ascending order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new ScanIterator();
+    }
+
+    /**
+     * Takes the elements after the last one seen, a batch at a time, from the shard whose range holds them.
+     * <p>
+     * The shard is found again for every batch and checked under its lock, like by add. When the shard has nothing
+     * after the position, the walk goes on at the end bound of its range, read under the same lock:
+     * elements moved across a bound in between are found in whichever shard holds them then.
+     */
+    private final class ScanIterator implements Iterator<T> {
+        private final Comparable[] batch = new Comparable[SCAN_BATCH];
+        private int position;
+        private int count;
+        private T from;             // Elements from here on are still to come, null before the first one
+        private boolean inclusive;  // True, if the element equal to from is still to come
+        private boolean finished;
+
+        @Override
+        public boolean hasNext() {
+            if (position == count && !finished) fill();
+            return position < count;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return (T) batch[position++];
+        }
+
+        private void fill() {
+            position = 0;
+            count = 0;
+
+            while (count == 0) {
+                int index = from == null ? 0 : route(bounds, from);
+                Shard<T> shard = shards[index];
+                Comparable end;
+
+                shard.lock.readLock().lock();
+                try {
+                    // The range may have moved before the lock was taken
+                    if (from != null && route(bounds, from) != index) continue;
+
+                    Iterator<T> elements = from == null ? shard.tree.iterator() : shard.tree.tailSet(from, inclusive).iterator();
+                    while (count < batch.length && elements.hasNext()) {
+                        batch[count++] = elements.next();
+                    }
+                    end = index < bounds.length ? bounds[index] : null;
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+
+                if (count == 0) {
+                    // Nothing left in the range, the next one starts at its end bound
+                    if (end == null) {
+                        finished = true;
+                        return;
+                    }
+                    from = (T) end;
+                    inclusive = true;
+                }
+            }
+
+            from = (T) batch[count - 1];
+            inclusive = false;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Join, split and the set operations built on them, for trees of {@link Node}.
+ * <p>
+ * join(left, element, right) puts two trees with the element between them together in O(|h(left) - h(right)| + 1),
+ * split(tree, key) cuts a tree at a key in O(log n). union, intersection and difference divide the first tree
+ * at its root, split the second one at the root element, solve both halves in parallel on a ForkJoinPool
+ * and join the results, which takes O(m log(n / m + 1)) work for trees of m and n elements, m &lt;= n.
+ * <p>
+ * Nothing here changes an existing node: a node on a changed path is copied, the rest is shared,
+ * so the trees given to these methods stay valid and can be read by several threads at once.
+ * The heights travel with the roots ({@link Tree}), so a join never has to measure a tree.
+ */
+final class TreeAlgebra {
+
+    static final int UNION = 0;
+    static final int INTERSECTION = 1;
+    static final int DIFFERENCE = 2;
+
+    private static final int PARALLEL_GRAIN = 1 << 13;  // Smaller pairs of subtrees are solved in the current thread
+
+    /**
+     * Root of a tree together with its height, 0 for the empty tree and 1 for a single leaf
+     */
+    static final class Tree {
+        static final Tree EMPTY = new Tree(null, 0);
+
+        final Node root;
+        final int height;
+
+        Tree(Node root, int height) {
+            this.root = root;
+            this.height = height;
+        }
+
+        /**
+         * @param root - root of a valid tree, null or a node without elements for the empty tree
+         */
+        static Tree of(Node root) {
+            if (root == null || root.leftElement == null) return EMPTY;
+
+            int height = 1;
+            for (Node current = root; current.leftChild != null; current = current.leftChild) {
+                height++;
+            }
+            return new Tree(root, height);
+        }
+
+        private static Tree of(Node root, int height) {
+            return root == null ? EMPTY : new Tree(root, height);
+        }
+
+        int size() {
+            return Node.count(root);
+        }
+    }
+
+    /**
+     * Result of a split: the elements below the key, above it, and whether the key itself was there
+     */
+    static final class Split {
+        Tree left;
+        boolean found;
+        Comparable element;     // The element equal to the key, if it was found
+        Tree right;
+
+        Split(Tree left, boolean found, Tree right) {
+            this.left = left;
+            this.found = found;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Carries a split of a node up to its parent during a join
+     */
+    private static final class Carry {
+        boolean split;              // The returned node is the left half, element and right have to be put into the parent
+        Comparable element;
+        Node right;
+    }
+
+    private TreeAlgebra() {
+    }
+
+    /**
+     * @param left    - tree with elements smaller than the element
+     * @param element - element between the trees
+     * @param right   - tree with elements larger than the element
+     * @return tree with the elements of both trees and the element
+     */
+    static Tree join(Tree left, Comparable element, Tree right) {
+        if (left.height == right.height) {
+            return new Tree(node(element, null, left.root, right.root, null), left.height + 1);
+        }
+
+        Carry carry = new Carry();
+        Node root;
+        int height;
+
+        // The lower tree is hung on the edge of the higher one, at the level of its own root
+        if (left.height > right.height) {
+            root = joinRight(left.root, left.height, element, right.root, right.height, carry);
+            height = left.height;
+        } else {
+            root = joinLeft(right.root, right.height, left.root, left.height, element, carry);
+            height = right.height;
+        }
+
+        // The root was split, the tree grows by one level
+        if (carry.split) {
+            return new Tree(node(carry.element, null, root, carry.right, null), height + 1);
+        }
+        return new Tree(root, height);
+    }
+
+    /**
+     * @return tree with the elements of both trees, all elements of the left one are smaller
+     */
+    static Tree join(Tree left, Tree right) {
+        if (left.root == null) return right;
+        if (right.root == null) return left;
+
+        // The largest element of the left tree goes between them
+        Comparable[] last = new Comparable[1];
+        Tree rest = removeLast(left, last);
+        return join(rest, last[0], right);
+    }
+
+    /**
+     * @return new version of the node with the element and the tree of the given height added after its largest element
+     */
+    private static Node joinRight(Node current, int height, Comparable element, Node right, int rightHeight, Carry carry) {
+        int last = current.rightElement == null ? 1 : 2;
+
+        if (height == rightHeight + 1) {
+            return put(current, last, element, child(current, last), right, carry);
+        }
+
+        Node child = joinRight(child(current, last), height - 1, element, right, rightHeight, carry);
+        if (!carry.split) {
+            return replace(current, last, child);
+        }
+
+        carry.split = false;
+        return put(current, last, carry.element, child, carry.right, carry);
+    }
+
+    /**
+     * @return new version of the node with the tree of the given height and the element added before its smallest element
+     */
+    private static Node joinLeft(Node current, int height, Node left, int leftHeight, Comparable element, Carry carry) {
+        if (height == leftHeight + 1) {
+            return put(current, 0, element, left, current.leftChild, carry);
+        }
+
+        Node child = joinLeft(current.leftChild, height - 1, left, leftHeight, element, carry);
+        if (!carry.split) {
+            return replace(current, 0, child);
+        }
+
+        carry.split = false;
+        return put(current, 0, carry.element, child, carry.right, carry);
+    }
+
+    /**
+     * @return the tree without its largest element, which is left in last[0]
+     */
+    private static Tree removeLast(Tree tree, Comparable[] last) {
+        Node root = tree.root;
+        Tree left = Tree.of(root.leftChild, tree.height - 1);
+
+        if (root.leftChild == null) {
+            if (root.rightElement == null) {
+                last[0] = root.leftElement;
+                return Tree.EMPTY;
+            }
+            last[0] = root.rightElement;
+            return new Tree(node(root.leftElement, null, null, null, null), 1);
+        }
+
+        Tree rest = removeLast(right(tree), last);
+        return join(left, root.leftElement, rest);
+    }
+
+    /**
+     * @param comparator - order of the elements, null for their natural ordering
+     * @return the elements of the tree below and above the key
+     */
+    static Split split(Tree tree, Comparable key, Comparator comparator) {
+        Node root = tree.root;
+        if (root == null) {
+            return new Split(Tree.EMPTY, false, Tree.EMPTY);
+        }
+
+        Tree left = Tree.of(root.leftChild, tree.height - 1);
+        int order = comparator == null ? key.compareTo(root.leftElement) : comparator.compare(key, root.leftElement);
+
+        if (order == 0) {
+            Split split = new Split(left, true, right(tree));
+            split.element = root.leftElement;
+            return split;
+        } else if (order < 0) {
+            Split split = split(left, key, comparator);
+            split.right = join(split.right, root.leftElement, right(tree));
+            return split;
+        } else {
+            Split split = split(right(tree), key, comparator);
+            split.left = join(left, root.leftElement, split.left);
+            return split;
+        }
+    }
+
+    /**
+     * @return the part of the tree after the left element of the root: the middle descendant of a 2 node,
+     * a new 2 node with the right element for a 3 node
+     */
+    private static Tree right(Tree tree) {
+        Node root = tree.root;
+        if (root.rightElement == null) {
+            return Tree.of(root.middleChild, tree.height - 1);
+        }
+        return new Tree(node(root.rightElement, null, root.middleChild, root.rightChild, null), tree.height);
+    }
+
+    /**
+     * @param operation  - UNION, INTERSECTION or DIFFERENCE
+     * @param first      - first tree, its parts may be shared with the result
+     * @param second     - second tree, it is copied where it ends up in a union
+     * @param comparator - order of the elements, null for their natural ordering
+     * @return result of the operation
+     */
+    static Tree apply(int operation, Tree first, Tree second, Comparator comparator) {
+        return ForkJoinPool.commonPool().invoke(new SetTask(operation, first, second, comparator));
+    }
+
+    /**
+     * One step of a set operation: the first tree is divided at the left element of its root, the second is split there
+     */
+    @SuppressWarnings("serial") // Never serialized
+    private static final class SetTask extends RecursiveTask<Tree> {
+        private final int operation;
+        private final Tree first;
+        private final Tree second;
+        private final Comparator comparator;
+
+        SetTask(int operation, Tree first, Tree second, Comparator comparator) {
+            this.operation = operation;
+            this.first = first;
+            this.second = second;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected Tree compute() {
+            return compute(first, second, true);
+        }
+
+        private Tree compute(Tree first, Tree second, boolean parallel) {
+            if (first.root == null) {
+                return operation == UNION ? copy(second) : Tree.EMPTY;
+            }
+            if (second.root == null) {
+                return operation == INTERSECTION ? Tree.EMPTY : first;
+            }
+
+            Node root = first.root;
+            Comparable element = root.leftElement;
+            Tree firstLeft = Tree.of(root.leftChild, first.height - 1);
+            Tree firstRight = right(first);
+            Split split = split(second, element, comparator);
+
+            Tree left;
+            Tree right;
+            if (parallel && first.size() + second.size() >= PARALLEL_GRAIN) {
+                SetTask task = new SetTask(operation, firstLeft, split.left, comparator);
+                task.fork();
+                right = compute(firstRight, split.right, true);
+                left = task.join();
+            } else {
+                left = compute(firstLeft, split.left, false);
+                right = compute(firstRight, split.right, false);
+            }
+
+            // The element stays, if it is in the union, in both trees, or only in the first one
+            boolean keep = operation == UNION || (operation == INTERSECTION) == split.found;
+            return keep ? TreeAlgebra.join(left, element, right) : TreeAlgebra.join(left, right);
+        }
+    }
+
+    /**
+     * @return balanced tree of the sorted elements, the halves around the middle one are built and joined
+     */
+    static Tree build(Comparable[] sorted, int from, int to) {
+        if (from == to) return Tree.EMPTY;
+
+        int middle = (from + to) >>> 1;
+        return join(build(sorted, from, middle), sorted[middle], build(sorted, middle + 1, to));
+    }
+
+    /**
+     * @return tree with the same elements and no node shared with the given one
+     */
+    static Tree copy(Tree tree) {
+        return new Tree(copy(tree.root), tree.height);
+    }
+
+    private static Node copy(Node current) {
+        if (current == null) return null;
+        return node(current.leftElement, current.rightElement,
+                copy(current.leftChild), copy(current.middleChild), copy(current.rightChild));
+    }
+
+    /**
+     * Builds the node with the element put before the descendant with the given index,
+     * whose place is taken by left and right (null in the leaves).
+     * A node with two elements is split: the returned node keeps the smallest element,
+     * the middle one and the right half are left in the carry.
+     */
+    private static Node put(Node current, int index, Comparable element, Node left, Node right, Carry carry) {
+        Comparable a = current.leftElement;
+        Comparable b = current.rightElement;
+        Node first = current.leftChild;
+        Node second = current.middleChild;
+        Node third = current.rightChild;
+
+        if (b == null) {
+            return index == 0
+                    ? node(element, a, left, right, second)
+                    : node(a, element, first, left, right);
+        }
+
+        carry.split = true;
+        if (index == 0) {
+            carry.element = a;
+            carry.right = node(b, null, second, third, null);
+            return node(element, null, left, right, null);
+        } else if (index == 1) {
+            carry.element = element;
+            carry.right = node(b, null, right, third, null);
+            return node(a, null, first, left, null);
+        } else {
+            carry.element = b;
+            carry.right = node(element, null, left, right, null);
+            return node(a, null, first, second, null);
+        }
+    }
+
+    /**
+     * @return copy of the node with another descendant at the given index
+     */
+    private static Node replace(Node current, int index, Node child) {
+        return node(current.leftElement, current.rightElement,
+                index == 0 ? child : current.leftChild,
+                index == 1 ? child : current.middleChild,
+                index == 2 ? child : current.rightChild);
+    }
+
+    private static Node child(Node current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    private static Node node(Comparable leftElement, Comparable rightElement, Node leftChild, Node middleChild, Node rightChild) {
+        Node node = new Node(leftElement, rightElement, leftChild, middleChild);
+        if (rightChild != null) {
+            node.rightChild = rightChild;
+            node.recount();
+        }
+        return node;
+    }
+}
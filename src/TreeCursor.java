@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * In-order walk over the nodes of a tree with an explicit stack, no recursion and no allocation per element.
+ * <p>
+ * The positions inside a node are numbered as slots: even slots are descendants, odd slots are elements,
+ * so a node with k elements has the slots 0 .. 2k (left child, left element, middle child, right element, right child).
+ * A cursor walks a range of slots of one node, including everything below the descendants in the range.
+ */
+final class TreeCursor<T extends Comparable<T>> {
+
+    private Node[] nodes;       // Nodes on the path from the first node down to the current one
+    private int[] slots;        // Next slot to visit in every node of the path
+    private int depth;          // Nodes on the path
+    private int end;            // End of the slot range of the first node, exclusive
+
+    /**
+     * @param node - first node, may be null or empty
+     * @param from - first slot to visit
+     * @param to   - end of the slots to visit, exclusive
+     */
+    TreeCursor(Node node, int from, int to) {
+        this.nodes = new Node[16];
+        this.slots = new int[16];
+        reset(node, from, to);
+    }
+
+    /**
+     * Starts over with the given range of slots
+     */
+    void reset(Node node, int from, int to) {
+        depth = 0;
+        end = to;
+        if (node != null && node.leftElement != null) {
+            nodes[0] = node;
+            slots[0] = from;
+            depth = 1;
+        }
+    }
+
+    /**
+     * Starts over at the first element of the tree that is not below the bound
+     *
+     * @param root       - root of the tree, may be null or empty
+     * @param from       - lower bound, null to start at the smallest element
+     * @param inclusive  - true, if an element equal to the bound is taken, otherwise false
+     * @param comparator - order of the tree, null for the natural ordering of the elements
+     */
+    void seek(Node root, T from, boolean inclusive, Comparator<? super T> comparator) {
+        if (from == null || root == null) {
+            reset(root, 0, root == null ? 0 : slots(root));
+            return;
+        }
+
+        depth = 0;
+        Node current = root;
+
+        while (current != null && current.leftElement != null) {
+            Node next = current.rightElement == null ? current.middleChild : current.rightChild;
+
+            for (int i = 0; i < 2; i++) {
+                T element = (T) (i == 0 ? current.leftElement : current.rightElement);
+                if (element == null) {
+                    break;
+                }
+
+                int order = comparator == null ? element.compareTo(from) : comparator.compare(element, from);
+                if (order > 0 || (order == 0 && inclusive)) {
+                    // The walk goes on with this element after the descendant before it
+                    if (depth == 0) {
+                        end = slots(current);
+                    }
+                    push(current, 2 * i + 1);
+                    next = order == 0 ? null : child(current, i);
+                    break;
+                }
+            }
+
+            current = next;
+        }
+    }
+
+    /**
+     * Puts the node on top of the path, the walk continues in the node at the given slot
+     */
+    void push(Node node, int slot) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            slots = Arrays.copyOf(slots, depth * 2);
+        }
+        nodes[depth] = node;
+        slots[depth] = slot;
+        depth++;
+    }
+
+    /**
+     * @return the next element in order, null if the walk is over
+     */
+    T next() {
+        while (depth > 0) {
+            int top = depth - 1;
+            Node node = nodes[top];
+            int slot = slots[top];
+
+            if (slot >= (top == 0 ? end : slots(node))) {
+                nodes[top] = null;
+                depth--;
+                continue;
+            }
+
+            slots[top] = slot + 1;
+            if ((slot & 1) == 1) {
+                return (T) (slot == 1 ? node.leftElement : node.rightElement);
+            }
+
+            Node child = child(node, slot >> 1);
+            if (child != null && child.leftElement != null) {
+                push(child, 0);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return number of slots of the node, 2k + 1 for k elements
+     */
+    static int slots(Node node) {
+        return node.leftElement == null ? 0 : node.rightElement == null ? 3 : 5;
+    }
+
+    static Node child(Node node, int index) {
+        return index == 0 ? node.leftChild : index == 1 ? node.middleChild : node.rightChild;
+    }
+}
@@ -0,0 +1,297 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of an {@link InstrumentedOperations}: operation counts, latency histograms per operation,
+ * the work done inside the tree and its shape.
+ * <p>
+ * The work inside the tree - compareTo calls, node splits and repairs after removals - is counted by
+ * {@link Operations} and {@link Node} themselves, into counters of the current thread, and only if the JVM runs with
+ * {@code -Dtwothree.metrics=true}. The switch is a static final constant, so without it the JIT drops the counting
+ * and the tree runs exactly as before. Operation counts and latencies are recorded by the wrapper in any case.
+ * <p>
+ * The metrics can be read directly, registered as an MXBean, pushed to any metrics system through a {@link Sink},
+ * or dumped as text with {@link #summary()}.
+ * <p>
+ * The shape of the tree - 2 and 3 nodes, fill ratio and memory - takes a walk over all nodes under the lock
+ * of the tree, see {@link Operations#stats()}. It is collected at most once per {@link #SHAPE_TTL_NANOS}
+ * and shared by all getters, so a poller reading every metric stalls the tree for one walk, not for one per metric.
+ */
+public final class TreeMetrics implements TreeMetricsMXBean {
+
+    /**
+     * Counting of the work inside the tree, read once from the system property twothree.metrics
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("twothree.metrics");
+
+    /**
+     * How long a collected shape of the tree is served before it is collected again
+     */
+    public static final long SHAPE_TTL_NANOS = 1_000_000_000L;
+
+    static final int ADD = 0;
+    static final int REMOVE = 1;
+    static final int SEARCH = 2;
+    private static final String[] NAMES = {"add", "remove", "search"};
+
+    /**
+     * Counters of the current thread, the tree counts into them without synchronization
+     */
+    static final class Probe {
+        long comparisons;
+        long splits;
+        long rebalances;
+    }
+
+    private static final ThreadLocal<Probe> PROBES = ThreadLocal.withInitial(Probe::new);
+
+    /**
+     * Receives the metrics by name, for example to put them into a metrics registry
+     */
+    public interface Sink {
+        void value(String name, double value);
+    }
+
+    private final InstrumentedOperations<?> tree;
+    private final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder rebalances = new LongAdder();
+
+    private volatile TreeStats shape;   // Last collected shape of the tree, null before the first poll
+    private volatile long shapeTaken;   // System.nanoTime() when it was collected
+
+    TreeMetrics(InstrumentedOperations<?> tree) {
+        this.tree = tree;
+    }
+
+    static Probe probe() {
+        return PROBES.get();
+    }
+
+    /**
+     * @return shape of the tree, collected at most SHAPE_TTL_NANOS ago
+     */
+    public TreeStats shape() {
+        TreeStats current = shape;
+        long now = System.nanoTime();
+        if (current == null || now - shapeTaken >= SHAPE_TTL_NANOS) {
+            current = tree.stats();
+            shape = current;
+            shapeTaken = now;
+        }
+        return current;
+    }
+
+    /**
+     * Adds what the operation did to the metrics
+     *
+     * @param operation   - ADD, REMOVE or SEARCH
+     * @param nanos       - duration of the operation
+     * @param comparisons - comparison counter of the current thread before the operation, likewise the splits and rebalances
+     */
+    void record(int operation, long nanos, long comparisons, long splits, long rebalances) {
+        latencies[operation].record(nanos);
+
+        if (ENABLED) {
+            Probe probe = probe();
+            this.comparisons.add(probe.comparisons - comparisons);
+            this.splits.add(probe.splits - splits);
+            this.rebalances.add(probe.rebalances - rebalances);
+        }
+    }
+
+    /**
+     * @return histogram of the durations of an operation: "add", "remove" or "search"
+     */
+    public LatencyHistogram latency(String operation) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(operation)) return latencies[i];
+        }
+        throw new IllegalArgumentException("Unknown operation: " + operation);
+    }
+
+    @Override
+    public long getAdds() {
+        return latencies[ADD].count();
+    }
+
+    @Override
+    public long getRemoves() {
+        return latencies[REMOVE].count();
+    }
+
+    @Override
+    public long getSearches() {
+        return latencies[SEARCH].count();
+    }
+
+    private long operations() {
+        return getAdds() + getRemoves() + getSearches();
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    @Override
+    public double getComparisonsPerOperation() {
+        long operations = operations();
+        return operations == 0 ? 0 : (double) comparisons.sum() / operations;
+    }
+
+    @Override
+    public long getSplits() {
+        return splits.sum();
+    }
+
+    @Override
+    public long getRebalances() {
+        return rebalances.sum();
+    }
+
+    @Override
+    public int getHeight() {
+        return tree.height();
+    }
+
+    @Override
+    public int getTwoNodes() {
+        return shape().twoNodes();
+    }
+
+    @Override
+    public int getThreeNodes() {
+        return shape().threeNodes();
+    }
+
+    @Override
+    public double getFillRatio() {
+        return shape().fillRatio();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return shape().memoryBytes();
+    }
+
+    @Override
+    public long getLatencyMedianNanos() {
+        return worst(50);
+    }
+
+    @Override
+    public long getLatency99Nanos() {
+        return worst(99);
+    }
+
+    @Override
+    public long getLatency999Nanos() {
+        return worst(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+        long max = 0;
+        for (LatencyHistogram latency : latencies) {
+            max = Math.max(max, latency.max());
+        }
+        return max;
+    }
+
+    /**
+     * @return the percentile of the slowest kind of operation
+     */
+    private long worst(double percentile) {
+        long worst = 0;
+        for (LatencyHistogram latency : latencies) {
+            worst = Math.max(worst, latency.percentile(percentile));
+        }
+        return worst;
+    }
+
+    @Override
+    public String getSummary() {
+        return summary();
+    }
+
+    /**
+     * Starts all counters and histograms from zero, the shape of the tree stays
+     */
+    @Override
+    public void reset() {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+        comparisons.reset();
+        splits.reset();
+        rebalances.reset();
+    }
+
+    /**
+     * Hands every metric to the sink, names like "add.count", "add.p99" or "tree.height", latencies in nanoseconds
+     */
+    public void publish(Sink sink) {
+        for (int i = 0; i < NAMES.length; i++) {
+            LatencyHistogram latency = latencies[i];
+            sink.value(NAMES[i] + ".count", latency.count());
+            sink.value(NAMES[i] + ".mean", latency.mean());
+            sink.value(NAMES[i] + ".p50", latency.percentile(50));
+            sink.value(NAMES[i] + ".p99", latency.percentile(99));
+            sink.value(NAMES[i] + ".p999", latency.percentile(99.9));
+            sink.value(NAMES[i] + ".max", latency.max());
+        }
+
+        TreeStats stats = shape();
+        sink.value("work.comparisons", getComparisons());
+        sink.value("work.comparisonsPerOperation", getComparisonsPerOperation());
+        sink.value("work.splits", getSplits());
+        sink.value("work.rebalances", getRebalances());
+        sink.value("tree.size", tree.size());
+        sink.value("tree.height", tree.height());
+        sink.value("tree.twoNodes", stats.twoNodes());
+        sink.value("tree.threeNodes", stats.threeNodes());
+        sink.value("tree.fillRatio", stats.fillRatio());
+        sink.value("tree.memoryBytes", stats.memoryBytes());
+    }
+
+    /**
+     * @return the metrics as text, one line per operation and one for the tree
+     */
+    public String summary() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            LatencyHistogram latency = latencies[i];
+            text.append(String.format("%-7s %12d ops   mean %8.0f ns   p50 %8d   p99 %8d   p99.9 %8d   max %10d ns%n",
+                    NAMES[i], latency.count(), latency.mean(), latency.percentile(50),
+                    latency.percentile(99), latency.percentile(99.9), latency.max()));
+        }
+
+        if (ENABLED) {
+            text.append(String.format("work    %12d comparisons (%.1f per operation), %d splits, %d rebalances%n",
+                    getComparisons(), getComparisonsPerOperation(), getSplits(), getRebalances()));
+        } else {
+            text.append(String.format("work    not counted, run with -Dtwothree.metrics=true%n"));
+        }
+
+        TreeStats stats = shape();
+        text.append(String.format("tree    %12d elements, height %d, %d 2 nodes, %d 3 nodes, fill %.3f, about %d bytes%n",
+                tree.size(), tree.height(), stats.twoNodes(), stats.threeNodes(), stats.fillRatio(), stats.memoryBytes()));
+        return text.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     *
+     * @param name - name of the tree, part of the object name twothree:type=Tree,name=...
+     * @return name under which the metrics are registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("twothree:type=Tree,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Management interface of {@link TreeMetrics}, as it is seen through JMX
+ */
+public interface TreeMetricsMXBean {
+
+    long getAdds();
+
+    long getRemoves();
+
+    long getSearches();
+
+    /**
+     * @return compareTo calls made by all operations, 0 unless the metrics are enabled
+     */
+    long getComparisons();
+
+    double getComparisonsPerOperation();
+
+    /**
+     * @return nodes split by additions, 0 unless the metrics are enabled
+     */
+    long getSplits();
+
+    /**
+     * @return repairs of nodes left without elements by removals, 0 unless the metrics are enabled
+     */
+    long getRebalances();
+
+    int getHeight();
+
+    /**
+     * @return 2 nodes of the tree, like the other shape metrics at most {@link TreeMetrics#SHAPE_TTL_NANOS} old
+     */
+    int getTwoNodes();
+
+    int getThreeNodes();
+
+    /**
+     * @return used element slots of all nodes, from 0.5 to 1.0
+     */
+    double getFillRatio();
+
+    /**
+     * @return estimated bytes taken by the nodes, without the elements
+     */
+    long getMemoryBytes();
+
+    long getLatencyMedianNanos();
+
+    long getLatency99Nanos();
+
+    long getLatency999Nanos();
+
+    long getLatencyMaxNanos();
+
+    String getSummary();
+
+    void reset();
+}
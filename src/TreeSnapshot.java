@@ -0,0 +1,150 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of an {@link Operations} tree, for moving trees between processes.
+ * <p>
+ * Layout: magic number, format version, name of the key codec, number of keys, the keys in the order of the tree
+ * as written by the {@link KeyCodec}, and a CRC32 of all bytes before it.
+ * <p>
+ * Writing walks the tree once and streams the keys out through a small buffer.
+ * Reading decodes the keys into an array and builds the tree bottom-up from it in O(n),
+ * instead of adding the keys one by one. In both directions the encoded snapshot is never kept in memory as a whole.
+ */
+public final class TreeSnapshot {
+
+    private static final int MAGIC = 0x32335453;       // "23TS"
+    private static final int VERSION = 1;
+
+    private static final int BUFFER = 1 << 16;
+    private static final int FIRST_CAPACITY = 1 << 16;  // The declared size is not trusted before the checksum is read
+
+    private TreeSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of the tree, the stream is flushed but stays open
+     *
+     * @param tree  - tree to write, must not change during the call
+     * @param codec - codec of the keys
+     * @param out   - destination of the snapshot
+     */
+    public static <T extends Comparable<T>> void write(Operations<T> tree, KeyCodec<T> codec, OutputStream out) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out, BUFFER), new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(codec.name());
+        data.writeInt(tree.size());
+
+        T previous = null;
+        for (T key : tree) {
+            codec.write(previous, key, data);
+            previous = key;
+        }
+
+        data.writeInt((int) checked.getChecksum().getValue());
+        data.flush();
+    }
+
+    /**
+     * Writes the snapshot of the tree at the current position of the channel, for example of a FileChannel
+     */
+    public static <T extends Comparable<T>> void write(Operations<T> tree, KeyCodec<T> codec, WritableByteChannel channel) throws IOException {
+        write(tree, codec, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Reads a snapshot and builds the tree from it.
+     * The stream is read ahead in blocks, so the snapshot has to be the last thing in it.
+     *
+     * @param in    - source of the snapshot, stays open
+     * @param codec - codec the snapshot was written with
+     * @return tree with the keys of the snapshot
+     * @throws IOException if the stream does not hold a snapshot written with the codec, or the snapshot is damaged
+     */
+    public static <T extends Comparable<T>> Operations<T> read(InputStream in, KeyCodec<T> codec) throws IOException {
+        return read(in, codec, null);
+    }
+
+    /**
+     * Reads a snapshot of a tree with its own order and builds the tree from it
+     *
+     * @param in         - source of the snapshot, stays open
+     * @param codec      - codec the snapshot was written with
+     * @param comparator - order of the tree the snapshot was written from, null for the natural ordering of the keys
+     * @return tree with the keys of the snapshot, in the order of the comparator
+     * @throws IOException if the stream does not hold a snapshot written with the codec, or the snapshot is damaged
+     */
+    public static <T extends Comparable<T>> Operations<T> read(InputStream in, KeyCodec<T> codec,
+                                                               Comparator<? super T> comparator) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in, BUFFER), new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a tree snapshot");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        String name = data.readUTF();
+        if (!name.equals(codec.name())) {
+            throw new IOException("The snapshot holds keys of codec " + name + ", not " + codec.name());
+        }
+        int size = data.readInt();
+        if (size < 0) {
+            throw new IOException("Snapshot is damaged: negative size " + size);
+        }
+
+        Comparable[] keys = new Comparable[Math.min(size, FIRST_CAPACITY)];
+        T previous = null;
+        for (int i = 0; i < size; i++) {
+            if (i == keys.length) {
+                keys = Arrays.copyOf(keys, (int) Math.min(size, 2L * keys.length));
+            }
+            previous = codec.read(previous, data);
+            keys[i] = previous;
+        }
+
+        int expected = (int) checked.getChecksum().getValue();
+        if (data.readInt() != expected) {
+            throw new IOException("Snapshot is damaged: checksum does not match");
+        }
+
+        try {
+            return new Operations<>((T[]) keys, Operations.DEFAULT_FILL_FACTOR, comparator);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Snapshot is damaged: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a snapshot from the current position of the channel, for example of a FileChannel
+     */
+    public static <T extends Comparable<T>> Operations<T> read(ReadableByteChannel channel, KeyCodec<T> codec) throws IOException {
+        return read(Channels.newInputStream(channel), codec);
+    }
+
+    /**
+     * Reads a snapshot of a tree with its own order from the current position of the channel
+     */
+    public static <T extends Comparable<T>> Operations<T> read(ReadableByteChannel channel, KeyCodec<T> codec,
+                                                               Comparator<? super T> comparator) throws IOException {
+        return read(Channels.newInputStream(channel), codec, comparator);
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Shape of a tree at one moment, collected by {@link Operations#stats()} in a single walk:
+ * height, nodes of each kind, how full they are and roughly how much memory they take, in total and per level.
+ * <p>
+ * Level 0 is the root, level height - 1 holds the leaves.
+ * Collecting it costs a walk over the whole tree, so it is meant for diagnostics, not for polling on every request.
+ */
+public final class TreeStats {
+
+    /**
+     * Estimated size of a node with compressed references: 12 bytes of header, 5 references and the count,
+     * rounded up to 8 bytes. The elements themselves are not counted, they belong to the caller.
+     */
+    static final int NODE_BYTES = 40;
+
+    private final int size;
+    private final int[] nodes;          // Nodes per level
+    private final int[] threeNodes;     // 3 nodes per level
+
+    TreeStats(int size, int[] nodes, int[] threeNodes) {
+        this.size = size;
+        this.nodes = nodes;
+        this.threeNodes = threeNodes;
+    }
+
+    /**
+     * @return number of elements
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of levels, 0 for the empty tree
+     */
+    public int height() {
+        return nodes.length;
+    }
+
+    /**
+     * @return number of nodes
+     */
+    public int nodes() {
+        return sum(nodes);
+    }
+
+    /**
+     * @return number of nodes with one element
+     */
+    public int twoNodes() {
+        return nodes() - threeNodes();
+    }
+
+    /**
+     * @return number of nodes with two elements
+     */
+    public int threeNodes() {
+        return sum(threeNodes);
+    }
+
+    /**
+     * @return used element slots of all nodes, from 0.5 (only 2 nodes) to 1.0 (only 3 nodes), 0 for the empty tree
+     */
+    public double fillRatio() {
+        int nodes = nodes();
+        return nodes == 0 ? 0 : (double) (nodes + threeNodes()) / (2 * nodes);
+    }
+
+    /**
+     * @return share of the nodes that are 3 nodes, comparable with the fill factor of the bulk loading constructors
+     */
+    public double threeNodeShare() {
+        int nodes = nodes();
+        return nodes == 0 ? 0 : (double) threeNodes() / nodes;
+    }
+
+    /**
+     * @return estimated bytes taken by the nodes, without the elements
+     */
+    public long memoryBytes() {
+        return (long) nodes() * NODE_BYTES;
+    }
+
+    /**
+     * @param level - from 0 (root) to height - 1 (leaves)
+     * @return number of nodes at the level
+     */
+    public int nodes(int level) {
+        return nodes[level];
+    }
+
+    /**
+     * @param level - from 0 (root) to height - 1 (leaves)
+     * @return number of 3 nodes at the level
+     */
+    public int threeNodes(int level) {
+        return threeNodes[level];
+    }
+
+    /**
+     * @param level - from 0 (root) to height - 1 (leaves)
+     * @return number of elements stored at the level
+     */
+    public int elements(int level) {
+        return nodes[level] + threeNodes[level];
+    }
+
+    private static int sum(int[] values) {
+        return Arrays.stream(values).sum();
+    }
+
+    /**
+     * @return the statistics as text, one line for the tree and one per level
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%d elements, height %d, %d nodes (%d 2 nodes, %d 3 nodes), fill %.3f, about %d bytes%n",
+                size, height(), nodes(), twoNodes(), threeNodes(), fillRatio(), memoryBytes()));
+        for (int level = 0; level < nodes.length; level++) {
+            text.append(String.format("  level %2d: %10d nodes %10d 3 nodes %10d elements%n",
+                    level, nodes[level], threeNodes[level], elements(level)));
+        }
+        return text.toString();
+    }
+}
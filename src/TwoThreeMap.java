@@ -0,0 +1,1501 @@
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Sorted map on a 2-3-tree: every node keeps the values next to its elements (the keys),
+ * so the payloads need no second structure and a value is found by the same descent as its key.
+ * <p>
+ * get, put, putIfAbsent, compute, merge, replace and remove walk from the root once:
+ * a new key splits the full nodes on the way back up, a removed key is repaired by borrowing or merging
+ * like in {@link Node#reBalance()}, and a new value of a present key is written in place.
+ * Keys are ordered by their natural ordering or by the comparator given to the constructor, null keys are not allowed.
+ * <p>
+ * The views (subMap, headMap, tailMap, descendingMap, the key and entry sets) are backed by the map,
+ * their iterators fail fast when the map is changed other than through them.
+ */
+public class TwoThreeMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+    private static final Object ABSENT = new Object();  // Result of a remapping that leaves no value for the key
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    /**
+     * Node with one or two keys and their values; a node left without keys has its only descendant on the left
+     */
+    private static final class MapNode<K, V> {
+        K leftElement;
+        K rightElement;
+        V leftValue;
+        V rightValue;
+        MapNode<K, V> leftChild;
+        MapNode<K, V> middleChild;
+        MapNode<K, V> rightChild;
+
+        MapNode(K element, V value, MapNode<K, V> leftChild, MapNode<K, V> middleChild) {
+            this.leftElement = element;
+            this.leftValue = value;
+            this.leftChild = leftChild;
+            this.middleChild = middleChild;
+        }
+    }
+
+    /**
+     * Decides the value of the key once the descent has found it or its place
+     */
+    @FunctionalInterface
+    private interface Remapping<V> {
+
+        /**
+         * @param value - current value, null if the key is not in the map
+         * @param found - true, if the key is in the map, otherwise false
+         * @return new value of the key, ABSENT to leave the key out of the map
+         */
+        Object apply(V value, boolean found);
+    }
+
+    /**
+     * Result of an update, and what has to be done in the parent after the update below it
+     */
+    private static final class Change<K, V> {
+        final Remapping<V> remapping;
+        boolean found;              // The key was in the map
+        V old;                      // Its value before the update
+        Object value;               // Result of the remapping
+        boolean added;
+        boolean removed;
+        boolean split;              // The node is the left half now, element, value and right have to be put into the parent
+        K element;                  // Element going up after a split, or taken out by removeMin / removeMax
+        V elementValue;
+        MapNode<K, V> right;        // Right half of the split node
+
+        Change(Remapping<V> remapping) {
+            this.remapping = remapping;
+        }
+    }
+
+    private final Comparator<? super K> comparator;
+
+    private MapNode<K, V> root;     // Tree root, null for an empty map
+    private int size;               // The number of keys
+    private int modCount;           // Number of structural changes, lets the iterators fail fast
+
+    /**
+     * Map ordered by the natural ordering of the keys
+     */
+    public TwoThreeMap() {
+        this.comparator = null;
+    }
+
+    /**
+     * @param comparator - order of the keys, null for their natural ordering
+     */
+    public TwoThreeMap(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * @param map - mappings to copy
+     */
+    public TwoThreeMap(Map<? extends K, ? extends V> map) {
+        this.comparator = null;
+        putAll(map);
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * @param key - key to look for
+     * @return true, if the key is in the map, otherwise false
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    /**
+     * @param key - key to look for
+     * @return value of the key, otherwise null
+     */
+    @Override
+    public V get(Object key) {
+        return getOrDefault(key, null);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        MapNode<K, V> current = root;
+
+        while (current != null) {
+            int order = compare(key, current.leftElement);
+
+            if (order < 0) {
+                current = current.leftChild;
+            } else if (order == 0) {
+                return current.leftValue;
+            } else if (current.rightElement == null) {
+                current = current.middleChild;
+            } else {
+                order = compare(key, current.rightElement);
+
+                if (order < 0) {
+                    current = current.middleChild;
+                } else if (order == 0) {
+                    return current.rightValue;
+                } else {
+                    current = current.rightChild;
+                }
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * @return node holding the key, otherwise null
+     */
+    private MapNode<K, V> find(Object key) {
+        MapNode<K, V> current = root;
+
+        while (current != null) {
+            int order = compare(key, current.leftElement);
+
+            if (order < 0) {
+                current = current.leftChild;
+            } else if (order == 0) {
+                return current;
+            } else if (current.rightElement == null) {
+                current = current.middleChild;
+            } else {
+                order = compare(key, current.rightElement);
+
+                if (order == 0) {
+                    return current;
+                }
+                current = order < 0 ? current.middleChild : current.rightChild;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param key   - key to add or to update
+     * @param value - its new value
+     * @return previous value of the key, otherwise null
+     */
+    @Override
+    public V put(K key, V value) {
+        return update(key, (old, found) -> value).old;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return update(key, (old, found) -> found && old != null ? old : value).old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (root == null) return null;
+        return update((K) key, (old, found) -> ABSENT).old;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return update(key, (old, found) -> found ? value : ABSENT).old;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Change<K, V> change = update(key, (old, found) -> found && Objects.equals(old, oldValue) ? newValue : found ? old : ABSENT);
+        return change.found && Objects.equals(change.old, oldValue);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return result(update(key, (old, found) -> orAbsent(remappingFunction.apply(key, old))));
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return result(update(key, (old, found) -> {
+            if (old != null) return old;
+
+            // A key mapped to null keeps its mapping if the function has no value either
+            V value = mappingFunction.apply(key);
+            return value != null || found ? value : ABSENT;
+        }));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return result(update(key, (old, found) -> old != null ? orAbsent(remappingFunction.apply(key, old)) : found ? null : ABSENT));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return result(update(key, (old, found) -> old == null ? value : orAbsent(remappingFunction.apply(old, value))));
+    }
+
+    private static Object orAbsent(Object value) {
+        return value == null ? ABSENT : value;
+    }
+
+    private V result(Change<K, V> change) {
+        return change.value == ABSENT ? null : (V) change.value;
+    }
+
+    /**
+     * Finds the key in one descent and gives its value to the remapping, which decides what happens to the key
+     */
+    private Change<K, V> update(K key, Remapping<V> remapping) {
+        Objects.requireNonNull(key);
+        Change<K, V> change = new Change<>(remapping);
+
+        if (root == null) {
+            compare(key, key); // Type and null check of the first key, as the later keys get it from the comparisons
+
+            Object value = apply(change, null, false);
+            if (value != ABSENT) {
+                root = new MapNode<>(key, (V) value, null, null);
+                change.added = true;
+            }
+        } else {
+            update(root, key, change);
+
+            // The root was split, the tree grows by one level
+            if (change.split) {
+                root = new MapNode<>(change.element, change.elementValue, root, change.right);
+            }
+
+            // The root lost its last element, the tree gets one level lower
+            else if (root.leftElement == null) {
+                root = root.leftChild;
+            }
+        }
+
+        if (change.added) {
+            size++;
+            modCount++;
+        } else if (change.removed) {
+            size--;
+            modCount++;
+        }
+        return change;
+    }
+
+    private void update(MapNode<K, V> current, K key, Change<K, V> change) {
+        int order = compare(key, current.leftElement);
+        int index;
+
+        if (order == 0) {
+            found(current, 0, change);
+            return;
+        } else if (order < 0) {
+            index = 0;
+        } else if (current.rightElement == null) {
+            index = 1;
+        } else {
+            order = compare(key, current.rightElement);
+            if (order == 0) {
+                found(current, 1, change);
+                return;
+            }
+            index = order < 0 ? 1 : 2;
+        }
+
+        // The key is not in the map, a new key goes into the leaf
+        if (current.leftChild == null) {
+            Object value = apply(change, null, false);
+            if (value != ABSENT) {
+                change.added = true;
+                put(current, index, key, (V) value, null, null, change);
+            }
+            return;
+        }
+
+        MapNode<K, V> child = child(current, index);
+        update(child, key, change);
+
+        if (change.split) {
+            change.split = false;
+            put(current, index, change.element, change.elementValue, child, change.right, change);
+        } else if (child.leftElement == null) {
+            fix(current, index);
+        }
+    }
+
+    /**
+     * The key is the element with the given index, its value is replaced in place or the element is removed
+     */
+    private void found(MapNode<K, V> current, int index, Change<K, V> change) {
+        V old = value(current, index);
+        change.found = true;
+        change.old = old;
+
+        Object value = apply(change, old, true);
+        if (value != ABSENT) {
+            setValue(current, index, (V) value);
+            return;
+        }
+
+        change.removed = true;
+        if (current.leftChild == null) {
+            removeFromLeaf(current, index);
+        } else {
+
+            // An element of an inner node is replaced by its predecessor, taken out of the leaf
+            MapNode<K, V> child = child(current, index);
+            removeMax(child, change);
+            setElement(current, index, change.element, change.elementValue);
+            change.element = null;
+            change.elementValue = null;
+
+            if (child.leftElement == null) {
+                fix(current, index);
+            }
+        }
+    }
+
+    private Object apply(Change<K, V> change, V old, boolean found) {
+        int expectedModCount = modCount;
+        Object value = change.remapping.apply(old, found);
+        if (modCount != expectedModCount) throw new ConcurrentModificationException();
+
+        change.value = value;
+        return value;
+    }
+
+    /**
+     * Puts the element before the descendant with the given index, whose place is taken by left and right
+     * (null in the leaves). A node with two elements is split: it keeps the smallest element,
+     * the middle one and the new right half are left in the change.
+     */
+    private void put(MapNode<K, V> current, int index, K element, V value, MapNode<K, V> left, MapNode<K, V> right, Change<K, V> change) {
+        if (current.rightElement == null) {
+            if (index == 0) {
+                current.rightElement = current.leftElement;
+                current.rightValue = current.leftValue;
+                current.rightChild = current.middleChild;
+                current.leftElement = element;
+                current.leftValue = value;
+                current.leftChild = left;
+                current.middleChild = right;
+            } else {
+                current.rightElement = element;
+                current.rightValue = value;
+                current.middleChild = left;
+                current.rightChild = right;
+            }
+            return;
+        }
+
+        change.split = true;
+        if (index == 0) {
+            change.element = current.leftElement;
+            change.elementValue = current.leftValue;
+            change.right = new MapNode<>(current.rightElement, current.rightValue, current.middleChild, current.rightChild);
+            current.leftElement = element;
+            current.leftValue = value;
+            current.leftChild = left;
+            current.middleChild = right;
+        } else if (index == 1) {
+            change.element = element;
+            change.elementValue = value;
+            change.right = new MapNode<>(current.rightElement, current.rightValue, right, current.rightChild);
+            current.middleChild = left;
+        } else {
+            change.element = current.rightElement;
+            change.elementValue = current.rightValue;
+            change.right = new MapNode<>(element, value, left, right);
+        }
+
+        current.rightElement = null;
+        current.rightValue = null;
+        current.rightChild = null;
+    }
+
+    /**
+     * Takes the smallest element out of the subtree, into change.element and change.elementValue
+     */
+    private void removeMin(MapNode<K, V> current, Change<K, V> change) {
+        if (current.leftChild == null) {
+            change.element = current.leftElement;
+            change.elementValue = current.leftValue;
+            removeFromLeaf(current, 0);
+            return;
+        }
+
+        removeMin(current.leftChild, change);
+        if (current.leftChild.leftElement == null) {
+            fix(current, 0);
+        }
+    }
+
+    /**
+     * Takes the largest element out of the subtree, into change.element and change.elementValue
+     */
+    private void removeMax(MapNode<K, V> current, Change<K, V> change) {
+        if (current.leftChild == null) {
+            int last = current.rightElement == null ? 0 : 1;
+            change.element = element(current, last);
+            change.elementValue = value(current, last);
+            removeFromLeaf(current, last);
+            return;
+        }
+
+        int last = current.rightElement == null ? 1 : 2;
+        MapNode<K, V> child = child(current, last);
+        removeMax(child, change);
+        if (child.leftElement == null) {
+            fix(current, last);
+        }
+    }
+
+    private static <K, V> void removeFromLeaf(MapNode<K, V> leaf, int index) {
+        if (index == 0) {
+            leaf.leftElement = leaf.rightElement;
+            leaf.leftValue = leaf.rightValue;
+        }
+        leaf.rightElement = null;
+        leaf.rightValue = null;
+    }
+
+    /**
+     * Repairs the descendant that was left without elements (a hole): borrows an element of a neighbour
+     * with two elements, otherwise merges the hole with a neighbour. If the current node loses its last
+     * element meanwhile, it becomes the hole of its parent.
+     */
+    private static <K, V> void fix(MapNode<K, V> current, int index) {
+        MapNode<K, V> hole = child(current, index);
+        int elements = current.rightElement == null ? 1 : 2;
+
+        if (index > 0 && child(current, index - 1).rightElement != null) {
+            MapNode<K, V> left = child(current, index - 1);
+            hole.middleChild = hole.leftChild;
+            hole.leftChild = left.rightChild;
+            hole.leftElement = element(current, index - 1);
+            hole.leftValue = value(current, index - 1);
+            setElement(current, index - 1, left.rightElement, left.rightValue);
+            left.rightElement = null;
+            left.rightValue = null;
+            left.rightChild = null;
+
+        } else if (index < elements && child(current, index + 1).rightElement != null) {
+            MapNode<K, V> right = child(current, index + 1);
+            hole.leftElement = element(current, index);
+            hole.leftValue = value(current, index);
+            hole.middleChild = right.leftChild;
+            setElement(current, index, right.leftElement, right.leftValue);
+            right.leftElement = right.rightElement;
+            right.leftValue = right.rightValue;
+            right.rightElement = null;
+            right.rightValue = null;
+            right.leftChild = right.middleChild;
+            right.middleChild = right.rightChild;
+            right.rightChild = null;
+
+        } else if (index > 0) {
+            MapNode<K, V> left = child(current, index - 1);
+            left.rightElement = element(current, index - 1);
+            left.rightValue = value(current, index - 1);
+            left.rightChild = hole.leftChild;
+            removeChild(current, index);
+
+        } else {
+            MapNode<K, V> right = current.middleChild;
+            hole.leftElement = current.leftElement;
+            hole.leftValue = current.leftValue;
+            hole.rightElement = right.leftElement;
+            hole.rightValue = right.leftValue;
+            hole.middleChild = right.leftChild;
+            hole.rightChild = right.middleChild;
+            removeChild(current, 1);
+        }
+    }
+
+    /**
+     * Removes the descendant with the given index (1 or 2) together with the element before it
+     */
+    private static <K, V> void removeChild(MapNode<K, V> current, int index) {
+        if (current.rightElement != null) {
+            if (index == 1) {
+                current.leftElement = current.rightElement;
+                current.leftValue = current.rightValue;
+                current.middleChild = current.rightChild;
+            }
+            current.rightElement = null;
+            current.rightValue = null;
+            current.rightChild = null;
+        } else {
+            current.leftElement = null;
+            current.leftValue = null;
+            current.middleChild = null;
+        }
+    }
+
+    private static <K, V> MapNode<K, V> child(MapNode<K, V> current, int index) {
+        return index == 0 ? current.leftChild : index == 1 ? current.middleChild : current.rightChild;
+    }
+
+    private static <K, V> K element(MapNode<K, V> current, int index) {
+        return index == 0 ? current.leftElement : current.rightElement;
+    }
+
+    private static <K, V> V value(MapNode<K, V> current, int index) {
+        return index == 0 ? current.leftValue : current.rightValue;
+    }
+
+    private static <K, V> void setElement(MapNode<K, V> current, int index, K element, V value) {
+        if (index == 0) {
+            current.leftElement = element;
+            current.leftValue = value;
+        } else {
+            current.rightElement = element;
+            current.rightValue = value;
+        }
+    }
+
+    private static <K, V> void setValue(MapNode<K, V> current, int index, V value) {
+        if (index == 0) {
+            current.leftValue = value;
+        } else {
+            current.rightValue = value;
+        }
+    }
+
+    /**
+     * @return number of slots of the node, 2k + 1 for k elements (see {@link TreeCursor})
+     */
+    private static <K, V> int slots(MapNode<K, V> node) {
+        return node.rightElement == null ? 3 : 5;
+    }
+
+    private int compare(Object a, Object b) {
+        return comparator == null ? ((Comparable<Object>) a).compareTo(b) : comparator.compare((K) a, (K) b);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        int expectedModCount = modCount;
+        forEach(root, action);
+        if (modCount != expectedModCount) throw new ConcurrentModificationException();
+    }
+
+    private void forEach(MapNode<K, V> current, BiConsumer<? super K, ? super V> action) {
+        if (current != null) {
+            forEach(current.leftChild, action);
+            action.accept(current.leftElement, current.leftValue);
+            forEach(current.middleChild, action);
+
+            if (current.rightElement != null) {
+                action.accept(current.rightElement, current.rightValue);
+                forEach(current.rightChild, action);
+            }
+        }
+    }
+
+    /* Navigation */
+
+    /**
+     * One descent from the root, remembering the closest element passed on the wanted side
+     *
+     * @param below     - true, if the key is looked for below the bound, otherwise above it
+     * @param inclusive - true, if the bound itself is an answer, otherwise false
+     * @return the closest entry, otherwise null
+     */
+    private Entry<K, V> nearest(K key, boolean below, boolean inclusive) {
+        MapNode<K, V> closest = null;
+        int closestIndex = 0;
+        MapNode<K, V> current = root;
+
+        while (current != null) {
+            int index = 0;
+            int elements = current.rightElement == null ? 1 : 2;
+
+            // Elements before index are on the lower side of the bound
+            while (index < elements) {
+                int order = compare(key, element(current, index));
+                if (order == 0 && inclusive) return entry(current, index);
+                if (order < 0 || (order == 0 && below)) break;
+                index++;
+            }
+
+            if (below && index > 0) {
+                closest = current;
+                closestIndex = index - 1;
+            } else if (!below && index < elements) {
+                closest = current;
+                closestIndex = index;
+            }
+            current = child(current, index);
+        }
+
+        return closest == null ? null : entry(closest, closestIndex);
+    }
+
+    private Entry<K, V> edge(boolean last) {
+        MapNode<K, V> current = root;
+        if (current == null) return null;
+
+        while (current.leftChild != null) {
+            current = last ? child(current, current.rightElement == null ? 1 : 2) : current.leftChild;
+        }
+        return entry(current, last && current.rightElement != null ? 1 : 0);
+    }
+
+    private static <K, V> Entry<K, V> entry(MapNode<K, V> node, int index) {
+        return new SimpleImmutableEntry<>(element(node, index), value(node, index));
+    }
+
+    private static <K, V> K key(Entry<K, V> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private static <K, V> K keyOrThrow(Entry<K, V> entry) {
+        if (entry == null) throw new NoSuchElementException();
+        return entry.getKey();
+    }
+
+    @Override
+    public Entry<K, V> lowerEntry(K key) {
+        return nearest(key, true, false);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return key(lowerEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K key) {
+        return nearest(key, true, true);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return key(floorEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K key) {
+        return nearest(key, false, true);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return key(ceilingEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> higherEntry(K key) {
+        return nearest(key, false, false);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return key(higherEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        return edge(false);
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        return edge(true);
+    }
+
+    @Override
+    public K firstKey() {
+        return keyOrThrow(firstEntry());
+    }
+
+    @Override
+    public K lastKey() {
+        return keyOrThrow(lastEntry());
+    }
+
+    /**
+     * Removes the smallest key, in one descent along the left edge of the tree
+     */
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return poll(false);
+    }
+
+    /**
+     * Removes the largest key, in one descent along the right edge of the tree
+     */
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return poll(true);
+    }
+
+    private Entry<K, V> poll(boolean last) {
+        if (root == null) return null;
+
+        Change<K, V> change = new Change<>(null);
+        if (last) {
+            removeMax(root, change);
+        } else {
+            removeMin(root, change);
+        }
+        if (root.leftElement == null) {
+            root = root.leftChild;
+        }
+
+        size--;
+        modCount++;
+        return new SimpleImmutableEntry<>(change.element, change.elementValue);
+    }
+
+    /* Views */
+
+    private View whole() {
+        return new View(null, false, null, false, false);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return whole().entrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return new KeySet(whole());
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return whole().values();
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return new View(null, false, null, false, true);
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return whole().subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return whole().headMap(toKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return whole().tailMap(fromKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Keys between two bounds (null for none) in ascending or descending order.
+     * The bounds are kept in ascending order, whatever the order of the view.
+     */
+    private final class View extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        private final K low;
+        private final boolean lowInclusive;
+        private final K high;
+        private final boolean highInclusive;
+        private final boolean descending;
+
+        View(K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(Object key) {
+            if (low == null) return false;
+            int order = compare(key, low);
+            return order < 0 || (order == 0 && !lowInclusive);
+        }
+
+        private boolean tooHigh(Object key) {
+            if (high == null) return false;
+            int order = compare(key, high);
+            return order > 0 || (order == 0 && !highInclusive);
+        }
+
+        private boolean inRange(Object key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean unbounded() {
+            return low == null && high == null;
+        }
+
+        /* Lookups in ascending order, the public methods swap them for a descending view */
+
+        private Entry<K, V> lowest() {
+            Entry<K, V> entry = low == null ? edge(false) : nearest(low, false, lowInclusive);
+            return entry == null || tooHigh(entry.getKey()) ? null : entry;
+        }
+
+        private Entry<K, V> highest() {
+            Entry<K, V> entry = high == null ? edge(true) : nearest(high, true, highInclusive);
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        private Entry<K, V> above(K key, boolean inclusive) {
+            if (tooLow(key)) return lowest();
+            Entry<K, V> entry = nearest(key, false, inclusive);
+            return entry == null || tooHigh(entry.getKey()) ? null : entry;
+        }
+
+        private Entry<K, V> below(K key, boolean inclusive) {
+            if (tooHigh(key)) return highest();
+            Entry<K, V> entry = nearest(key, true, inclusive);
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder(comparator) : comparator;
+        }
+
+        @Override
+        public int size() {
+            if (unbounded()) return size;
+
+            int count = 0;
+            for (Iterator<K> keys = new TreeIterator<>(this, KEYS); keys.hasNext(); keys.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return unbounded() ? root == null : lowest() == null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && TwoThreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Object key) {
+            return inRange(key) ? TwoThreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (!inRange(key)) throw new IllegalArgumentException("key out of range");
+            return TwoThreeMap.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return inRange(key) ? TwoThreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public void clear() {
+            if (unbounded()) {
+                TwoThreeMap.this.clear();
+                return;
+            }
+
+            for (Iterator<K> keys = new TreeIterator<>(this, KEYS); keys.hasNext(); ) {
+                keys.next();
+                keys.remove();
+            }
+        }
+
+        @Override
+        public Entry<K, V> lowerEntry(K key) {
+            return descending ? above(key, false) : below(key, false);
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return key(lowerEntry(key));
+        }
+
+        @Override
+        public Entry<K, V> floorEntry(K key) {
+            return descending ? above(key, true) : below(key, true);
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return key(floorEntry(key));
+        }
+
+        @Override
+        public Entry<K, V> ceilingEntry(K key) {
+            return descending ? below(key, true) : above(key, true);
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return key(ceilingEntry(key));
+        }
+
+        @Override
+        public Entry<K, V> higherEntry(K key) {
+            return descending ? below(key, false) : above(key, false);
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return key(higherEntry(key));
+        }
+
+        @Override
+        public Entry<K, V> firstEntry() {
+            return descending ? highest() : lowest();
+        }
+
+        @Override
+        public Entry<K, V> lastEntry() {
+            return descending ? lowest() : highest();
+        }
+
+        @Override
+        public K firstKey() {
+            return keyOrThrow(firstEntry());
+        }
+
+        @Override
+        public K lastKey() {
+            return keyOrThrow(lastEntry());
+        }
+
+        @Override
+        public Entry<K, V> pollFirstEntry() {
+            Entry<K, V> entry = firstEntry();
+            if (entry != null) TwoThreeMap.this.remove(entry.getKey());
+            return entry;
+        }
+
+        @Override
+        public Entry<K, V> pollLastEntry() {
+            Entry<K, V> entry = lastEntry();
+            if (entry != null) TwoThreeMap.this.remove(entry.getKey());
+            return entry;
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new TreeIterator<>(View.this, ENTRIES);
+                }
+
+                @Override
+                public int size() {
+                    return View.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> entry = (Entry<?, ?>) o;
+                    Object key = entry.getKey();
+                    return key != null && containsKey(key) && Objects.equals(get(key), entry.getValue());
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    if (!contains(o)) return false;
+                    View.this.remove(((Entry<?, ?>) o).getKey());
+                    return true;
+                }
+
+                @Override
+                public void clear() {
+                    View.this.clear();
+                }
+            };
+        }
+
+        @Override
+        public Collection<V> values() {
+            return new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() {
+                    return new TreeIterator<>(View.this, VALUES);
+                }
+
+                @Override
+                public int size() {
+                    return View.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    View.this.clear();
+                }
+            };
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet(this);
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public View descendingMap() {
+            return new View(low, lowInclusive, high, highInclusive, !descending);
+        }
+
+        @Override
+        public View subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            Objects.requireNonNull(fromKey);
+            Objects.requireNonNull(toKey);
+            if (compare(fromKey, toKey) * (descending ? -1 : 1) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+
+            return descending
+                    ? range(toKey, toInclusive, fromKey, fromInclusive)
+                    : range(fromKey, fromInclusive, toKey, toInclusive);
+        }
+
+        @Override
+        public View headMap(K toKey, boolean inclusive) {
+            Objects.requireNonNull(toKey);
+            return descending ? range(toKey, inclusive, null, false) : range(null, false, toKey, inclusive);
+        }
+
+        @Override
+        public View tailMap(K fromKey, boolean inclusive) {
+            Objects.requireNonNull(fromKey);
+            return descending ? range(null, false, fromKey, inclusive) : range(fromKey, inclusive, null, false);
+        }
+
+        @Override
+        public View subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public View headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public View tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        /**
+         * @return view with the given ascending bounds, null keeps the bound of this view
+         * @throws IllegalArgumentException if a bound is outside this view
+         */
+        private View range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+            if (from == null) {
+                from = low;
+                fromInclusive = lowInclusive;
+            } else if (outside(from, fromInclusive)) {
+                throw new IllegalArgumentException("fromKey out of range");
+            }
+
+            if (to == null) {
+                to = high;
+                toInclusive = highInclusive;
+            } else if (outside(to, toInclusive)) {
+                throw new IllegalArgumentException("toKey out of range");
+            }
+
+            return new View(from, fromInclusive, to, toInclusive, descending);
+        }
+
+        /**
+         * @return true, if the bound would widen the view, otherwise false
+         */
+        private boolean outside(K bound, boolean inclusive) {
+            if (low != null) {
+                int order = compare(bound, low);
+                if (order < 0 || (order == 0 && inclusive && !lowInclusive)) return true;
+            }
+            if (high != null) {
+                int order = compare(bound, high);
+                if (order > 0 || (order == 0 && inclusive && !highInclusive)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Keys of a view, as a set
+     */
+    private final class KeySet extends AbstractSet<K> implements NavigableSet<K> {
+        private final View view;
+
+        KeySet(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new TreeIterator<>(view, KEYS);
+        }
+
+        @Override
+        public Iterator<K> descendingIterator() {
+            return new TreeIterator<>(view.descendingMap(), KEYS);
+        }
+
+        @Override
+        public int size() {
+            return view.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return view.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return view.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!view.containsKey(o)) return false;
+            view.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            view.clear();
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return view.comparator();
+        }
+
+        @Override
+        public K lower(K key) {
+            return view.lowerKey(key);
+        }
+
+        @Override
+        public K floor(K key) {
+            return view.floorKey(key);
+        }
+
+        @Override
+        public K ceiling(K key) {
+            return view.ceilingKey(key);
+        }
+
+        @Override
+        public K higher(K key) {
+            return view.higherKey(key);
+        }
+
+        @Override
+        public K first() {
+            return view.firstKey();
+        }
+
+        @Override
+        public K last() {
+            return view.lastKey();
+        }
+
+        @Override
+        public K pollFirst() {
+            return key(view.pollFirstEntry());
+        }
+
+        @Override
+        public K pollLast() {
+            return key(view.pollLastEntry());
+        }
+
+        @Override
+        public NavigableSet<K> descendingSet() {
+            return new KeySet(view.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return new KeySet(view.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return new KeySet(view.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return new KeySet(view.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public NavigableSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public NavigableSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+
+    /**
+     * Walks the keys of a view in its order with an explicit stack, slot by slot like {@link TreeCursor}.
+     * The next key is looked up in advance; after a removal through the iterator the walk starts over
+     * after the removed key.
+     */
+    private final class TreeIterator<E> implements Iterator<E> {
+        private final View view;
+        private final int kind;         // KEYS, VALUES or ENTRIES
+        private MapNode<K, V>[] nodes = new MapNode[16];
+        private int[] slots = new int[16];
+        private int depth;
+        private MapNode<K, V> nextNode; // Node of the next key, null at the end
+        private int nextIndex;
+        private K lastKey;              // Key returned last, null if it may not be removed
+        private int expectedModCount;
+
+        TreeIterator(View view, int kind) {
+            this.view = view;
+            this.kind = kind;
+            this.expectedModCount = modCount;
+            if (view.descending) {
+                seek(view.high, view.highInclusive);
+            } else {
+                seek(view.low, view.lowInclusive);
+            }
+        }
+
+        /**
+         * Puts the path to the first key not before the start (in the order of the view) on the stack
+         *
+         * @param start - null to start at the first key
+         */
+        private void seek(K start, boolean inclusive) {
+            boolean descending = view.descending;
+            depth = 0;
+            MapNode<K, V> current = root;
+
+            if (start == null) {
+                if (current != null) push(current, descending ? slots(current) - 1 : 0);
+                advance();
+                return;
+            }
+
+            while (current != null) {
+                int elements = current.rightElement == null ? 1 : 2;
+                MapNode<K, V> next = descending ? current.leftChild : child(current, elements);
+
+                for (int i = 0; i < elements; i++) {
+                    int index = descending ? elements - 1 - i : i;
+                    int order = compare(element(current, index), start);
+
+                    if ((descending ? order < 0 : order > 0) || (order == 0 && inclusive)) {
+                        // The walk goes on with this element after the descendant before it
+                        push(current, 2 * index + 1);
+                        next = order == 0 ? null : child(current, descending ? index + 1 : index);
+                        break;
+                    }
+                }
+
+                current = next;
+            }
+
+            advance();
+        }
+
+        private void push(MapNode<K, V> node, int slot) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                slots = Arrays.copyOf(slots, depth * 2);
+            }
+            nodes[depth] = node;
+            slots[depth] = slot;
+            depth++;
+        }
+
+        /**
+         * Finds the next key of the view, or the end
+         */
+        private void advance() {
+            boolean descending = view.descending;
+
+            while (depth > 0) {
+                int top = depth - 1;
+                MapNode<K, V> node = nodes[top];
+                int slot = slots[top];
+
+                if (slot < 0 || slot >= slots(node)) {
+                    nodes[top] = null;
+                    depth--;
+                    continue;
+                }
+
+                slots[top] = descending ? slot - 1 : slot + 1;
+                if ((slot & 1) == 1) {
+                    nextNode = node;
+                    nextIndex = slot >> 1;
+
+                    // The far bound of the view ends the walk
+                    K key = element(node, nextIndex);
+                    if (descending ? view.tooLow(key) : view.tooHigh(key)) {
+                        break;
+                    }
+                    return;
+                }
+
+                MapNode<K, V> child = child(node, slot >> 1);
+                if (child != null) {
+                    push(child, descending ? slots(child) - 1 : 0);
+                }
+            }
+
+            nextNode = null;
+            depth = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (nextNode == null) throw new NoSuchElementException();
+
+            K key = element(nextNode, nextIndex);
+            V value = value(nextNode, nextIndex);
+            lastKey = key;
+            advance();
+
+            if (kind == KEYS) return (E) key;
+            if (kind == VALUES) return (E) value;
+            return (E) new WriteThroughEntry(key, value);
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) throw new IllegalStateException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+
+            TwoThreeMap.this.remove(lastKey);
+            expectedModCount = modCount;
+
+            // The nodes on the stack may have changed, the walk goes on from the removed key
+            seek(lastKey, false);
+            lastKey = null;
+        }
+    }
+
+    /**
+     * Entry of an entry set iterator, setValue writes the value into the map
+     */
+    @SuppressWarnings("serial") // Never serialized
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            TwoThreeMap.this.put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}